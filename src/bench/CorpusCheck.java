@@ -0,0 +1,127 @@
+package bench;
+
+import ast.AST;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import org.apache.commons.cli.*;
+import pl434.Compiler;
+import pl434.DLXMachine;
+import pl434.Scanner;
+import types.TypeChecker;
+
+// Compiles corpus programs with the given optimizations, runs them and
+// checks what they print against the .out next to each, reading the .in
+// next to it if there is one. Prompts, trailing blanks and empty lines are
+// not compared. Exits 1 if any program differs.
+//
+//   java bench.CorpusCheck -o max project8_9/test110.txt project8_9/test119.txt
+public class CorpusCheck {
+
+  public static void main(String[] args) throws IOException {
+    Options options = new Options();
+    options.addOption("nr", "reg", true, "Num Regs");
+    options.addOption("o", "opt", true, "Optimization, allowed multiple");
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(options, args);
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp("CorpusCheck [options] files", options);
+      System.exit(-1);
+    }
+
+    int numRegs = Integer.parseInt(cmd.getOptionValue("reg", "24"));
+    String[] optArgs = cmd.getOptionValues("opt");
+    List<String> optArguments = optArgs == null
+      ? new ArrayList<String>()
+      : Arrays.asList(optArgs);
+
+    int failed = 0;
+    for (String sourceFile : cmd.getArgs()) {
+      String base = sourceFile.substring(0, sourceFile.lastIndexOf('.'));
+      String expected = normalize(
+        new String(Files.readAllBytes(Paths.get(base + ".out")))
+      );
+      String actual;
+      try {
+        actual = normalize(run(sourceFile, base, numRegs, optArguments, cmd));
+      } catch (RuntimeException e) {
+        actual = e.toString();
+      }
+      if (expected.equals(actual)) {
+        System.out.println("ok   " + sourceFile);
+      } else {
+        System.out.println("FAIL " + sourceFile);
+        System.out.println("  expected: " + expected.replace("\n", "\\n"));
+        System.out.println("  printed:  " + actual.replace("\n", "\\n"));
+        failed++;
+      }
+    }
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  private static String run(
+    String sourceFile,
+    String base,
+    int numRegs,
+    List<String> optArguments,
+    CommandLine cmd
+  ) throws IOException {
+    byte[] input = new byte[0];
+    Path in = Paths.get(base + ".in");
+    if (Files.exists(in)) {
+      input = Files.readAllBytes(in);
+    }
+    int[] program = compile(sourceFile, numRegs, optArguments, cmd);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DLXMachine machine = new DLXMachine(new PrintStream(bytes), System.err);
+    machine.load(program);
+    machine.execute(new ByteArrayInputStream(input));
+    return bytes.toString();
+  }
+
+  private static String normalize(String printed) {
+    StringBuilder lines = new StringBuilder();
+    for (String line : printed
+      .replaceAll("(int|float|true or false)\\? ", "")
+      .split("\n")) {
+      line = line.replaceAll("\\s+$", "");
+      if (!line.isEmpty()) {
+        lines.append(line).append('\n');
+      }
+    }
+    return lines.toString();
+  }
+
+  // the compiler prints its graphs, keep them out of the report
+  private static int[] compile(
+    String sourceFile,
+    int numRegs,
+    List<String> optArguments,
+    CommandLine cmd
+  ) throws IOException {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      Compiler c = new Compiler(new Scanner(new FileReader(sourceFile)), numRegs);
+      AST ast = c.genAST();
+      TypeChecker tc = new TypeChecker();
+      if (!tc.check(ast)) {
+        throw new IllegalStateException(tc.errorReport());
+      }
+      c.genSSA(ast);
+      c.optimization(optArguments, cmd);
+      c.regAlloc(numRegs);
+      int[] program = c.genCode();
+      if (c.hasError()) {
+        throw new IllegalStateException(c.errorReport());
+      }
+      return program;
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+}
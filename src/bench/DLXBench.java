@@ -0,0 +1,217 @@
+package bench;
+
+import ast.AST;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.commons.cli.*;
+import pl434.Compiler;
+import pl434.DLXBufferedChannel;
+import pl434.DLXChannel;
+import pl434.DLXMachine;
+import pl434.DLXSnapshot;
+import pl434.Scanner;
+import types.TypeChecker;
+
+// Compiles a program once and runs it repeatedly on every DLX execution tier,
+// reporting throughput and checking that all tiers print the same output.
+// With -w it also runs each tier from a warmUp() snapshot instead of
+// load() and execute(), on one thread and on all cores.
+//
+//   java bench.DLXBench -s project6/test009.txt -n 5000 -w
+public class DLXBench {
+
+  public static void main(String[] args) throws IOException {
+    Options options = new Options();
+    options.addRequiredOption("s", "src", true, "Source File");
+    options.addOption("i", "in", true, "Data File");
+    options.addOption("n", "runs", true, "Measured runs per tier");
+    options.addOption("nr", "reg", true, "Num Regs");
+    options.addOption("o", "opt", true, "Optimization, allowed multiple");
+    options.addOption("w", "warmUp", false, "Also run from a snapshot");
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(options, args);
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp("DLXBench", options);
+      System.exit(-1);
+    }
+
+    int runs = Integer.parseInt(cmd.getOptionValue("runs", "2000"));
+    int numRegs = Integer.parseInt(cmd.getOptionValue("reg", "24"));
+    byte[] input = new byte[0];
+    if (cmd.hasOption("in")) {
+      input = Files.readAllBytes(Paths.get(cmd.getOptionValue("in")));
+    }
+
+    int[] program = compile(cmd.getOptionValue("src"), numRegs, cmd);
+
+    byte[] expected = null;
+    double baseline = 0;
+    for (DLXMachine.Tier tier : DLXMachine.Tier.values()) {
+      // first run checks the output, the rest only measure
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DLXMachine machine = new DLXMachine(
+        new PrintStream(bytes),
+        System.err
+      );
+      machine.setTier(tier);
+      machine.load(program);
+      machine.execute(new ByteArrayInputStream(input));
+      if (expected == null) {
+        expected = bytes.toByteArray();
+      } else if (!Arrays.equals(expected, bytes.toByteArray())) {
+        System.err.println(tier + ": output differs from interp");
+        System.exit(1);
+      }
+
+      machine = new DLXMachine(
+        new PrintStream(OutputStream.nullOutputStream()),
+        System.err
+      );
+      machine.setTier(tier);
+      machine.load(program);
+      // warm up
+      for (int r = 0; r < runs / 4; r++) {
+        machine.execute(new ByteArrayInputStream(input));
+      }
+      long instructions = 0;
+      long start = System.nanoTime();
+      for (int r = 0; r < runs; r++) {
+        machine.execute(new ByteArrayInputStream(input));
+        instructions += machine.instructionCount();
+      }
+      long nanos = System.nanoTime() - start;
+
+      double mips = instructions * 1e3 / nanos;
+      if (baseline == 0) {
+        baseline = mips;
+      }
+      System.out.printf(
+        "%-8s %d instructions/run, %d runs in %.1f ms: %.1f Minstr/s (%.2fx)%n",
+        tier.toString().toLowerCase(),
+        instructions / runs,
+        runs,
+        nanos / 1e6,
+        mips,
+        mips / baseline
+      );
+
+      if (cmd.hasOption("warmUp")) {
+        snapshotRuns(tier, program, input, expected, runs);
+      }
+    }
+  }
+
+  // load and run every time against resuming one snapshot, then the same
+  // snapshot on a machine per core
+  private static void snapshotRuns(
+    DLXMachine.Tier tier,
+    int[] program,
+    byte[] input,
+    byte[] expected,
+    int runs
+  ) throws IOException {
+    PrintStream none = new PrintStream(OutputStream.nullOutputStream());
+    DLXMachine machine = new DLXMachine(none, System.err);
+    machine.setTier(tier);
+    machine.load(program);
+    DLXSnapshot snapshot = machine.warmUp();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DLXMachine check = new DLXMachine(new PrintStream(bytes), System.err);
+    check.setTier(tier);
+    check.execute(snapshot, channel(input, new PrintStream(bytes)));
+    if (!Arrays.equals(expected, bytes.toByteArray())) {
+      System.err.println(tier + ": output from snapshot differs from interp");
+      System.exit(1);
+    }
+
+    long reload = System.nanoTime();
+    for (int r = 0; r < runs; r++) {
+      machine.load(program);
+      machine.execute(new ByteArrayInputStream(input));
+    }
+    reload = System.nanoTime() - reload;
+    long resume = System.nanoTime();
+    for (int r = 0; r < runs; r++) {
+      machine.execute(snapshot, channel(input, none));
+    }
+    resume = System.nanoTime() - resume;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> done = new ArrayList<>();
+    long parallel = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      done.add(
+        pool.submit(() -> {
+          DLXMachine own = new DLXMachine(none, System.err);
+          own.setTier(tier);
+          for (int r = 0; r < runs; r++) {
+            own.execute(snapshot, channel(input, none));
+          }
+          return null;
+        })
+      );
+    }
+    try {
+      for (Future<?> f : done) {
+        f.get();
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    } finally {
+      pool.shutdown();
+    }
+    parallel = System.nanoTime() - parallel;
+
+    System.out.printf(
+      "  load+run %.1f us/run, snapshot %.1f us/run (%d prologue instructions), %d threads %.1f us/run%n",
+      reload / 1e3 / runs,
+      resume / 1e3 / runs,
+      snapshot.instructionCount(),
+      threads,
+      parallel / 1e3 / runs / threads
+    );
+  }
+
+  private static DLXChannel channel(byte[] input, PrintStream out) {
+    return new DLXBufferedChannel(
+      new ByteArrayInputStream(input),
+      out,
+      System.err,
+      true
+    );
+  }
+
+  // the compiler prints its graphs, keep them out of the report
+  private static int[] compile(String sourceFile, int numRegs, CommandLine cmd)
+    throws IOException {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      Compiler c = new Compiler(new Scanner(new FileReader(sourceFile)), numRegs);
+      AST ast = c.genAST();
+      TypeChecker tc = new TypeChecker();
+      if (!tc.check(ast)) {
+        System.err.println(tc.errorReport());
+        System.exit(-4);
+      }
+      c.genSSA(ast);
+      c.optimization(new ArrayList<String>(), cmd);
+      c.regAlloc(numRegs);
+      int[] program = c.genCode();
+      if (c.hasError()) {
+        System.err.println(c.errorReport());
+        System.exit(-4);
+      }
+      return program;
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+}
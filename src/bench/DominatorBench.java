@@ -0,0 +1,303 @@
+package bench;
+
+import java.util.*;
+import pl434.CompilationContext;
+import pl434.Names;
+import ssa.Block;
+import ssa.Dominators;
+import ssa.SSA;
+
+// Builds dominator trees and frontiers of synthetic CFGs with Dominators and
+// with the dominator sets DominatorTree used to intersect, checking that both
+// find the same immediate dominators and frontiers. The shapes are a chain
+// of if/else diamonds, a chain of while loops and while loops nested in each
+// other. The sets take too long past a few thousand blocks, -m caps them.
+//
+//   java bench.DominatorBench -k 250,1000,4000,16000 -n 20 -m 4000
+public class DominatorBench {
+
+  public static void main(String[] args) {
+    int[] sizes = { 250, 1000, 4000, 16000 };
+    int rounds = 20;
+    int maxSets = 4000;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-k":
+          sizes = Arrays
+            .stream(args[++i].split(","))
+            .mapToInt(Integer::parseInt)
+            .toArray();
+          break;
+        case "-n":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        case "-m":
+          maxSets = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println(
+            "usage: DominatorBench [-k sizes] [-n n] [-m max set blocks]"
+          );
+          System.exit(-1);
+      }
+    }
+
+    for (String shape : new String[] { "if", "while", "nested" }) {
+      for (int k : sizes) {
+        List<Block> blocks = new ArrayList<>();
+        Block root = build(shape, k, blocks);
+        boolean sets = blocks.size() <= maxSets;
+        if (sets) {
+          check(shape, root, blocks);
+        }
+        // warm up, then measure
+        measure(root, blocks.size(), Math.max(1, rounds / 4), false);
+        double after = measure(root, blocks.size(), rounds, false);
+        String line = String.format(
+          "%-6s %6d blocks  tarjan %8.3f ms",
+          shape,
+          blocks.size(),
+          after
+        );
+        if (sets) {
+          int setRounds = Math.max(1, rounds / 10);
+          measure(root, blocks.size(), 1, true);
+          double before = measure(root, blocks.size(), setRounds, true);
+          line +=
+            String.format("  sets %10.3f ms  %7.1fx", before, before / after);
+        }
+        System.out.println(line);
+      }
+    }
+  }
+
+  // Shapes ====================================================================
+
+  private static Block block(SSA ssa, List<Block> blocks) {
+    Block b = new Block(ssa);
+    blocks.add(b);
+    return b;
+  }
+
+  private static Block build(String shape, int k, List<Block> blocks) {
+    SSA ssa = new SSA(new CompilationContext(new Names()));
+    Block root = block(ssa, blocks);
+    Block head = root;
+    switch (shape) {
+      case "if":
+        // if then else fi; if then else fi; ...
+        for (int i = 0; i < k; i++) {
+          Block then = block(ssa, blocks);
+          Block other = block(ssa, blocks);
+          Block join = block(ssa, blocks);
+          head.addEdge(then, "then");
+          head.addEdge(other, "else");
+          then.addEdge(join, "");
+          other.addEdge(join, "");
+          head = join;
+        }
+        break;
+      case "while":
+        // while do od; while do od; ...
+        for (int i = 0; i < k; i++) {
+          Block header = block(ssa, blocks);
+          Block body = block(ssa, blocks);
+          Block exit = block(ssa, blocks);
+          head.addEdge(header, "");
+          header.addEdge(body, "then");
+          body.addEdge(header, "");
+          header.addEdge(exit, "else");
+          head = exit;
+        }
+        break;
+      default:
+        // while do while do ... od od, back to each header after the loop
+        // inside it
+        Block[] headers = new Block[k];
+        for (int i = 0; i < k; i++) {
+          headers[i] = block(ssa, blocks);
+          head.addEdge(headers[i], "then");
+          head = headers[i];
+        }
+        Block body = block(ssa, blocks);
+        head.addEdge(body, "then");
+        body.addEdge(head, "");
+        for (int i = k - 1; i >= 0; i--) {
+          Block exit = block(ssa, blocks);
+          headers[i].addEdge(exit, "else");
+          if (i > 0) {
+            exit.addEdge(headers[i - 1], "");
+          }
+        }
+        break;
+    }
+    return root;
+  }
+
+  // Runs ======================================================================
+
+  // both find the same immediate dominators and frontiers
+  private static void check(String shape, Block root, List<Block> blocks) {
+    Dominators tree = new Dominators(root, blocks.size());
+    SetDominators sets = new SetDominators(root);
+    for (Block b : blocks) {
+      Set<Block> frontier = new HashSet<>();
+      int n = tree.number(b);
+      for (int i = 0; i < tree.frontierSize(n); i++) {
+        frontier.add(tree.block(tree.frontier(n, i)));
+      }
+      if (
+        tree.idom(b) != sets.idom.get(b) ||
+        !frontier.equals(sets.frontier(b))
+      ) {
+        System.err.println(shape + ": BB" + b.my_num + " differs");
+        System.exit(1);
+      }
+    }
+  }
+
+  // kept so the trees built are not dead code
+  static long blocksSeen = 0;
+
+  // milliseconds per tree
+  private static double measure(
+    Block root,
+    int capacity,
+    int rounds,
+    boolean sets
+  ) {
+    int sum = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      if (sets) {
+        sum += new SetDominators(root).idom.size();
+      } else {
+        sum += new Dominators(root, capacity).size();
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    blocksSeen += sum;
+    return nanos / 1e6 / rounds;
+  }
+
+  // DominatorTree.buildTree as it was, with its per-block sets kept in maps:
+  // dominator sets intersected along a breadth-first walk, the immediate
+  // dominator searched for in them and frontiers gathered recursively up
+  // the tree. Bench blocks are never the join of an if, so the frontiers
+  // leave that case out.
+  private static class SetDominators {
+
+    final Map<Block, LinkedHashSet<Block>> doms = new HashMap<>();
+    final Map<Block, Set<Block>> visitedFrom = new HashMap<>();
+    final Map<Block, Block> idom = new HashMap<>();
+    final Map<Block, Set<Block>> children = new HashMap<>();
+    final Map<Block, Set<Block>> frontiers = new HashMap<>();
+
+    SetDominators(Block root) {
+      Stack<Block> bfsStack = new Stack<>();
+      Set<Block> visited = new HashSet<>();
+      bfsStack.add(root);
+      while (!bfsStack.isEmpty()) {
+        Stack<Block> nxtBlocks = new Stack<>();
+        while (!bfsStack.isEmpty()) {
+          Block nxt = bfsStack.pop();
+          if (visited.contains(nxt)) {
+            continue;
+          }
+          visited.add(nxt);
+          for (Block child : nxt.edges) {
+            Set<Block> from = visitedFrom(child);
+            if (!from.contains(nxt) && !doms(nxt).contains(child)) {
+              compareParents(child, nxt);
+              nxtBlocks.add(child);
+              from.add(nxt);
+            }
+          }
+        }
+        bfsStack.clear();
+        bfsStack.addAll(nxtBlocks);
+      }
+      for (Block b : visited) {
+        solveIDom(b);
+      }
+      compDF(new HashSet<>(), root);
+    }
+
+    LinkedHashSet<Block> doms(Block b) {
+      return doms.computeIfAbsent(
+        b,
+        k -> new LinkedHashSet<>(Collections.singleton(k))
+      );
+    }
+
+    Set<Block> visitedFrom(Block b) {
+      return visitedFrom.computeIfAbsent(b, k -> new HashSet<>());
+    }
+
+    Set<Block> children(Block b) {
+      return children.computeIfAbsent(b, k -> new HashSet<>());
+    }
+
+    Set<Block> frontier(Block b) {
+      return frontiers.computeIfAbsent(b, k -> new HashSet<>());
+    }
+
+    void compareParents(Block block, Block parent) {
+      LinkedHashSet<Block> blockDoms = doms(block);
+      if (blockDoms.size() == 1) {
+        for (Block dom : doms(parent)) {
+          if (dom != block) {
+            blockDoms.add(dom);
+          }
+        }
+      } else {
+        List<Block> intersectComp = new ArrayList<>();
+        for (Block dom : blockDoms) {
+          if (!doms(parent).contains(dom) && dom != block) {
+            intersectComp.add(dom);
+          }
+        }
+        blockDoms.removeAll(intersectComp);
+      }
+    }
+
+    void solveIDom(Block b) {
+      for (Block a : doms(b)) {
+        if (a != b) {
+          boolean noDoms = true;
+          for (Block c : doms(b)) {
+            if (c != a && c != b && doms(c).contains(a)) {
+              noDoms = false;
+              break;
+            }
+          }
+          if (noDoms) {
+            idom.put(b, a);
+            children(a).add(b);
+            return;
+          }
+        }
+      }
+    }
+
+    void compDF(Set<Block> visited, Block root) {
+      if (visited.contains(root)) {
+        return;
+      }
+      for (Block b : root.edges) {
+        if (!doms(b).contains(root) || root == b) {
+          frontier(root).add(b);
+        }
+      }
+      visited.add(root);
+      for (Block c : children(root)) {
+        compDF(visited, c);
+        for (Block cDF : frontier(c)) {
+          if (!doms(cDF).contains(root) || cDF == root) {
+            frontier(root).add(cDF);
+          }
+        }
+      }
+    }
+  }
+}
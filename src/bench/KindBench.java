@@ -0,0 +1,132 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import pl434.Scanner;
+import pl434.Token;
+import pl434.Token.Kind;
+
+// Classifies every lexeme of a corpus with Token.Kind.getKind() and with the
+// regex and Kind.values() scan it used to do, checking that both agree and
+// reporting lexemes per second.
+//
+//   java bench.KindBench project1 project6 project7 -n 200
+public class KindBench {
+
+  public static void main(String[] args) throws IOException {
+    int rounds = 100;
+    List<Path> roots = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-n")) {
+        rounds = Integer.parseInt(args[++i]);
+      } else {
+        roots.add(Paths.get(args[i]));
+      }
+    }
+    if (roots.isEmpty()) {
+      roots.add(Paths.get("."));
+    }
+
+    List<String> corpus = new ArrayList<>();
+    for (Path root : roots) {
+      try (Stream<Path> files = Files.walk(root)) {
+        for (Path file : (Iterable<Path>) files
+          .filter(p -> p.toString().endsWith(".txt"))::iterator) {
+          lex(file, corpus);
+        }
+      }
+    }
+    String[] lexemes = corpus.toArray(new String[0]);
+    System.out.println(lexemes.length + " lexemes");
+
+    for (String lexeme : lexemes) {
+      if (Kind.getKind(lexeme) != regexKind(lexeme)) {
+        System.err.println(
+          "\"" +
+          lexeme +
+          "\": " +
+          Kind.getKind(lexeme) +
+          ", regex " +
+          regexKind(lexeme)
+        );
+        System.exit(1);
+      }
+    }
+
+    // warm up both, then measure
+    measure("regex", lexemes, rounds / 4, true);
+    measure("getKind", lexemes, rounds / 4, false);
+    double before = measure("regex", lexemes, rounds, true);
+    double after = measure("getKind", lexemes, rounds, false);
+    System.out.printf("getKind is %.1fx faster%n", after / before);
+  }
+
+  // tokens of file as the scanner sees them, errors included
+  private static void lex(Path file, List<String> corpus) throws IOException {
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      Scanner scanner = new Scanner(Files.newBufferedReader(file));
+      for (Token t = scanner.next(); t.kind() != Kind.EOF; t = scanner.next()) {
+        String lexeme = t.lexeme();
+        if (t.kind() == Kind.ERROR) {
+          lexeme = lexeme.substring(lexeme.indexOf(": ") + 2);
+        }
+        corpus.add(lexeme);
+      }
+    } catch (UncheckedIOException e) {
+      // not a readable source, skip it
+    } finally {
+      System.setErr(err);
+    }
+  }
+
+  private static double measure(
+    String name,
+    String[] lexemes,
+    int rounds,
+    boolean regex
+  ) {
+    int sum = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (String lexeme : lexemes) {
+        sum += (regex ? regexKind(lexeme) : Kind.getKind(lexeme)).ordinal();
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    double rate = (double) lexemes.length * rounds * 1e9 / nanos;
+    System.out.printf(
+      "%-8s %.1f ms, %.1f M lexemes/s (%d)%n",
+      name,
+      nanos / 1e6,
+      rate / 1e6,
+      sum
+    );
+    return rate;
+  }
+
+  // getKind() as it was
+  private static Kind regexKind(String lexeme) {
+    if (lexeme.length() == 0) {
+      return Kind.ERROR;
+    }
+    if (Kind.isInt.matcher(lexeme).matches()) {
+      return Kind.INT_VAL;
+    }
+    if (Kind.isFloat.matcher(lexeme).matches()) {
+      return Kind.FLOAT_VAL;
+    }
+    for (Kind k : Kind.values()) {
+      if (k.defaultLexeme().equals(lexeme)) {
+        return k;
+      }
+    }
+    if (Kind.isIdent.matcher(lexeme).matches()) {
+      return Kind.IDENT;
+    }
+    return Kind.ERROR;
+  }
+}
@@ -0,0 +1,145 @@
+package bench;
+
+import ast.AST;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import pl434.Compiler;
+import pl434.Scanner;
+import ssa.Block;
+import ssa.SSA;
+import types.TypeChecker;
+
+// Times SSA construction, phi placement included, of generated programs that
+// nest while and repeat loops, or if/else statements inside a loop, as deep
+// as asked, and counts the phis placed. Each program is parsed and checked
+// outside the timing.
+//
+//   java bench.PhiBench -d 4,8,16,32 -n 50
+public class PhiBench {
+
+  public static void main(String[] args) {
+    int[] depths = { 4, 8, 16, 32 };
+    int rounds = 50;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-d":
+          depths = Arrays
+            .stream(args[++i].split(","))
+            .mapToInt(Integer::parseInt)
+            .toArray();
+          break;
+        case "-n":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println("usage: PhiBench [-d depths] [-n n]");
+          System.exit(-1);
+      }
+    }
+
+    for (String shape : new String[] { "while", "repeat", "else" }) {
+      for (int depth : depths) {
+        String source = program(shape, depth);
+        // warm up, then measure
+        measure(source, Math.max(1, rounds / 4));
+        double ms = measure(source, rounds);
+        System.out.printf(
+          "%-6s depth %3d  %5d phis  %8.3f ms per SSA%n",
+          shape,
+          depth,
+          phis,
+          ms
+        );
+      }
+    }
+  }
+
+  // Programs ==================================================================
+
+  // while do repeat ... until od, alternating, or if then else ... fi nested
+  // in the else branches inside one while loop
+  private static String program(String shape, int depth) {
+    StringBuilder s = new StringBuilder("main\nint a, b");
+    for (int k = 0; k < depth; k++) {
+      s.append(", i").append(k);
+    }
+    s.append(";\n{\nlet a = 0;\nlet b = 1;\n");
+    for (int k = 0; k < depth; k++) {
+      s.append("let i").append(k).append(" = 0;\n");
+    }
+    if (shape.equals("else")) {
+      s.append("while (i0 < 3) do\n");
+      for (int k = 0; k < depth; k++) {
+        s.append("if (b < 0) then\nlet b = b + 1;\nelse\n");
+      }
+      s.append("let a = a + 1;\n");
+      for (int k = 0; k < depth; k++) {
+        s.append("fi;\n");
+      }
+      s.append("let i0 = i0 + 1;\nod;\n");
+    } else {
+      boolean repeatFirst = shape.equals("repeat");
+      for (int k = 0; k < depth; k++) {
+        s.append(
+          (k % 2 == 0) != repeatFirst
+            ? "while (i" + k + " < 2) do\n"
+            : "repeat\n"
+        );
+      }
+      s.append("let a = a + b;\nlet b = b + 1;\n");
+      for (int k = depth - 1; k >= 0; k--) {
+        s.append("let i").append(k).append(" = i").append(k).append(" + 1;\n");
+        s.append(
+          (k % 2 == 0) != repeatFirst ? "od;\n" : "until (i" + k + " > 1);\n"
+        );
+      }
+    }
+    s.append("call printInt(a);\n}.\n");
+    return s.toString();
+  }
+
+  // Runs ======================================================================
+
+  // phis placed by the last measured SSA
+  private static long phis;
+
+  // milliseconds per SSA, built rounds times from fresh parses
+  private static double measure(String source, int rounds) {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      long nanos = 0;
+      for (int r = 0; r < rounds; r++) {
+        Compiler c = new Compiler(new Scanner(source.toCharArray()), 24);
+        AST ast = c.genAST();
+        if (!new TypeChecker().check(ast)) {
+          throw new IllegalStateException("generated program does not check");
+        }
+        long start = System.nanoTime();
+        SSA ssa = c.genSSA(ast);
+        nanos += System.nanoTime() - start;
+        phis = phis(ssa);
+      }
+      return nanos / 1e6 / rounds;
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  private static long phis(SSA ssa) {
+    Set<Block> seen = new HashSet<>(ssa.roots);
+    Deque<Block> work = new ArrayDeque<>(ssa.roots);
+    long count = 0;
+    while (!work.isEmpty()) {
+      Block b = work.pop();
+      count += b.phis.size();
+      for (Block e : b.edges) {
+        if (seen.add(e)) {
+          work.push(e);
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,235 @@
+package bench;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import pl434.Names;
+import pl434.Symbol;
+import pl434.SymbolTable;
+import types.IntType;
+
+// Resolves names in deeply nested scopes with SymbolTable and with the
+// cloned Stack of HashMaps it used to be, checking that both find the same
+// symbols. Reports time and bytes allocated per lookup, opening the scopes
+// and declaring their names included.
+//
+//   java bench.SymbolBench -d 32 -v 8 -n 200
+public class SymbolBench {
+
+  // the ids the flat table goes by, as a compilation's would be
+  private static final Names NAMES = new Names();
+
+  public static void main(String[] args) {
+    int depth = 32;
+    int perScope = 8;
+    int rounds = 200;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-d":
+          depth = Integer.parseInt(args[++i]);
+          break;
+        case "-v":
+          perScope = Integer.parseInt(args[++i]);
+          break;
+        case "-n":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println(
+            "usage: SymbolBench [-d depth] [-v vars] [-n n]"
+          );
+          System.exit(-1);
+      }
+    }
+
+    // every scope declares perScope names of its own and one that hides the
+    // same name in all outer scopes, lookups ask for every name declared
+    String[][] names = new String[depth][perScope + 1];
+    int[][] ids = new int[depth][perScope + 1];
+    for (int d = 0; d < depth; d++) {
+      for (int v = 0; v < perScope; v++) {
+        names[d][v] = "v" + d + "_" + v;
+      }
+      names[d][perScope] = "shadowed";
+      for (int v = 0; v <= perScope; v++) {
+        ids[d][v] = NAMES.id(names[d][v]);
+      }
+    }
+    Symbol[][] symbols = new Symbol[depth][perScope + 1];
+    for (int d = 0; d < depth; d++) {
+      for (int v = 0; v <= perScope; v++) {
+        symbols[d][v] = new Symbol(names[d][v], new IntType());
+      }
+    }
+
+    check(names, ids, symbols);
+    int lookups = depth * (depth + 1) / 2 * (perScope + 1);
+    System.out.println(
+      depth +
+      " scopes, " +
+      lookups +
+      " lookups per round, " +
+      rounds +
+      " rounds"
+    );
+    // warm up both, then measure
+    measure("cloned", names, ids, symbols, rounds / 4, lookups, true);
+    measure("flat", names, ids, symbols, rounds / 4, lookups, false);
+    double before = measure(
+      "cloned",
+      names,
+      ids,
+      symbols,
+      rounds,
+      lookups,
+      true
+    );
+    double after = measure(
+      "flat",
+      names,
+      ids,
+      symbols,
+      rounds,
+      lookups,
+      false
+    );
+    System.out.printf("flat is %.1fx faster%n", before / after);
+  }
+
+  // both tables resolve every name at every depth to the same symbol
+  private static void check(
+    String[][] names,
+    int[][] ids,
+    Symbol[][] symbols
+  ) {
+    SymbolTable flat = new SymbolTable(NAMES);
+    ClonedTable cloned = new ClonedTable();
+    for (int d = 0; d < names.length; d++) {
+      flat.addScope();
+      cloned.addScope();
+      for (int v = 0; v < names[d].length; v++) {
+        flat.insert(ids[d][v], symbols[d][v]);
+        cloned.insert(names[d][v], symbols[d][v]);
+      }
+      for (int e = 0; e <= d; e++) {
+        for (int v = 0; v < names[e].length; v++) {
+          if (flat.lookup(ids[e][v]) != cloned.lookup(names[e][v])) {
+            System.err.println(
+              "\"" + names[e][v] + "\" differs at depth " + d
+            );
+            System.exit(1);
+          }
+        }
+      }
+    }
+  }
+
+  // nanoseconds per lookup
+  private static double measure(
+    String name,
+    String[][] names,
+    int[][] ids,
+    Symbol[][] symbols,
+    int rounds,
+    int lookups,
+    boolean old
+  ) {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    int sum = 0;
+    long bytes = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      sum += old ? cloned(names, symbols) : flat(ids, symbols);
+    }
+    long nanos = System.nanoTime() - start;
+    bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+    double perLookup = (double) nanos / rounds / lookups;
+    System.out.printf(
+      "%-7s %.1f ms, %.1f ns and %.1f bytes per lookup (%d)%n",
+      name,
+      nanos / 1e6,
+      perLookup,
+      (double) bytes / rounds / lookups,
+      sum
+    );
+    return perLookup;
+  }
+
+  // nest every scope, looking up everything visible at each depth
+  private static int flat(int[][] ids, Symbol[][] symbols) {
+    SymbolTable table = new SymbolTable(NAMES);
+    int sum = 0;
+    for (int d = 0; d < ids.length; d++) {
+      table.addScope();
+      for (int v = 0; v < ids[d].length; v++) {
+        table.insert(ids[d][v], symbols[d][v]);
+      }
+      for (int e = 0; e <= d; e++) {
+        for (int v = 0; v < ids[e].length; v++) {
+          sum += table.lookup(ids[e][v]).id;
+        }
+      }
+    }
+    for (int d = 0; d < ids.length; d++) {
+      table.popScope();
+    }
+    return sum;
+  }
+
+  private static int cloned(String[][] names, Symbol[][] symbols) {
+    ClonedTable table = new ClonedTable();
+    int sum = 0;
+    for (int d = 0; d < names.length; d++) {
+      table.addScope();
+      for (int v = 0; v < names[d].length; v++) {
+        table.insert(names[d][v], symbols[d][v]);
+      }
+      for (int e = 0; e <= d; e++) {
+        for (int v = 0; v < names[e].length; v++) {
+          sum += table.lookup(names[e][v]).id;
+        }
+      }
+    }
+    for (int d = 0; d < names.length; d++) {
+      table.popScope();
+    }
+    return sum;
+  }
+
+  // SymbolTable as it was, for variables
+  private static class ClonedTable {
+
+    Stack<HashMap<String, Symbol>> stack = new Stack<>();
+
+    @SuppressWarnings("unchecked")
+    Symbol lookup(String name) {
+      Stack<HashMap<String, Symbol>> currentStack =
+        (Stack<HashMap<String, Symbol>>) stack.clone();
+      while (
+        !currentStack.peek().containsKey(name) && currentStack.size() > 1
+      ) {
+        currentStack.pop();
+      }
+      if (currentStack.peek().containsKey(name)) {
+        return currentStack.peek().get(name);
+      }
+      throw new NoSuchElementException(name);
+    }
+
+    void insert(String name, Symbol sym) {
+      if (stack.peek().containsKey(name)) {
+        throw new IllegalStateException("redeclared " + name);
+      }
+      stack.peek().put(name, sym);
+    }
+
+    void addScope() {
+      stack.push(new HashMap<>());
+    }
+
+    void popScope() {
+      stack.pop();
+    }
+  }
+}
@@ -0,0 +1,463 @@
+package pl434;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a JVM class file writer for DLXJit: one class with a no-arg
+// constructor and a single method built from raw opcodes, labels, exception
+// handlers and explicit stack map frames. Every frame shares the locals set
+// with setLocals() and differs only in its operand stack.
+class ClassAssembler {
+
+  // verification types, objects are OBJECT | constant pool index
+  static final int TOP = 0;
+  static final int INT = 1;
+  static final int FLOAT = 2;
+  static final int LONG = 4;
+  static final int OBJECT = 7 << 16;
+
+  // opcodes
+  static final int ICONST_M1 = 0x02;
+  static final int ICONST_0 = 0x03;
+  static final int LCONST_0 = 0x09;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int LLOAD = 0x16;
+  static final int ALOAD = 0x19;
+  static final int IALOAD = 0x2e;
+  static final int ISTORE = 0x36;
+  static final int LSTORE = 0x37;
+  static final int ASTORE = 0x3a;
+  static final int IASTORE = 0x4f;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int IADD = 0x60;
+  static final int LADD = 0x61;
+  static final int FADD = 0x62;
+  static final int ISUB = 0x64;
+  static final int LSUB = 0x65;
+  static final int FSUB = 0x66;
+  static final int IMUL = 0x68;
+  static final int FMUL = 0x6a;
+  static final int IDIV = 0x6c;
+  static final int FDIV = 0x6e;
+  static final int IREM = 0x70;
+  static final int FREM = 0x72;
+  static final int IAND = 0x7e;
+  static final int IOR = 0x80;
+  static final int IXOR = 0x82;
+  static final int I2L = 0x85;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLT = 0x9b;
+  static final int IFGE = 0x9c;
+  static final int IFGT = 0x9d;
+  static final int IFLE = 0x9e;
+  static final int IF_ICMPGT = 0xa3;
+  static final int GOTO = 0xa7;
+  static final int TABLESWITCH = 0xaa;
+  static final int IRETURN = 0xac;
+  static final int RETURN = 0xb1;
+  static final int GETFIELD = 0xb4;
+  static final int PUTFIELD = 0xb5;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int ATHROW = 0xbf;
+
+  static final class Label {
+
+    private int pos = -1;
+    private int[] stack;
+    // (opcode position, offset position, offset width) of unresolved jumps
+    private final List<int[]> fixups = new ArrayList<>();
+  }
+
+  // Constant Pool ==============================================================
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final Map<String, Integer> constants = new HashMap<>();
+  private int poolCount = 1;
+
+  private int constant(String key, int slots, byte[] entry) {
+    Integer idx = constants.get(key);
+    if (idx == null) {
+      idx = poolCount;
+      poolCount += slots;
+      constants.put(key, idx);
+      poolBytes.write(entry, 0, entry.length);
+    }
+    return idx;
+  }
+
+  private static byte[] entry(int tag, int... u2s) {
+    byte[] b = new byte[1 + 2 * u2s.length];
+    b[0] = (byte) tag;
+    for (int i = 0; i < u2s.length; i++) {
+      b[1 + 2 * i] = (byte) (u2s[i] >> 8);
+      b[2 + 2 * i] = (byte) u2s[i];
+    }
+    return b;
+  }
+
+  int utf8(String s) {
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    try {
+      DataOutputStream d = new DataOutputStream(b);
+      d.writeByte(1);
+      d.writeUTF(s);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return constant("U" + s, 1, b.toByteArray());
+  }
+
+  int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, 1, entry(7, name));
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    int n = utf8(name);
+    int d = utf8(descriptor);
+    return constant("N" + name + ":" + descriptor, 1, entry(12, n, d));
+  }
+
+  private int member(int tag, String owner, String name, String descriptor) {
+    int c = classRef(owner);
+    int nt = nameAndType(name, descriptor);
+    return constant(
+      tag + owner + "." + name + ":" + descriptor,
+      1,
+      entry(tag, c, nt)
+    );
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return member(9, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return member(10, owner, name, descriptor);
+  }
+
+  int intConstant(int value) {
+    return constant(
+      "I" + value,
+      1,
+      new byte[] {
+        3,
+        (byte) (value >> 24),
+        (byte) (value >> 16),
+        (byte) (value >> 8),
+        (byte) value,
+      }
+    );
+  }
+
+  int floatConstant(float value) {
+    int bits = Float.floatToRawIntBits(value);
+    return constant(
+      "F" + bits,
+      1,
+      new byte[] {
+        4,
+        (byte) (bits >> 24),
+        (byte) (bits >> 16),
+        (byte) (bits >> 8),
+        (byte) bits,
+      }
+    );
+  }
+
+  int longConstant(long value) {
+    byte[] b = new byte[9];
+    b[0] = 5;
+    for (int i = 0; i < 8; i++) {
+      b[1 + i] = (byte) (value >> (56 - 8 * i));
+    }
+    return constant("J" + value, 2, b);
+  }
+
+  // Code =======================================================================
+  private byte[] code = new byte[256];
+  private int length = 0;
+  private int[] locals = new int[0];
+  private int maxLocals = 0;
+  private final List<Label> frames = new ArrayList<>();
+  private final List<int[]> handlers = new ArrayList<>();
+  private final List<Label> handlerLabels = new ArrayList<>();
+  private int frameCount;
+
+  // locals of every frame, a LONG covers two slots
+  void setLocals(int[] locals, int maxLocals) {
+    this.locals = locals;
+    this.maxLocals = maxLocals;
+  }
+
+  int position() {
+    return length;
+  }
+
+  private void u1(int b) {
+    if (length == code.length) {
+      code = Arrays.copyOf(code, 2 * length);
+    }
+    code[length++] = (byte) b;
+  }
+
+  private void u2(int v) {
+    u1(v >> 8);
+    u1(v);
+  }
+
+  private void u4(int v) {
+    u2(v >> 16);
+    u2(v);
+  }
+
+  void op(int opcode) {
+    u1(opcode);
+  }
+
+  // opcode with a local variable index
+  void local(int opcode, int index) {
+    if (index > 255) {
+      u1(0xc4); // wide
+      u1(opcode);
+      u2(index);
+    } else {
+      u1(opcode);
+      u1(index);
+    }
+  }
+
+  // opcode with a constant pool or field/method index
+  void ref(int opcode, int index) {
+    u1(opcode);
+    u2(index);
+  }
+
+  void pushInt(int value) {
+    if (value >= -1 && value <= 5) {
+      u1(ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      u1(BIPUSH);
+      u1(value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      u1(SIPUSH);
+      u2(value);
+    } else {
+      ref(LDC_W, intConstant(value));
+    }
+  }
+
+  void pushFloat(float value) {
+    ref(LDC_W, floatConstant(value));
+  }
+
+  void pushLong(long value) {
+    ref(LDC2_W, longConstant(value));
+  }
+
+  // bind label here with a frame whose operand stack holds stack
+  void bind(Label label, int... stack) {
+    label.pos = length;
+    label.stack = stack;
+    frames.add(label);
+    for (int[] f : label.fixups) {
+      patch(f, length);
+    }
+    label.fixups.clear();
+  }
+
+  void jump(int opcode, Label label) {
+    int at = length;
+    u1(opcode);
+    u2(0);
+    reference(label, at, at + 1, 2);
+  }
+
+  // tableswitch over [low, low + targets.length)
+  void tableswitch(int low, Label dflt, Label[] targets) {
+    int at = length;
+    u1(TABLESWITCH);
+    while (length % 4 != 0) {
+      u1(0);
+    }
+    int dfltAt = length;
+    u4(0);
+    u4(low);
+    u4(low + targets.length - 1);
+    reference(dflt, at, dfltAt, 4);
+    for (Label target : targets) {
+      int targetAt = length;
+      u4(0);
+      reference(target, at, targetAt, 4);
+    }
+  }
+
+  private void reference(Label label, int at, int offsetAt, int width) {
+    int[] f = { at, offsetAt, width };
+    if (label.pos >= 0) {
+      patch(f, label.pos);
+    } else {
+      label.fixups.add(f);
+    }
+  }
+
+  private void patch(int[] f, int target) {
+    int offset = target - f[0];
+    if (f[2] == 2) {
+      if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+        throw new IllegalStateException("jump out of range");
+      }
+      code[f[1]] = (byte) (offset >> 8);
+      code[f[1] + 1] = (byte) offset;
+    } else {
+      for (int i = 0; i < 4; i++) {
+        code[f[1] + i] = (byte) (offset >> (24 - 8 * i));
+      }
+    }
+  }
+
+  // any exception thrown in [start, end) continues at handler
+  void handler(int start, int end, Label handler) {
+    handlers.add(new int[] { start, end });
+    handlerLabels.add(handler);
+  }
+
+  // Class File =================================================================
+
+  // class implementing iface with a public constructor and the method built
+  // through the code methods above
+  byte[] toClass(
+    String name,
+    String iface,
+    String methodName,
+    String descriptor,
+    int maxStack
+  ) {
+    int thisClass = classRef(name);
+    int superClass = classRef("java/lang/Object");
+    int ifaceClass = classRef(iface);
+    int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+    int initName = utf8("<init>");
+    int initDesc = utf8("()V");
+    int runName = utf8(methodName);
+    int runDesc = utf8(descriptor);
+    int codeAttr = utf8("Code");
+    int frameAttr = utf8("StackMapTable");
+    byte[] frameTable = stackMapTable();
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(52);
+      out.writeShort(poolCount);
+      poolBytes.writeTo(out);
+      out.writeShort(0x0030); // final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(ifaceClass);
+      out.writeShort(0); // fields
+      out.writeShort(2); // methods
+
+      out.writeShort(0x0001); // public
+      out.writeShort(initName);
+      out.writeShort(initDesc);
+      out.writeShort(1);
+      out.writeShort(codeAttr);
+      out.writeInt(12 + 5);
+      out.writeShort(1);
+      out.writeShort(1);
+      out.writeInt(5);
+      out.writeByte(0x2a); // aload_0
+      out.writeByte(INVOKESPECIAL);
+      out.writeShort(objectInit);
+      out.writeByte(RETURN);
+      out.writeShort(0);
+      out.writeShort(0);
+
+      out.writeShort(0x0001); // public
+      out.writeShort(runName);
+      out.writeShort(runDesc);
+      out.writeShort(1);
+      out.writeShort(codeAttr);
+      out.writeInt(
+        12 + length + 8 * handlers.size() + 2 + 6 + frameTable.length
+      );
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(length);
+      out.write(code, 0, length);
+      out.writeShort(handlers.size());
+      for (int i = 0; i < handlers.size(); i++) {
+        out.writeShort(handlers.get(i)[0]);
+        out.writeShort(handlers.get(i)[1]);
+        out.writeShort(handlerLabels.get(i).pos);
+        out.writeShort(0); // any exception
+      }
+      out.writeShort(1);
+      out.writeShort(frameAttr);
+      out.writeInt(2 + frameTable.length);
+      out.writeShort(frameCount);
+      out.write(frameTable);
+
+      out.writeShort(0); // class attributes
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // one full_frame per bound label
+  private byte[] stackMapTable() {
+    frames.sort((x, y) -> Integer.compare(x.pos, y.pos));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int last = -1;
+    frameCount = 0;
+    try {
+      for (Label label : frames) {
+        if (label.pos == last) {
+          continue; // labels bound at the same position share a frame
+        }
+        out.writeByte(255);
+        out.writeShort(last < 0 ? label.pos : label.pos - last - 1);
+        out.writeShort(locals.length);
+        for (int type : locals) {
+          verificationType(out, type);
+        }
+        out.writeShort(label.stack.length);
+        for (int type : label.stack) {
+          verificationType(out, type);
+        }
+        last = label.pos;
+        frameCount++;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void verificationType(DataOutputStream out, int type)
+    throws IOException {
+    out.writeByte(type >>> 16 == 7 ? 7 : type);
+    if (type >>> 16 == 7) {
+      out.writeShort(type & 0xFFFF);
+    }
+  }
+}
@@ -24,22 +24,33 @@ public class CodeGen {
   Result pc = new Result();
   ArrayList<Instruction> inOrder = new ArrayList<>();
   HashMap<Block, Integer> blockPC = new HashMap<>();
+  // block of each inOrder range, for the source map
+  ArrayList<Integer> blockStarts = new ArrayList<>();
+  ArrayList<Block> blockOrder = new ArrayList<>();
+  // SSA instruction and block every DLX word was generated for
+  ArrayList<Instruction> origins = new ArrayList<>();
+  ArrayList<Block> originBlocks = new ArrayList<>();
+  Instruction origin = null;
+  Block originBlock = null;
   HashSet<Symbol> inStorage = new HashSet<>();
   HashSet<Instruction> inStorageIns = new HashSet<>();
   RegisterAlloc regAll;
   public int distanceFromGlobal = 0;
-  HashMap<String, Boolean> inUse = new HashMap<>();
+  HashMap<Integer, Boolean> inUse = new HashMap<>();
   Result global = new Result();
   // Need Memory allocation of addresses
 
   int global_count;
   int count = 0;
-  static final int GLB = 30; // Set to max address of 10000
+  static final int GLB = 30; // Top of memory, set by DLXMachine to its size - 1
   static final int PC = 31; // Saves PC
 
+  CompilationContext context;
+
   public CodeGen(SSA ssa) {
+    this.context = ssa.context;
     pc.kind = Result.REG;
-    pc.inst = new Instruction(op.RET);
+    pc.inst = new Instruction(context, op.RET);
     pc.inst.regno = 31;
     gdb.kind = Result.GDB;
     frame.kind = Result.REG;
@@ -48,13 +59,13 @@ public class CodeGen {
     global.kind = Result.CONST;
     global.value = ssa.global;
     global_count = ssa.global;
-    reg0.inst = new Instruction(op.RET);
+    reg0.inst = new Instruction(context, op.RET);
     reg0.inst.regno = 0;
-    reg1.inst = new Instruction(op.RET);
+    reg1.inst = new Instruction(context, op.RET);
     reg1.inst.regno = 1;
-    frame.inst = new Instruction(op.RET);
+    frame.inst = new Instruction(context, op.RET);
     frame.inst.regno = 28;
-    stack.inst = new Instruction(op.RET);
+    stack.inst = new Instruction(context, op.RET);
     stack.inst.regno = 29;
     this.ssa = ssa;
     ssa.flipAllBreaks();
@@ -66,7 +77,11 @@ public class CodeGen {
     Block main = ssa.main;
     for (Block b : ssa.inOrderBlock(main)) {
       for (Instruction i : b.instructions) {
-        for (String j : i.OutSet) {
+        for (
+          int j = i.OutSet.nextSetBit(0);
+          j >= 0;
+          j = i.OutSet.nextSetBit(j + 1)
+        ) {
           inUse.put(j, false); // False since none are in use at the moment
         }
       }
@@ -103,8 +118,10 @@ public class CodeGen {
 
   public void generateInOrder(Block block) {
     blockPC.put(block, inOrder.size()); // +2 because that is the amount of instructions added before hand
+    blockStarts.add(inOrder.size());
+    blockOrder.add(block);
     if (block != ssa.main) {
-      inOrder.add(new Instruction(op.STORE, pc, stack));
+      inOrder.add(new Instruction(context, op.STORE, pc, stack));
       inOrder.get(inOrder.size() - 1).addy = -1; // save return address
     }
     for (Instruction i : block.instructions) {
@@ -114,7 +131,14 @@ public class CodeGen {
 
   public void generateInstructions() {
     int index = 0;
+    int position = 0; // of i in inOrder
+    int next = 0; // next entry of blockStarts
     for (Instruction i : inOrder) {
+      while (next < blockStarts.size() && blockStarts.get(next) <= position) {
+        originBlock = blockOrder.get(next++);
+      }
+      position++;
+      origin = i;
       // Store items to free up regs
       // System.out.println(dlx_inst.size());
       if (i.func_params != null) {
@@ -408,7 +432,11 @@ public class CodeGen {
     // At return set stack pointer at value of frame pointer so we dont have to pop
     // Design
     // save Registers
-    ArrayList<Integer> registersIn = Compiler.iMap.get(call);
+    // none when no interval is open at the call
+    ArrayList<Integer> registersIn = context.liveRegisters.getOrDefault(
+      call,
+      new ArrayList<>()
+    );
     saveRegisters(registersIn, call.blockLoc);
     Symbol funcSymbol = func.var;
     int count = 1; // Give params addresses
@@ -417,16 +445,16 @@ public class CodeGen {
     }
     // Skip allocated memory
     // Save frame pointer // Point here as Frame Pointer tho
-    inOrder.add(new Instruction(op.STORE, frame, stack));
+    inOrder.add(new Instruction(context, op.STORE, frame, stack));
     inOrder.get(inOrder.size() - 1).addy = funcSymbol.global_counter * -1;
     // Point here as frame pointer
-    inOrder.add(new Instruction(op.ADD, stack, reg0)); // Set frame pointer to the location of stack
+    inOrder.add(new Instruction(context, op.ADD, stack, reg0)); // Set frame pointer to the location of stack
     inOrder.get(inOrder.size() - 1).regno = FP - 2; // + 2 later
 
     // Save param space // Push these
     for (int i = call.func_params.size() - 2; i >= 0; i--) { // Use stack instead to find
       Result r = call.func_params.get(i);
-      inOrder.add(new Instruction(op.STORE, r, stack)); // Put params in stack
+      inOrder.add(new Instruction(context, op.STORE, r, stack)); // Put params in stack
       inOrder.get(inOrder.size() - 1).blockLoc = call.blockLoc;
       inOrder.get(inOrder.size() - 1).addy = -1; // Will be fine until ARRAYS
     }
@@ -435,13 +463,13 @@ public class CodeGen {
     Result skipTo = new Result();
     skipTo.kind = Result.PROC;
     skipTo.proc = funcSymbol.func_block;
-    inOrder.add(new Instruction(op.BRA, skipTo)); // Skip to function
+    inOrder.add(new Instruction(context, op.BRA, skipTo)); // Skip to function
     inOrder.get(inOrder.size() - 1).blockLoc = call.blockLoc; // Once at call push 30 to stack
 
     // Pop all by using old frame Pointer
-    inOrder.add(new Instruction(op.LOAD, frame, frame)); // Load old frame
+    inOrder.add(new Instruction(context, op.LOAD, frame, frame)); // Load old frame
     inOrder.get(inOrder.size() - 1).addy = 0; //
-    inOrder.add(new Instruction(op.ADD, frame, reg0)); // Put stack back to frame
+    inOrder.add(new Instruction(context, op.ADD, frame, reg0)); // Put stack back to frame
     inOrder.get(inOrder.size() - 1).regno = SP - 2; //
 
     // Loading Registers
@@ -453,9 +481,9 @@ public class CodeGen {
     for (int regToSave : registersIn) {
       Result reg = new Result();
       reg.kind = Result.REG;
-      reg.inst = new Instruction(op.RET);
+      reg.inst = new Instruction(context, op.RET);
       reg.inst.regno = regToSave + 2;
-      inOrder.add(new Instruction(op.STORE, reg, stack)); //  Have SP under right to understand this is a push operation
+      inOrder.add(new Instruction(context, op.STORE, reg, stack)); //  Have SP under right to understand this is a push operation
       inOrder.get(inOrder.size() - 1).blockLoc = bloc;
     }
   }
@@ -465,26 +493,44 @@ public class CodeGen {
       int regToSave = registersIn.get(i);
       Result reg = new Result();
       reg.kind = Result.REG;
-      reg.inst = new Instruction(op.RET);
+      reg.inst = new Instruction(context, op.RET);
       reg.inst.regno = regToSave + 2;
 
-      inOrder.add(new Instruction(op.LOAD, reg, stack));
+      inOrder.add(new Instruction(context, op.LOAD, reg, stack));
       inOrder.get(inOrder.size() - 1).blockLoc = bloc;
     }
   }
 
   public void add(int dlxinst) {
     dlx_inst.add(dlxinst);
+    origins.add(origin);
+    originBlocks.add(originBlock);
     count++;
   }
 
+  // where each generated word came from, the prologue maps to nothing
+  public DLXSourceMap sourceMap() {
+    int n = origins.size();
+    int[] instructions = new int[n];
+    int[] blocks = new int[n];
+    int[] lines = new int[n];
+    for (int pc = 0; pc < n; pc++) {
+      Instruction i = origins.get(pc);
+      Block b = originBlocks.get(pc);
+      instructions[pc] = i == null ? -1 : i.my_num;
+      lines[pc] = i == null ? -1 : i.line;
+      blocks[pc] = b == null ? -1 : b.my_num;
+    }
+    return new DLXSourceMap(instructions, blocks, lines);
+  }
+
   public void genIOInstruction(Instruction i) {
     // Adding store and load instructiosn required prior
     Instruction ii = i;
     {
       if (!i.storeThese.isEmpty()) {
         for (Result r : i.storeThese) {
-          inOrder.add(new Instruction(op.STORE, r, frame));
+          inOrder.add(new Instruction(context, op.STORE, r, frame));
           if (r.kind == Result.VAR) {
             inStorage.add(r.var.OG);
           } else {
@@ -499,7 +545,7 @@ public class CodeGen {
         inStorage.contains(i.left.var.OG)
       ) {
         // Do something to load correctly
-        inOrder.add(new Instruction(op.LOAD, i.left, frame)); // Go up from frame
+        inOrder.add(new Instruction(context, op.LOAD, i.left, frame)); // Go up from frame
         inOrder.get(inOrder.size() - 1).blockLoc = i.blockLoc;
         inStorage.remove(i.left.var.OG);
       } else if (
@@ -507,7 +553,7 @@ public class CodeGen {
         i.left.isInstruction() &&
         inStorageIns.contains(i.left.inst)
       ) {
-        inOrder.add(new Instruction(op.LOAD, i.left, frame)); // Go up from frame
+        inOrder.add(new Instruction(context, op.LOAD, i.left, frame)); // Go up from frame
         inOrder.get(inOrder.size() - 1).blockLoc = i.blockLoc;
         inStorageIns.remove(i.right.inst);
       }
@@ -516,7 +562,7 @@ public class CodeGen {
         i.right.isVariable() &&
         inStorage.contains(i.right.var.OG)
       ) {
-        inOrder.add(new Instruction(op.LOAD, i.right, frame));
+        inOrder.add(new Instruction(context, op.LOAD, i.right, frame));
         inOrder.get(inOrder.size() - 1).blockLoc = i.blockLoc;
         inStorage.remove(i.right.var.OG);
       } else if (
@@ -524,7 +570,7 @@ public class CodeGen {
         i.right.isInstruction() &&
         inStorageIns.contains(i.right.inst)
       ) {
-        inOrder.add(new Instruction(op.LOAD, i.right, frame)); // Go up from frame
+        inOrder.add(new Instruction(context, op.LOAD, i.right, frame)); // Go up from frame
         inOrder.get(inOrder.size() - 1).blockLoc = i.blockLoc;
         inStorageIns.remove(i.right.inst);
       }
@@ -561,7 +607,7 @@ public class CodeGen {
       case DIV:
       case SUB:
         if (i.left.kind == Result.CONST) {
-          inOrder.add(new Instruction(op.ADD, reg0, i.left));
+          inOrder.add(new Instruction(context, op.ADD, reg0, i.left));
           inOrder.get(inOrder.size() - 1).regno = -1; // Place into 1
           i.left.inst = inOrder.get(inOrder.size() - 1);
           i.left.kind = Result.INST;
@@ -574,7 +620,7 @@ public class CodeGen {
         for (Result r : i.func_params) {
           // Load parameter if stored
           if (inStorage.contains(r)) {
-            inOrder.add(new Instruction(op.LOAD, r, stack));
+            inOrder.add(new Instruction(context, op.LOAD, r, stack));
             inOrder.get(inOrder.size() - 1).blockLoc = i.blockLoc;
             inStorage.remove(r);
           }
@@ -583,11 +629,12 @@ public class CodeGen {
         break;
       case WRITE:
         if (i.right.kind == Result.CONST) {
-          inOrder.add(new Instruction(op.ADD, reg1, i.right));
+          inOrder.add(new Instruction(context, op.ADD, reg1, i.right));
           inOrder.get(inOrder.size() - 1).regno = -1;
           Result r = new Result();
           r.kind = Result.INST;
           r.inst = inOrder.get(inOrder.size() - 1);
+          r.type = i.right.type; // which write it is
           i.right = r;
         }
         inOrder.add(i);
@@ -602,18 +649,18 @@ public class CodeGen {
         ) {
           reg1.kind = Result.REG;
           reg1.inst.regno = 1;
-          ii = new Instruction(op.ADD, reg0, reg1);
+          ii = new Instruction(context, op.ADD, reg0, reg1);
           ii.regno = i.right.var.OG.regno;
           inOrder.add(ii);
         } else {
-          ii = new Instruction(op.ADD, reg0, i.left);
+          ii = new Instruction(context, op.ADD, reg0, i.left);
           ii.regno = i.right.var.OG.regno;
           inOrder.add(ii);
         }
         break;
       case NEG:
         if (i.right.kind == Result.CONST) {
-          inOrder.add(new Instruction(op.ADD, reg1, i.right));
+          inOrder.add(new Instruction(context, op.ADD, reg1, i.right));
           inOrder.get(inOrder.size() - 1).regno = -1;
           Result r = new Result();
           r.kind = Result.INST;
@@ -624,16 +671,16 @@ public class CodeGen {
         break;
       case RET:
         if (i.right != null && !i.right.endFunc) { // Store from right to R29 + 4 (going up)
-          inOrder.add(new Instruction(op.ADD, i.right, reg0));
+          inOrder.add(new Instruction(context, op.ADD, i.right, reg0));
           inOrder.get(inOrder.size() - 1).regno = -1; // Stores to R1
         }
         if (inFunc) {
-          inOrder.add(new Instruction(op.LOAD, pc, frame)); // Retrieves Return address into pc
+          inOrder.add(new Instruction(context, op.LOAD, pc, frame)); // Retrieves Return address into pc
           inOrder.get(inOrder.size() - 1).addy = -1; // 1 below frame
-          inOrder.add(new Instruction(op.RET, pc)); // Return using pc
+          inOrder.add(new Instruction(context, op.RET, pc)); // Return using pc
           inOrder.get(inOrder.size() - 1).right.endFunc = true;
         } else {
-          inOrder.add(new Instruction(op.RET, reg0)); // Return using pc
+          inOrder.add(new Instruction(context, op.RET, reg0)); // Return using pc
           inOrder.get(inOrder.size() - 1).right.endFunc = true;
         }
         break;
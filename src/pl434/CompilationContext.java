@@ -0,0 +1,119 @@
+package pl434;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import ssa.Instruction;
+import ssa.Result;
+
+// State of one compilation that outlives a single pass: the identifiers it
+// interned, the numbers handed out to SSA instructions, blocks and the
+// variables liveness tracks, the results made for variables and the
+// registers live at each call. A Compiler
+// makes one and the SSA it builds carries it to Block, Optimize and CodeGen,
+// so compilations in the same JVM start from the same numbers and do not see
+// each other.
+public class CompilationContext {
+
+  // the ids of the names the Scanner read and the Compiler declared
+  public final Names names;
+
+  private int instructions = 0;
+  private int blocks = 1;
+
+  // last result stored for each variable name, and how many had no name
+  private final HashMap<String, Result> results = new HashMap<>();
+  private int unnamedResults = 0;
+
+  // liveness ids of the variable names seen so far, by Names id, and the
+  // names back; dense from 0 in the order liveness meets them
+  private final HashMap<Integer, Integer> liveIds = new HashMap<>();
+  private final ArrayList<String> liveNames = new ArrayList<>();
+
+  // registers in use at each instruction, for saving them around calls
+  public final HashMap<Instruction, ArrayList<Integer>> liveRegisters =
+    new HashMap<>();
+
+  public CompilationContext(Names names) {
+    this.names = names;
+  }
+
+  public int newInstruction() {
+    return instructions++;
+  }
+
+  // instructions numbered so far, the number the next one gets
+  public int instructionCount() {
+    return instructions;
+  }
+
+  public int newBlock() {
+    return blocks++;
+  }
+
+  // Liveness keys: a variable is 2 * the liveness id of its name, the value
+  // an instruction leaves in a register 2 * its number + 1 (see
+  // Instruction.liveKey()). The id is kept on the declared Symbol, which
+  // belongs to this compilation; a symbol the parse never declared, as the
+  // temporaries of Optimize, goes by its name
+  public int liveKey(Symbol var) {
+    Symbol OG = var.OG;
+    if (OG.live < 0) {
+      if (OG.id < 0) {
+        OG.id = names.id(OG.name);
+      }
+      Integer id = liveIds.get(OG.id);
+      if (id == null) {
+        id = liveNames.size();
+        liveIds.put(OG.id, id);
+        liveNames.add(OG.name);
+      }
+      OG.live = id;
+    }
+    return 2 * OG.live;
+  }
+
+  // "x" for a variable, "(7)" for the value of instruction 7
+  public String liveName(int key) {
+    return key % 2 == 0 ? liveNames.get(key / 2) : "(" + key / 2 + ")";
+  }
+
+  // the thread the compilation runs on, pool threads allocating its
+  // functions stop when it is interrupted
+  private final Thread thread = Thread.currentThread();
+
+  // stops the compilation if the thread running it was interrupted, as a
+  // CompileServer worker is at its deadline; the parse, SSA, the passes and
+  // the allocator call this where they may run for long
+  public void checkInterrupted() {
+    if (Thread.currentThread().isInterrupted() || thread.isInterrupted()) {
+      throw new Interrupted();
+    }
+  }
+
+  public static class Interrupted extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public Interrupted() {
+      super("compilation interrupted");
+    }
+  }
+
+  public void storeResult(Result result) {
+    if (result.var != null && result.var.name != null) {
+      results.put(result.var.name, result);
+    } else {
+      unnamedResults++;
+    }
+  }
+
+  public void printResults() {
+    System.out.println("*************************");
+    for (String r : results.keySet()) {
+      System.out.println("Variable " + r);
+      System.out.println(results.get(r));
+    }
+    System.out.println("TOTAL OF " + unnamedResults + " RESULTS WITH NO NAME");
+    System.out.println("*************************");
+  }
+}
@@ -0,0 +1,343 @@
+package pl434;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.cli.*;
+
+// Compiles and runs many programs in one JVM, so only the first request pays
+// for startup and JIT warm-up. A request is one line of CompilerTester
+// arguments split on whitespace, paths relative to the server's directory.
+// Requests run on a pool of workers and each one is answered, in the order
+// they finish, with
+//
+//   = <request> <exit code>
+//   program <bytes>
+//   <listing as written by -b>
+//   out <bytes>
+//   <what the compile and run printed to stdout>
+//   err <bytes>
+//   <what they printed to stderr>
+//
+// where request counts the lines of a client from 1 and each section is
+// exactly the given number of UTF-8 bytes. Programs read nothing unless
+// given -i, and -t is refused since there is no console to step on. A
+// request still running after -d milliseconds is interrupted: the compile
+// phases or the program stop where they next check, and the exit code is
+// DLXMachine.INTERRUPTED. Requests come on stdin and are answered on stdout
+// until stdin ends, or with -u on a Unix domain socket, one client per
+// connection.
+//
+//   java pl434.CompileServer [-w workers] [-d deadline] [-u socket]
+//   echo "-s project5/test001.txt -nr 8 -o max" | java pl434.CompileServer
+public class CompileServer {
+
+  // System.out and System.err while serving, writing to the buffers of the
+  // request the current thread works on, or to the real stream otherwise
+  private static final class ThreadStream extends OutputStream {
+
+    private final ThreadLocal<OutputStream> target = new ThreadLocal<>();
+    private final OutputStream fallback;
+
+    ThreadStream(OutputStream fallback) {
+      this.fallback = fallback;
+    }
+
+    private OutputStream target() {
+      OutputStream out = target.get();
+      return out != null ? out : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+
+  private final ExecutorService workers;
+  private final ThreadStream out;
+  private final ThreadStream err;
+
+  // milliseconds a request may run, none if 0, and the thread interrupting
+  // those that run longer
+  private final long deadline;
+  private final ScheduledExecutorService alarms;
+
+  public CompileServer(int workers) {
+    this(workers, 0);
+  }
+
+  public CompileServer(int workers, long deadline) {
+    this.workers = Executors.newFixedThreadPool(workers);
+    this.deadline = deadline;
+    this.alarms =
+      Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread alarm = new Thread(task, "CompileServer deadlines");
+        alarm.setDaemon(true);
+        return alarm;
+      });
+    this.out = new ThreadStream(System.out);
+    this.err = new ThreadStream(System.err);
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+  }
+
+  // answer every request of in on response until in ends
+  public void serve(InputStream in, OutputStream response)
+    throws IOException {
+    BufferedReader lines = new BufferedReader(
+      new InputStreamReader(in, StandardCharsets.UTF_8)
+    );
+    // requests not answered yet, those answered are dropped as more come
+    List<Future<?>> pending = new ArrayList<>();
+    int request = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
+      }
+      int number = ++request;
+      String[] args = line.trim().split("\\s+");
+      pending.removeIf(answered -> answered.isDone() && report(answered));
+      pending.add(
+        workers.submit(() -> {
+          respond(response, number, compile(args));
+          return null;
+        })
+      );
+    }
+    for (Future<?> answered : pending) {
+      report(answered);
+    }
+  }
+
+  // waits for answered, prints why it failed if it did, returns true
+  private static boolean report(Future<?> answered) {
+    try {
+      answered.get();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  public void shutdown() {
+    workers.shutdown();
+    alarms.shutdown();
+  }
+
+  // Requests ==================================================================
+
+  private static final class Response {
+
+    int exitCode;
+    int[] program;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+  }
+
+  // what CompilerTester would have printed and exited with for args
+  private Response compile(String[] args) {
+    Response r = new Response();
+    out.target.set(r.out);
+    err.target.set(r.err);
+    Thread worker = Thread.currentThread();
+    ScheduledFuture<?> alarm = deadline > 0
+      ? alarms.schedule(worker::interrupt, deadline, TimeUnit.MILLISECONDS)
+      : null;
+    // whether the interrupt stopped the run, an alarm going off after it
+    // finished changes nothing
+    boolean stopped = false;
+    try {
+      r.exitCode = CompilerTester.run(args, null, code -> r.program = code);
+      stopped = r.exitCode == DLXMachine.INTERRUPTED;
+    } catch (CompilationContext.Interrupted e) {
+      stopped = true;
+    } catch (DLX.AssemblyException e) {
+      r.exitCode = e.exitCode();
+    } catch (RuntimeException | StackOverflowError e) {
+      // as an uncaught exception would end the command line run
+      e.printStackTrace();
+      r.exitCode = 1;
+    } finally {
+      if (alarm != null && !alarm.cancel(false)) {
+        // it went off, once it has the interrupt is cleared for the next
+        while (!alarm.isDone()) {
+          Thread.onSpinWait();
+        }
+        Thread.interrupted();
+      }
+      if (stopped) {
+        System.err.println("Stopped after the deadline of " + deadline + " ms");
+        r.exitCode = DLXMachine.INTERRUPTED;
+      }
+      System.out.flush();
+      System.err.flush();
+      out.target.remove();
+      err.target.remove();
+    }
+    return r;
+  }
+
+  private static void respond(OutputStream response, int number, Response r)
+    throws IOException {
+    StringBuilder listing = new StringBuilder();
+    if (r.program != null) {
+      for (int i = 0; i < r.program.length; i++) {
+        listing.append(i).append(":\t").append(DLX.instrString(r.program[i]));
+      }
+    }
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    String header = "= " + number + " " + r.exitCode + "\n";
+    frame.write(header.getBytes(StandardCharsets.UTF_8));
+    byte[] program = listing.toString().getBytes(StandardCharsets.UTF_8);
+    section(frame, "program", program);
+    section(frame, "out", r.out.toByteArray());
+    section(frame, "err", r.err.toByteArray());
+    synchronized (response) {
+      frame.writeTo(response);
+      response.flush();
+    }
+  }
+
+  private static void section(
+    ByteArrayOutputStream frame,
+    String name,
+    byte[] body
+  ) throws IOException {
+    String header = name + " " + body.length + "\n";
+    frame.write(header.getBytes(StandardCharsets.UTF_8));
+    frame.write(body);
+  }
+
+  // Unix domain socket ========================================================
+
+  // serve every connection to path until the process is stopped
+  public void listen(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    ServerSocketChannel server = ServerSocketChannel.open(
+      StandardProtocolFamily.UNIX
+    );
+    server.bind(UnixDomainSocketAddress.of(path));
+    while (true) {
+      SocketChannel client = server.accept();
+      Thread reader = new Thread(() -> {
+        try (client) {
+          serve(input(client), output(client));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+      reader.setDaemon(true);
+      reader.start();
+    }
+  }
+
+  // streams straight over the channel: those of Channels hold one lock for
+  // reading and writing, so a blocked read would stall every response
+  private static InputStream input(SocketChannel channel) {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return channel.read(ByteBuffer.wrap(b, off, len));
+      }
+    };
+  }
+
+  private static OutputStream output(SocketChannel channel) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    };
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+    options.addOption("w", "workers", true, "Worker threads, default cores");
+    options.addOption("u", "socket", true, "Unix domain socket to listen on");
+    options.addOption(
+      "d",
+      "deadline",
+      true,
+      "Milliseconds a request may run, default 10000, 0 for none"
+    );
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(options, args);
+    } catch (ParseException e) {
+      new HelpFormatter().printHelp("CompileServer", options);
+      System.exit(-1);
+    }
+    int workers = Runtime.getRuntime().availableProcessors();
+    try {
+      workers = Integer.parseInt(cmd.getOptionValue("workers", "" + workers));
+    } catch (NumberFormatException e) {
+      System.err.println("Error in option workers -- using " + workers);
+    }
+
+    long deadline = 10000;
+    try {
+      deadline = Long.parseLong(cmd.getOptionValue("deadline", "" + deadline));
+    } catch (NumberFormatException e) {
+      System.err.println("Error in option deadline -- using " + deadline);
+    }
+
+    PrintStream stdout = System.out;
+    CompileServer server = new CompileServer(
+      Math.max(1, workers),
+      Math.max(0, deadline)
+    );
+    try {
+      if (cmd.hasOption("socket")) {
+        server.listen(Path.of(cmd.getOptionValue("socket")));
+      } else {
+        server.serve(System.in, stdout);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.exit(-2);
+    }
+    server.shutdown();
+  }
+}
@@ -6,11 +6,14 @@ import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Stack;
+import java.util.concurrent.RecursiveAction;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
 import pl434.RegisterAlloc;
@@ -24,6 +27,8 @@ public class Compiler {
 
   // Error Reporting ============================================================
   private StringBuilder errorBuffer = new StringBuilder();
+  private int syntaxErrors = 0;
+  private boolean recovering = false;
 
   private String reportSyntaxError(NonTerminal nt) {
     String message =
@@ -34,9 +39,9 @@ public class Compiler {
       ")[Expected a token from " +
       nt.name() +
       " but got " +
-      currentToken.kind +
+      tokens.kind() +
       ".]";
-    errorBuffer.append(message + "\n");
+    appendSyntaxError(message);
     return message;
   }
 
@@ -49,12 +54,22 @@ public class Compiler {
       ")[Expected " +
       kind +
       " but got " +
-      currentToken.kind +
+      tokens.kind() +
       ".]";
-    errorBuffer.append(message + "\n");
+    appendSyntaxError(message);
     return message;
   }
 
+  // after an error nothing more is reported until a token is accepted again,
+  // errors while the parser gets back on track are only echoes of the first
+  private void appendSyntaxError(String message) {
+    if (!recovering) {
+      errorBuffer.append(message + "\n");
+      syntaxErrors++;
+    }
+    recovering = true;
+  }
+
   private String reportResolveSymbolError(
     String name,
     int lineNum,
@@ -97,6 +112,10 @@ public class Compiler {
     return errorBuffer.length() != 0;
   }
 
+  public boolean hasSyntaxError() {
+    return syntaxErrors != 0;
+  }
+
   private class QuitParseException extends RuntimeException {
 
     private static final long serialVersionUID = 1L;
@@ -107,33 +126,59 @@ public class Compiler {
   }
 
   private int lineNumber() {
-    return currentToken.lineNumber();
+    return tokens.lineNumber();
   }
 
   private int charPosition() {
-    return currentToken.charPosition();
+    return tokens.charPosition();
   }
 
   // Compiler ===================================================================
-  private Scanner scanner;
-  private Token currentToken;
+  private TokenStream tokens;
 
   private int numDataRegisters; // available registers are [1..numDataRegisters]
+  private int memorySize = DLX.MEM_SIZE; // bytes of DLX memory the code runs in
 
   private Optimize optimize;
 
+  // numbering and other state of this compilation only
+  private final CompilationContext context;
+
   // Need to map from IDENT to memory offset
 
   public Compiler(Scanner scanner, int numRegs) {
-    this.scanner = scanner;
-    currentToken = this.scanner.next();
+    tokens = new TokenStream(scanner);
+    context = new CompilationContext(scanner.names());
     numDataRegisters = numRegs;
   }
 
+  public void setMemorySize(int bytes) {
+    memorySize = bytes;
+  }
+
+  // write the CFG after optimizing and after fixing it up for allocation to
+  // elim.dot and elimAfter.dot in the working directory
+  private boolean dumpGraphs = false;
+
+  public void setDumpGraphs(boolean dump) {
+    dumpGraphs = dump;
+  }
+
+  private void dumpGraph(String file) {
+    if (!dumpGraphs) {
+      return;
+    }
+    try (PrintStream out = new PrintStream(file)) {
+      out.print(ssa.asDotGraph());
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+
   private SymbolTable symbolTable;
 
   private void initSymbolTable() {
-    symbolTable = new SymbolTable();
+    symbolTable = new SymbolTable(context.names);
   }
 
   private void enterScope() {
@@ -147,7 +192,7 @@ public class Compiler {
   private Symbol tryResolveVariable(Token ident) {
     //TODO: Try resolving variable, handle SymbolNotFoundError
     try {
-      return symbolTable.lookup(ident.lexeme());
+      return symbolTable.lookup(ident.id());
     } catch (SymbolNotFoundError e) {
       reportResolveSymbolError(
         ident.lexeme(),
@@ -164,7 +209,7 @@ public class Compiler {
   private ArrayList<Symbol> tryResolveFunction(Token ident) {
     //TODO: Try resolving variable, handle SymbolNotFoundError
     try {
-      return symbolTable.lookupFunc(ident.lexeme());
+      return symbolTable.lookupFunc(ident.id());
     } catch (SymbolNotFoundError e) {
       reportResolveSymbolError(
         ident.lexeme(),
@@ -177,7 +222,7 @@ public class Compiler {
 
   private Symbol tryDeclareVariable(Token ident, Symbol sym) {
     try {
-      return symbolTable.insert(ident.lexeme(), sym);
+      return symbolTable.insert(sym.name, sym);
     } catch (RedeclarationError e) {
       reportDeclareSymbolError(
         ident.lexeme(),
@@ -190,23 +235,16 @@ public class Compiler {
 
   // Helper Methods =============================================================
   private boolean have(Token.Kind kind) {
-    return currentToken.kind() == kind;
+    return tokens.kind() == kind;
   }
 
   private boolean have(NonTerminal nt) {
-    return nt.firstSet().contains(currentToken.kind);
+    return nt.has(tokens.kind());
   }
 
   private boolean accept(Token.Kind kind) {
     if (have(kind)) {
-      try {
-        currentToken = scanner.next();
-      } catch (NoSuchElementException e) {
-        if (!kind.equals(Token.Kind.EOF)) {
-          String errorMessage = reportSyntaxError(kind);
-          throw new QuitParseException(errorMessage);
-        }
-      }
+      advance();
       return true;
     }
     return false;
@@ -214,12 +252,18 @@ public class Compiler {
 
   private boolean accept(NonTerminal nt) {
     if (have(nt)) {
-      currentToken = scanner.next();
+      advance();
       return true;
     }
     return false;
   }
 
+  private void advance() {
+    context.checkInterrupted();
+    tokens.advance();
+    recovering = false;
+  }
+
   private boolean expect(Token.Kind kind) {
     if (accept(kind)) {
       return true;
@@ -237,8 +281,9 @@ public class Compiler {
   }
 
   private Token expectRetrieve(Token.Kind kind) {
-    Token tok = currentToken;
-    if (accept(kind)) {
+    if (have(kind)) {
+      Token tok = tokens.token();
+      advance();
       return tok;
     }
     String errorMessage = reportSyntaxError(kind);
@@ -246,14 +291,29 @@ public class Compiler {
   }
 
   private Token expectRetrieve(NonTerminal nt) {
-    Token tok = currentToken;
-    if (accept(nt)) {
+    if (have(nt)) {
+      Token tok = tokens.token();
+      advance();
       return tok;
     }
     String errorMessage = reportSyntaxError(nt);
     throw new QuitParseException(errorMessage);
   }
 
+  // Panic mode: after a syntax error skip tokens up to one that can start or
+  // follow one of the given nonterminals, or to the end of the input, and
+  // parse on from there
+  private void recover(NonTerminal... sync) {
+    while (!have(Kind.EOF)) {
+      for (NonTerminal nt : sync) {
+        if (nt.has(tokens.kind()) || nt.isFollowedBy(tokens.kind())) {
+          return;
+        }
+      }
+      tokens.advance();
+    }
+  }
+
   private Token matchNonTerminal(NonTerminal nt) {
     return expectRetrieve(nt);
   }
@@ -291,72 +351,107 @@ public class Compiler {
     );
 
     while (have(NonTerminal.VAR_DECL)) {
-      Token type = expectRetrieve(NonTerminal.VAR_DECL);
-      // Give the variable a type depending on type case
-      Type variableType = new VoidType();
-      switch (type.kind()) {
-        case FLOAT:
-          variableType = new FloatType();
-          break;
-        case INT:
-          variableType = new IntType();
-          break;
-        case BOOL:
-          variableType = new BoolType();
-          break;
-      }
-      // Parse brackets
-      ArrayList<Integer> dims = new ArrayList<>();
-      while (accept(Kind.OPEN_BRACKET)) {
-        Token intVal = expectRetrieve(Kind.INT_VAL);
-        expect(Kind.CLOSE_BRACKET);
-        dims.add(Integer.parseInt(intVal.lexeme()));
-      }
-      // Form ArrayType if had brackets
-      if (!dims.isEmpty()) {
-        variableType = new ArrayType(variableType, dims.size(), dims);
-      }
-      // Parse IDENT's and declareVariable
-      do {
-        Token currentVariable = expectRetrieve(Kind.IDENT);
-        String id = currentVariable.lexeme();
-        // Declare Variable in Symbol table make node
-        Symbol sym = tryDeclareVariable(
-          currentVariable,
-          new Symbol(id, variableType)
-        );
-        if (inMain) {
-          sym.scope = Symbol.GLOBAL;
-        } else {
-          sym.scope = Symbol.LOCAL;
+      try {
+        Token type = expectRetrieve(NonTerminal.VAR_DECL);
+        // Give the variable a type depending on type case
+        Type variableType = new VoidType();
+        switch (type.kind()) {
+          case FLOAT:
+            variableType = new FloatType();
+            break;
+          case INT:
+            variableType = new IntType();
+            break;
+          case BOOL:
+            variableType = new BoolType();
+            break;
         }
-        variableList.add(
-          new VariableDeclaration(lineNumber(), charPosition(), sym)
-        );
-        // Store variable decl node
-      } while (accept(Kind.COMMA));
-      expect(Kind.SEMICOLON);
+        // Parse brackets
+        ArrayList<Integer> dims = new ArrayList<>();
+        while (accept(Kind.OPEN_BRACKET)) {
+          Token intVal = expectRetrieve(Kind.INT_VAL);
+          expect(Kind.CLOSE_BRACKET);
+          dims.add(Integer.parseInt(intVal.lexeme()));
+        }
+        // Form ArrayType if had brackets
+        if (!dims.isEmpty()) {
+          variableType = new ArrayType(variableType, dims.size(), dims);
+        }
+        // Parse IDENT's and declareVariable
+        do {
+          Token currentVariable = expectRetrieve(Kind.IDENT);
+          String id = currentVariable.lexeme();
+          // Declare Variable in Symbol table make node
+          Symbol sym = tryDeclareVariable(
+            currentVariable,
+            new Symbol(id, variableType)
+          );
+          if (inMain) {
+            sym.scope = Symbol.GLOBAL;
+          } else {
+            sym.scope = Symbol.LOCAL;
+          }
+          variableList.add(
+            new VariableDeclaration(lineNumber(), charPosition(), sym)
+          );
+          // Store variable decl node
+        } while (accept(Kind.COMMA));
+        expect(Kind.SEMICOLON);
+      } catch (QuitParseException e) {
+        recover(NonTerminal.VAR_DECL);
+      }
     }
     return variableList;
   }
 
-  private StatementSequence statSeq() {
+  // the sequence ends at one of closers, the first being the one reported
+  // missing; the closer of another kind of sequence in its place is reported
+  // and skipped, so a stray fi or od does not end the enclosing sequence
+  private StatementSequence statSeq(Kind... closers) {
     StatementSequence currentStatementList = new StatementSequence(
       lineNumber(),
       charPosition()
     );
-    currentStatementList.add(statement());
-    expect(Kind.SEMICOLON);
-    while (have(NonTerminal.STATEMENT)) {
-      currentStatementList.add(statement());
-      expect(Kind.SEMICOLON);
-    }
+    do {
+      if (stray(closers)) {
+        reportSyntaxError(closers[0]);
+        tokens.advance();
+        accept(Kind.SEMICOLON);
+        continue;
+      }
+      Statement statement = statement();
+      if (statement != null) {
+        currentStatementList.add(statement);
+      }
+      try {
+        expect(Kind.SEMICOLON);
+      } catch (QuitParseException e) {
+        recover(NonTerminal.STATEMENT, NonTerminal.STAT_SEQ);
+        accept(Kind.SEMICOLON);
+      }
+    } while (have(NonTerminal.STATEMENT) || stray(closers));
     return currentStatementList;
   }
 
+  // a closer of if, while or repeat that does not end this sequence, the
+  // braces of a body are left to end it
+  private boolean stray(Kind[] closers) {
+    switch (tokens.kind()) {
+      case FI:
+      case ELSE:
+      case OD:
+      case UNTIL:
+        return !Arrays.asList(closers).contains(tokens.kind());
+      default:
+        return false;
+    }
+  }
+
+  // null after a syntax error, parsing goes on at the next statement or at the
+  // end of the sequence
   private Statement statement() {
-    if (have(NonTerminal.STATEMENT)) {
-      switch (currentToken.kind()) {
+    try {
+      switch (tokens.kind()) {
         case WHILE:
           return whileStat();
         case RETURN:
@@ -370,21 +465,24 @@ public class Compiler {
         case CALL:
           return funcCall();
       }
+      expect(NonTerminal.STATEMENT);
+    } catch (QuitParseException e) {
+      recover(NonTerminal.STATEMENT, NonTerminal.STAT_SEQ);
     }
     return null;
   }
 
   private WhileStatement whileStat() {
-    Token whileToken = currentToken;
+    int whileLine = lineNumber();
+    int whileChar = charPosition();
     expect(Kind.WHILE);
-    Token start = currentToken;
     Expression relExpr = relation();
     expect(Kind.DO);
-    StatementSequence whileStatementSequence = statSeq();
+    StatementSequence whileStatementSequence = statSeq(Kind.OD);
     expect(Kind.OD);
     return new WhileStatement(
-      whileToken.lineNumber(),
-      whileToken.charPosition(),
+      whileLine,
+      whileChar,
       relExpr,
       whileStatementSequence
     );
@@ -393,18 +491,18 @@ public class Compiler {
   private RepeatStatement repeatStat() {
     // create repeat statement
     // use new stat list
-    Token repeatToken = currentToken;
+    int repeatLine = lineNumber();
+    int repeatChar = charPosition();
     expect(Kind.REPEAT);
-    Token start = currentToken;
-    StatementSequence repeatStatementList = statSeq();
+    StatementSequence repeatStatementList = statSeq(Kind.UNTIL);
     // Don't need to compule
     expect(Kind.UNTIL);
 
     Expression relExpr = relation();
 
     return new RepeatStatement(
-      repeatToken.lineNumber(),
-      repeatToken.charPosition(),
+      repeatLine,
+      repeatChar,
       repeatStatementList,
       relExpr
     );
@@ -412,14 +510,15 @@ public class Compiler {
 
   private Statement letStat() {
     // Create assignment, add assignment to statement sequence
-    Token letToken = currentToken;
+    int letLine = lineNumber();
+    int letChar = charPosition();
     expect(Kind.LET);
     Expression assignTo = designator().expression;
     if (have(NonTerminal.UNARY_OP)) {
       Token tok = expectRetrieve(NonTerminal.UNARY_OP);
       return Node.newAssignment(
-        letToken.lineNumber(),
-        letToken.charPosition(),
+        letLine,
+        letChar,
         assignTo,
         tok,
         new IntegerLiteral(lineNumber(), charPosition(), "1")
@@ -428,8 +527,8 @@ public class Compiler {
     Token tok = expectRetrieve(NonTerminal.ASSIGN_OP);
     Expression second = relExpr();
     return Node.newAssignment(
-      letToken.lineNumber(),
-      letToken.charPosition(),
+      letLine,
+      letChar,
       assignTo,
       tok,
       second
@@ -437,50 +536,59 @@ public class Compiler {
   }
 
   private ReturnStatement returnStat() {
-    Token returnToken = currentToken;
+    int returnLine = lineNumber();
+    int returnChar = charPosition();
     expect(Kind.RETURN);
     return new ReturnStatement(
-      returnToken.lineNumber(),
-      returnToken.charPosition(),
-      relExpr()
+      returnLine,
+      returnChar,
+      have(NonTerminal.RELATION_EXPRESSION) ? relExpr() : null
     );
   }
 
   private IfStatement ifStat() {
-    Token ifToken = currentToken;
+    int ifLine = lineNumber();
+    int ifChar = charPosition();
     expect(Kind.IF);
     Expression b = relation();
     expect(Kind.THEN);
-    StatementSequence ifStatementList = statSeq();
+    StatementSequence ifStatementList = statSeq(Kind.FI, Kind.ELSE);
     StatementSequence elseStatementList = null;
     if (accept(Kind.ELSE)) {
-      elseStatementList = statSeq();
+      elseStatementList = statSeq(Kind.FI);
     }
     expect(Kind.FI);
     return new IfStatement(
-      ifToken.lineNumber(),
-      ifToken.charPosition(),
+      ifLine,
+      ifChar,
       b,
       ifStatementList,
       elseStatementList
     );
   }
 
+  // null after a syntax error, the operand is skipped and the expression
+  // around it goes on
   private Expression groupExpr() {
-    if (have(Kind.NOT)) {
-      return Node.newExpression(null, expectRetrieve(Kind.NOT), relExpr());
-    }
-    if (have(NonTerminal.LITERAL)) {
-      return Node.newLiteral(expectRetrieve(NonTerminal.LITERAL));
-    }
-    if (have(NonTerminal.DESIGNATOR)) {
-      return designator();
-    }
-    if (have(NonTerminal.RELATION)) {
-      return relation();
-    }
-    if (have(NonTerminal.FUNC_CALL)) {
-      return funcCall();
+    try {
+      if (have(Kind.NOT)) {
+        return Node.newExpression(null, expectRetrieve(Kind.NOT), relExpr());
+      }
+      if (have(NonTerminal.LITERAL)) {
+        return Node.newLiteral(expectRetrieve(NonTerminal.LITERAL));
+      }
+      if (have(NonTerminal.DESIGNATOR)) {
+        return designator();
+      }
+      if (have(NonTerminal.RELATION)) {
+        return relation();
+      }
+      if (have(NonTerminal.FUNC_CALL)) {
+        return funcCall();
+      }
+      expect(NonTerminal.GROUP_EXPRESSION);
+    } catch (QuitParseException e) {
+      recover(NonTerminal.GROUP_EXPRESSION);
     }
     return null;
   }
@@ -533,7 +641,12 @@ public class Compiler {
     expect(Kind.OPEN_PAREN);
     // resolves
     Expression o = relExpr();
-    expect(Kind.CLOSE_PAREN);
+    try {
+      expect(Kind.CLOSE_PAREN);
+    } catch (QuitParseException e) {
+      recover(NonTerminal.RELATION);
+      accept(Kind.CLOSE_PAREN);
+    }
     return o;
   }
 
@@ -548,7 +661,8 @@ public class Compiler {
 
   //Function
   private FunctionCall funcCall() {
-    Token funcCallToken = currentToken;
+    int funcCallLine = lineNumber();
+    int funcCallChar = charPosition();
     expect(Kind.CALL);
     Token functionToken = expectRetrieve(Kind.IDENT);
     ArrayList<Symbol> li = tryResolveFunction(functionToken);
@@ -557,13 +671,16 @@ public class Compiler {
       lineNumber(),
       charPosition()
     );
-    while (!accept(Kind.CLOSE_PAREN)) {
+    if (have(NonTerminal.RELATION_EXPRESSION)) {
       localArgumentList.append(relExpr());
-      accept(Kind.COMMA);
+      while (accept(Kind.COMMA)) {
+        localArgumentList.append(relExpr());
+      }
     }
+    expect(Kind.CLOSE_PAREN);
     return new FunctionCall(
-      funcCallToken.lineNumber(),
-      funcCallToken.charPosition(),
+      funcCallLine,
+      funcCallChar,
       functionToken.lexeme(),
       li,
       localArgumentList
@@ -571,50 +688,65 @@ public class Compiler {
   }
 
   private DeclarationList funcDecl() {
-    Token functionIdent = currentToken;
     DeclarationList functionList = new DeclarationList(
       lineNumber(),
       charPosition()
     );
     while (accept(NonTerminal.FUNC_DECL)) {
-      Token id = expectRetrieve(Kind.IDENT);
       enterScope();
-      // TODO: Have this return a list of symbol instead and refactor funcCall
-      // TODO: have scope at a certain point accessible through the nodes (e.g. maybe declare and resolve during graph generation)
-      //Get params for Function
-      TypeList variableList = formalParam();
-      expect(Kind.COLON);
-      Token tok = expectRetrieve(NonTerminal.TYPE_DECL);
-      // Get returnType
-      Type returnType = new VoidType();
-      switch (tok.kind()) {
-        case BOOL:
-          returnType = new BoolType();
-          break;
-        case INT:
-          returnType = new IntType();
-          break;
-        case FLOAT:
-          returnType = new FloatType();
-          break;
+      boolean inHeader = true;
+      try {
+        Token id = expectRetrieve(Kind.IDENT);
+        // TODO: Have this return a list of symbol instead and refactor funcCall
+        // TODO: have scope at a certain point accessible through the nodes (e.g. maybe declare and resolve during graph generation)
+        //Get params for Function
+        TypeList variableList = formalParam();
+        expect(Kind.COLON);
+        Token tok = expectRetrieve(NonTerminal.TYPE_DECL);
+        inHeader = false;
+        // Get returnType
+        Type returnType = new VoidType();
+        switch (tok.kind()) {
+          case BOOL:
+            returnType = new BoolType();
+            break;
+          case INT:
+            returnType = new IntType();
+            break;
+          case FLOAT:
+            returnType = new FloatType();
+            break;
+        }
+        // FunctionDeclaration added to List
+        FuncType functionType = new FuncType(variableList, returnType);
+        Symbol simba = tryDeclareVariable(
+          id,
+          new Symbol(id.lexeme(), functionType)
+        );
+        simba.params.addAll(func_symbols);
+        func_symbols.clear();
+        functionList.add(
+          new FunctionDeclaration(
+            id.lineNumber(),
+            id.charPosition(),
+            funcBody(),
+            simba
+          )
+        );
+      } catch (QuitParseException e) {
+        recover(NonTerminal.FUNC_DECL);
+        // a broken header still has its body to check
+        if (inHeader && have(Kind.OPEN_BRACE)) {
+          try {
+            funcBody();
+          } catch (QuitParseException f) {
+            recover(NonTerminal.FUNC_DECL);
+          }
+        }
+      } finally {
+        func_symbols.clear();
+        exitScope();
       }
-      // FunctionDeclaration added to List
-      FuncType functionType = new FuncType(variableList, returnType);
-      Symbol simba = tryDeclareVariable(
-        id,
-        new Symbol(id.lexeme(), functionType)
-      );
-      simba.params.addAll(func_symbols);
-      func_symbols.clear();
-      functionList.add(
-        new FunctionDeclaration(
-          id.lineNumber(),
-          id.charPosition(),
-          funcBody(),
-          simba
-        )
-      );
-      // Scope exits in funcBody()
     }
     return functionList;
   }
@@ -673,10 +805,14 @@ public class Compiler {
     int ln = lineNumber();
     int ch = charPosition();
     expect(Kind.OPEN_BRACE);
-    FunctionBody body = new FunctionBody(ln, ch, varDecl(), statSeq());
+    FunctionBody body = new FunctionBody(
+      ln,
+      ch,
+      varDecl(),
+      statSeq(Kind.CLOSE_BRACE)
+    );
     expect(Kind.CLOSE_BRACE);
     expect(Kind.SEMICOLON);
-    exitScope();
     return body;
   }
 
@@ -690,7 +826,7 @@ public class Compiler {
   private void computation() {
     initSymbolTable();
     enterScope();
-    Token mainToken = currentToken;
+    Token mainToken = tokens.token();
     expect(Kind.MAIN);
 
     TypeList list = new TypeList();
@@ -752,7 +888,7 @@ public class Compiler {
     inMain = false;
     funcs = funcDecl();
     expect(Kind.OPEN_BRACE);
-    mainSeq = statSeq();
+    mainSeq = statSeq(Kind.CLOSE_BRACE);
     expect(Kind.CLOSE_BRACE);
     expect(Kind.PERIOD);
 
@@ -769,14 +905,18 @@ public class Compiler {
   }
 
   public ast.AST genAST() {
-    computation();
+    try {
+      computation();
+    } catch (QuitParseException e) {
+      // no way to go on, the errors so far are in errorBuffer
+    }
     return new ast.AST(node, symbolTable);
   }
 
   SSA ssa;
 
   public SSA genSSA(AST ast) {
-    ssa = new SSA();
+    ssa = new SSA(context);
     ssa.visit(node);
     return ssa;
   }
@@ -806,14 +946,7 @@ public class Compiler {
     }
 
     // Now take the SSA and print it as a dotGraph
-    PrintStream out;
-    try {
-      out = new PrintStream("elim.dot");
-      out.print(ssa.asDotGraph());
-    } catch (FileNotFoundException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+    dumpGraph("elim.dot");
     return ssa.asDotGraph();
   }
 
@@ -826,6 +959,7 @@ public class Compiler {
           //Constant propogation
           while (optimize.constant_propogation()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
         case "as":
@@ -833,28 +967,38 @@ public class Compiler {
           //Constant folding
           while (optimize.constant_folding()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
+        case "sccp":
+          //Sparse conditional constant propogation, solved in one run
+          change |= optimize.sparse_conditional_constants();
+          context.checkInterrupted();
+          break;
         case "cpp":
           //Copy Propogation
           while (optimize.copy_propogation()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
         case "cse":
           //Common subexpression elimination
           while (optimize.subexpr_elim()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
         case "dce":
           while (optimize.dead_code_elim()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
         case "ofe":
           while (optimize.orphan_function()) {
             change = true;
+            context.checkInterrupted();
           }
           break;
       }
@@ -864,35 +1008,57 @@ public class Compiler {
 
   private boolean runEveryArgument() {
     boolean change = false;
-    while (optimize.constant_propogation()) {
-      change = true;
-    }
-    while (optimize.constant_folding()) {
-      change = true;
-    }
+    // one run instead of rounds of constant propogation and folding, run
+    // again only in the next round, after the others changed something
+    change |= optimize.sparse_conditional_constants();
+    context.checkInterrupted();
     while (optimize.copy_propogation()) {
       change = true;
+      context.checkInterrupted();
     }
     while (optimize.subexpr_elim()) {
       change = true;
+      context.checkInterrupted();
     }
     while (optimize.dead_code_elim()) {
       change = true;
+      context.checkInterrupted();
     }
     while (optimize.orphan_function()) {
       change = true;
+      context.checkInterrupted();
     }
     return change;
   }
 
+  private CodeGen gen;
+
   public int[] genCode() {
-    CodeGen gen = new CodeGen(ssa);
-    return gen.generateCode();
+    gen = new CodeGen(ssa);
+    int[] program = gen.generateCode();
+    // code starts at address 0 and globals end at the top of memory (R30),
+    // the stack grows down from the globals into whatever is left
+    int needed = 4 * (program.length + 1 + ssa.global);
+    if (needed > memorySize) {
+      errorBuffer.append(
+        "MemoryError[Program and globals need " +
+        needed +
+        " bytes but memory has " +
+        memorySize +
+        ".]\n"
+      );
+    }
+    return program;
+  }
+
+  // origin of each word of the last genCode() result
+  public DLXSourceMap sourceMap() {
+    return gen.sourceMap();
   }
 
   HashMap<Block, HashMap<Integer, ArrayList<RegisterAlloc>>> allRegisterMaps = new HashMap<Block, HashMap<Integer, ArrayList<RegisterAlloc>>>();
-  HashMap<Block, HashMap<String, ArrayList<VariableInfo>>> allLiveRanges = new HashMap<Block, HashMap<String, ArrayList<VariableInfo>>>();
-  HashMap<Block, HashMap<String, VariableInfo>> allLiveIntervals = new HashMap<>();
+  HashMap<Block, HashMap<Integer, ArrayList<VariableInfo>>> allLiveRanges = new HashMap<Block, HashMap<Integer, ArrayList<VariableInfo>>>();
+  HashMap<Block, HashMap<Integer, VariableInfo>> allLiveIntervals = new HashMap<>();
 
   public void printLiveInfo(Block block) {
     // After calculate liveness, all instructions have insets and outsets
@@ -900,69 +1066,206 @@ public class Compiler {
     printLiveIntervals(allLiveIntervals.get(block));
   }
 
-  public void initializeLiveness(Block block) {
-    // Calculates all live sets
-    calculateLiveness(block);
+  // Liveness and register allocation of one function. It touches nothing
+  // the others do: the instructions and variables of its function, and the
+  // registers it gives globals, which are kept here until link(). So the
+  // functions of a program are allocated side by side. A global it reads
+  // but has not given a register has the one it had before any function
+  // was allocated, not the one an earlier function gave it as allocating
+  // them one by one did.
+  private final class FunctionAllocation extends RecursiveAction {
 
-    // Populates the variable hashmap to get all variables
-    allLiveRanges.put(block, new HashMap<String, ArrayList<VariableInfo>>());
-    populateliveRanges(allLiveRanges.get(block), block);
+    private static final long serialVersionUID = 1L;
 
-    // Calculates the intervals
-    calculateliveRanges(allLiveRanges.get(block), block);
+    final Block root;
+    final int numRegs;
+    final HashMap<Integer, ArrayList<VariableInfo>> liveRanges =
+      new HashMap<>();
+    final HashMap<Integer, VariableInfo> liveIntervals = new HashMap<>();
+    final HashMap<Integer, ArrayList<RegisterAlloc>> registerMap =
+      new HashMap<>();
+    final HashMap<Instruction, ArrayList<Integer>> liveRegisters =
+      new HashMap<>();
+    // registers of the globals, by declared Symbol, which every function
+    // shares: those this one gave, and those they had when it was made
+    final HashMap<Symbol, Integer> globals = new HashMap<>();
+    final HashMap<Symbol, Integer> globalsBefore = new HashMap<>();
+    // what allocating printed, for the thread compiling to print
+    final StringBuilder log = new StringBuilder();
+    // what allocating threw, rethrown as it is on the thread compiling
+    Throwable failure;
+
+    // on the thread compiling, before any function is allocated
+    FunctionAllocation(Block root, int numRegs) {
+      this.root = root;
+      this.numRegs = numRegs;
+      for (Instruction i : ssa.getAllInstruction(root)) {
+        ArrayList<Result> operands = new ArrayList<>();
+        operands.add(i.left);
+        operands.add(i.right);
+        operands.add(i.third);
+        if (i.func_params != null) {
+          operands.addAll(i.func_params);
+        }
+        for (Result r : operands) {
+          if (r != null && r.isVariable() && r.var.OG.scope == Symbol.GLOBAL) {
+            globalsBefore.put(r.var.OG, r.var.OG.regno);
+          }
+        }
+      }
+    }
 
-    // Prints liveRanges
-    // printliveRanges(allLiveRanges.get(block));
+    @Override
+    protected void compute() {
+      try {
+        allocate();
+      } catch (RuntimeException | Error e) {
+        failure = e;
+      }
+    }
 
-    // HashMap<String, ArrayList<Pair>> liveRanges contains liveRanges, convert to liveInterval
-    // IE, a = [1,3],[6,11], [14,39] -> a = [1,39]
-    allLiveIntervals.put(block, new HashMap<String, VariableInfo>());
-    initializeLiveIntervals(
-      allLiveIntervals.get(block),
-      allLiveRanges.get(block)
-    );
-    calculateLiveIntervals(
-      allLiveIntervals.get(block),
-      allLiveRanges.get(block)
-    );
+    private void allocate() {
+      // Calculates all live sets
+      calculateLiveness(root, log);
+
+      // Populates the variable hashmap to get all variables
+      populateliveRanges(liveRanges, root);
+
+      // Calculates the intervals
+      calculateliveRanges(liveRanges, root);
+
+      // HashMap<Integer, ArrayList<Pair>> liveRanges contains liveRanges, convert to liveInterval
+      // IE, a = [1,3],[6,11], [14,39] -> a = [1,39]
+      initializeLiveIntervals(liveIntervals, liveRanges);
+      calculateLiveIntervals(liveIntervals, liveRanges);
+
+      // Next step is to actually distribute registers
+      // Initialize RegisterMap with each key being a register number
+      for (int i = 0; i < numRegs; i++) {
+        registerMap.put(i, null);
+      }
+      allocateRegisters(this);
+    }
+
+    // the register of a declared Symbol in this function
+    int regno(Symbol OG) {
+      if (OG.scope != Symbol.GLOBAL) {
+        return OG.regno;
+      }
+      if (globals.containsKey(OG)) {
+        return globals.get(OG);
+      }
+      // none for a global the function does not mention
+      return globalsBefore.getOrDefault(OG, -1);
+    }
+
+    void setRegno(Symbol OG, int regno) {
+      if (OG.scope != Symbol.GLOBAL) {
+        OG.regno = regno;
+      } else {
+        globals.put(OG, regno);
+      }
+    }
+
+    // Hands what this found to the compilation, on the thread compiling and
+    // in the order of the roots, so a global keeps the register the last
+    // function to give it one chose
+    void link() {
+      allLiveRanges.put(root, liveRanges);
+      allLiveIntervals.put(root, liveIntervals);
+      allRegisterMaps.put(root, registerMap);
+      context.liveRegisters.putAll(liveRegisters);
+      for (Symbol OG : globals.keySet()) {
+        OG.regno = globals.get(OG);
+      }
+      System.out.print(log);
+    }
   }
 
   public void regAlloc(int numRegs) {
     ssa.fixUpSSA(); // LOOK HERE LANCE! - Momo <3
-    ssa.instantiateUsedAt();
-    PrintStream out;
-    try {
-      out = new PrintStream("elimAfter.dot");
-      out.print(ssa.asDotGraph());
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    dumpGraph("elimAfter.dot");
     ssa.countUpResults();
+    numberVariables();
+    ArrayList<FunctionAllocation> functions = new ArrayList<>();
     for (Block block : ssa.roots) {
-      initializeLiveness(block);
-      // Next step is to actually distribute registers
-      // Initialize RegisterMap with each key being a register number
-      initializeRegisterMap(block, numRegs);
-      allocateRegisters(
-        block,
-        numRegs,
-        allRegisterMaps.get(block),
-        allLiveIntervals.get(block)
-      );
+      functions.add(new FunctionAllocation(block, numRegs));
+    }
+    // all on the common ForkJoinPool, then taken in order as if allocated
+    // one by one: a function that fails has printed what it had, the ones
+    // after it nothing
+    for (FunctionAllocation function : functions) {
+      function.fork();
+    }
+    for (FunctionAllocation function : functions) {
+      function.join();
+      if (function.failure instanceof RuntimeException) {
+        System.out.print(function.log);
+        throw (RuntimeException) function.failure;
+      } else if (function.failure != null) {
+        System.out.print(function.log);
+        throw (Error) function.failure;
+      }
+      function.link();
       // Prints all the underlying notes
-      // printLiveInfo(block);
-      // printRegisterAllocation(allRegisterMaps.get(block));
+      // printLiveInfo(function.root);
+      // printRegisterAllocation(allRegisterMaps.get(function.root));
     }
-    // Result.printAllResults();
+    // context.printResults();
 
     return;
   }
 
+  // Gives every variable its liveness key before the functions are
+  // allocated side by side, so that they only read keys, in the order
+  // allocating them one by one did: backwards through each function as
+  // calculateLiveness() meets them, then those owners() asks for
+  private void numberVariables() {
+    for (Block root : ssa.roots) {
+      List<Instruction> instructionSet = ssa.getAllInstruction(root);
+      for (int i = instructionSet.size() - 1; i >= 0; i--) {
+        Instruction currentInstruction = instructionSet.get(i);
+        if (currentInstruction.isEliminated()) {
+          continue;
+        }
+        switch (currentInstruction.inst) {
+          case MOVE:
+            if (currentInstruction.left.isVariable()) {
+              context.liveKey(currentInstruction.left.var);
+            }
+            if (currentInstruction.right.isVariable()) {
+              context.liveKey(currentInstruction.right.var);
+            }
+            break;
+          case CALL:
+            break;
+          default:
+            for (Result r : new Result[] {
+              currentInstruction.left,
+              currentInstruction.right,
+            }) {
+              if (r != null && r.isVariable() && r.var.getVersion() != -1) {
+                context.liveKey(r.var);
+              }
+            }
+        }
+      }
+      for (Instruction i : instructionSet) {
+        if (!i.isEliminated() && assigned(i) != null) {
+          context.liveKey(assigned(i));
+        }
+      }
+    }
+  }
+
   // Creates live in and live out sets for all instructions
-  private void calculateLiveness(Block block) {
+  private void calculateLiveness(Block block, StringBuilder log) {
     List<Instruction> instructionSet = ssa.getAllInstruction(block);
+    IdentityHashMap<Instruction, List<Instruction>> successors =
+      ssa.successors(ssa.inOrderBlock(block));
     boolean change_detected;
     do {
+      context.checkInterrupted();
       change_detected = false;
       // Traverse backwards
       // for every instruction in SSA
@@ -972,31 +1275,32 @@ public class Compiler {
           continue;
         }
         // First save the current in-set and out-set
-        HashSet<String> originalInSet = currentInstruction.InSet;
-        HashSet<String> originalOutSet = currentInstruction.OutSet;
+        BitSet originalInSet = currentInstruction.InSet;
+        BitSet originalOutSet = currentInstruction.OutSet;
 
-        HashSet<String> definedSet = new HashSet<>();
-        HashSet<String> usedSet = new HashSet<>();
+        BitSet definedSet = new BitSet();
+        BitSet usedSet = new BitSet();
         // MOV e f means move value of e into f
         switch (currentInstruction.inst) {
           case MOVE:
             if (currentInstruction.left.isVariable()) {
-              usedSet.add(currentInstruction.left.var.name);
+              usedSet.set(context.liveKey(currentInstruction.left.var));
             } else if (currentInstruction.left.kind == Result.INST) {
-              usedSet.add("(" + currentInstruction.left.inst.my_num + ")");
+              usedSet.set(currentInstruction.left.inst.liveKey());
             }
             if (currentInstruction.right.isVariable()) {
-              definedSet.add(currentInstruction.right.var.name);
+              definedSet.set(context.liveKey(currentInstruction.right.var));
             } else {
               // If the 'right' in a MOV operation is not a variable, then we know that we're saving the instruction
-              definedSet.add("(" + currentInstruction.my_num + ")");
+              definedSet.set(currentInstruction.liveKey());
             }
             break;
           case CALL:
-            System.out.println(
-              "called func on instruction " + currentInstruction.my_num
-            );
-            definedSet.add("(" + currentInstruction.my_num + ")");
+            log
+              .append("called func on instruction ")
+              .append(currentInstruction.my_num)
+              .append('\n');
+            definedSet.set(currentInstruction.liveKey());
             break;
           default:
             if (currentInstruction.left != null) {
@@ -1004,10 +1308,10 @@ public class Compiler {
                 currentInstruction.left.isVariable() &&
                 currentInstruction.left.var.getVersion() != -1
               ) {
-                usedSet.add(currentInstruction.left.var.name);
+                usedSet.set(context.liveKey(currentInstruction.left.var));
               } else {
                 if (currentInstruction.left.kind == Result.INST) {
-                  usedSet.add("(" + currentInstruction.left.inst.my_num + ")");
+                  usedSet.set(currentInstruction.left.inst.liveKey());
                 }
               }
             }
@@ -1016,10 +1320,10 @@ public class Compiler {
                 currentInstruction.right.isVariable() &&
                 currentInstruction.right.var.getVersion() != -1
               ) {
-                usedSet.add(currentInstruction.right.var.name);
+                usedSet.set(context.liveKey(currentInstruction.right.var));
               } else {
                 if (currentInstruction.right.kind == Result.INST) {
-                  usedSet.add("(" + currentInstruction.right.inst.my_num + ")");
+                  usedSet.set(currentInstruction.right.inst.liveKey());
                 }
               }
             }
@@ -1035,7 +1339,7 @@ public class Compiler {
               // No variables, but the result must be saved in a register.
               // So we can add '1' to the outset
               // Remember, variables can't start with numbers so this is valid
-              definedSet.add("(" + currentInstruction.my_num + ")");
+              definedSet.set(currentInstruction.liveKey());
             } else if (
               currentInstruction.left != null &&
               !currentInstruction.left.isVariable() &&
@@ -1044,7 +1348,7 @@ public class Compiler {
             ) {
               // This is the following case:
               // 1: ADD 3 a_1
-              definedSet.add("(" + currentInstruction.my_num + ")");
+              definedSet.set(currentInstruction.liveKey());
             } else if (
               currentInstruction.left != null &&
               currentInstruction.left.isVariable() &&
@@ -1053,18 +1357,18 @@ public class Compiler {
             ) {
               // This is the following case:
               // 1: ADD a_1 3
-              definedSet.add("(" + currentInstruction.my_num + ")");
+              definedSet.set(currentInstruction.liveKey());
             } else if (
               currentInstruction.left != null &&
               currentInstruction.left.isVariable() &&
               currentInstruction.right != null &&
               currentInstruction.right.isVariable()
             ) {
-              definedSet.add("(" + currentInstruction.my_num + ")");
+              definedSet.set(currentInstruction.liveKey());
             } else {
               switch (currentInstruction.inst) {
                 case READ:
-                  definedSet.add("(" + currentInstruction.my_num + ")");
+                  definedSet.set(currentInstruction.liveKey());
               }
             }
 
@@ -1074,19 +1378,17 @@ public class Compiler {
         // For out, find the union of previous variables in the in set for each succeeding node of n
         // out[n] := ∪ {in[s] | s ε succ[n]}
         // outSet of a node = the union of all the inSets of n's successors
-        // Successor is simply j + 1
-        if (!((i + 1) >= instructionSet.size())) {
-          currentInstruction.OutSet.addAll(instructionSet.get(i + 1).InSet);
+        // along the control flow graph
+        for (Instruction next : successors.get(currentInstruction)) {
+          currentInstruction.OutSet.or(next.InSet);
         }
 
         // in[n] := use[n] ∪ (out[n] - def[n])
         // (out[n] - def[n])
-        HashSet<String> temporaryOutSet = new HashSet<String>();
-
-        temporaryOutSet.addAll(currentInstruction.OutSet);
-        temporaryOutSet.removeAll(definedSet);
+        BitSet temporaryOutSet = (BitSet) currentInstruction.OutSet.clone();
+        temporaryOutSet.andNot(definedSet);
         // use[n]
-        usedSet.addAll(temporaryOutSet);
+        usedSet.or(temporaryOutSet);
         currentInstruction.InSet = usedSet;
 
         boolean inSetChanged =
@@ -1106,12 +1408,18 @@ public class Compiler {
     for (Instruction instruction : ssa.getAllInstruction(block)) {
       System.out.println("-----------------------------------");
       System.out.println(instruction);
-      System.out.println("InSet: " + instruction.InSet);
-      System.out.println("OutSet: " + instruction.OutSet);
+      System.out.println("InSet: " + liveNames(instruction.InSet));
+      System.out.println("OutSet: " + liveNames(instruction.OutSet));
     }
     System.out.println();
   }
 
+  private List<String> liveNames(BitSet set) {
+    List<String> names = new ArrayList<>();
+    set.stream().forEach(key -> names.add(context.liveName(key)));
+    return names;
+  }
+
   private void printRegisterAllocation(
     HashMap<Integer, ArrayList<RegisterAlloc>> registerMap
   ) {
@@ -1120,7 +1428,7 @@ public class Compiler {
       System.out.println("Allocation History for Register #" + Register + ":");
       if (registerMap.get(Register) != null) {
         for (RegisterAlloc regAllocation : registerMap.get(Register)) {
-          System.out.println(regAllocation);
+          System.out.println(regAllocation.toString(context));
         }
         System.out.println("----------------------");
       }
@@ -1128,48 +1436,34 @@ public class Compiler {
     System.out.println();
   }
 
-  public ArrayList<String> findDeclarationOrder(
-    HashMap<String, VariableInfo> liveIntervals
+  // variables by the instruction their interval opens at, earliest first,
+  // then by name
+  public ArrayList<Integer> findDeclarationOrder(
+    HashMap<Integer, VariableInfo> liveIntervals
   ) {
-    ArrayList<String> declarations = new ArrayList<>();
-    // Iterate through all variables, and one by one remove the one with the lowest "opening"
-    HashSet<String> availableVariables = new HashSet<String>(
-      liveIntervals.keySet()
+    ArrayList<Integer> declarations = new ArrayList<>(liveIntervals.keySet());
+    declarations.sort(
+      Comparator
+        .comparingInt((Integer v) -> liveIntervals.get(v).instruction.my_num)
+        .thenComparing(context::liveName)
     );
-    while (availableVariables.size() != 0) {
-      String lowest_variable = availableVariables.iterator().next();
-      int lowest_opening = liveIntervals.get(lowest_variable)
-        .instruction.my_num;
-      for (String variable : availableVariables) {
-        // If this variable has the most low opening, add to declarations, remove from available variables
-        int opening = liveIntervals.get(variable).instruction.my_num;
-        if (opening < lowest_opening) {
-          lowest_opening = opening;
-          lowest_variable = variable;
-        }
-      }
-      declarations.add(lowest_variable);
-      availableVariables.remove(lowest_variable);
-    }
-
     return declarations;
   }
 
-  public static HashMap<Instruction, ArrayList<Integer>> iMap = new HashMap<>();
 
-  private void allocateRegisters(
-    Block block,
-    int numRegs,
-    HashMap<Integer, ArrayList<RegisterAlloc>> registerMap,
-    HashMap<String, VariableInfo> liveIntervals
-  ) {
+  private void allocateRegisters(FunctionAllocation function) {
+    Block block = function.root;
+    int numRegs = function.numRegs;
+    HashMap<Integer, ArrayList<RegisterAlloc>> registerMap =
+      function.registerMap;
+    HashMap<Integer, VariableInfo> liveIntervals = function.liveIntervals;
     // We begin with the earliest opening variables
-    ArrayList<String> declarations = findDeclarationOrder(
-      allLiveIntervals.get(block)
-    );
+    ArrayList<Integer> declarations = findDeclarationOrder(liveIntervals);
+    HashMap<Integer, Instruction> owners = owners(block, liveIntervals);
     // Fill registerMap here
     // Symbol notNull = null;
-    for (String variable : declarations) {
+    for (int variable : declarations) {
+      context.checkInterrupted();
       // We will always start from the left most register
       // if (notNull != null) {
       //   System.out.println(notNull.regno);
@@ -1188,11 +1482,11 @@ public class Compiler {
           //k.getResult().regno = registerNumber;
           registerMap.put((Integer) registerNumber, allocationHistory);
           successfully_allocated = true;
-          Instruction thisInstruction = liveIntervals.get(variable).instruction;
+          Instruction thisInstruction = owners.get(variable);
           switch (thisInstruction.inst) {
             case MOVE:
             case PHI:
-              thisInstruction.right.var.OG.regno = registerNumber;
+              function.setRegno(thisInstruction.right.var.OG, registerNumber);
               // if (notNull == null) {
               //   notNull = thisInstruction.right.var.OG;
               // }
@@ -1202,26 +1496,26 @@ public class Compiler {
           }
           break;
         } else if (
-          liveIntervals.get(
+          owners.get(
             registerMap
               .get(registerNumber)
               .get(registerMap.get(registerNumber).size() - 1)
               .variable
           )
-            .instruction.inst !=
+            .inst !=
           op.MOVE &&
-          liveIntervals.get(
+          owners.get(
             registerMap
               .get(registerNumber)
               .get(registerMap.get(registerNumber).size() - 1)
               .variable
           )
-            .instruction.inst !=
+            .inst !=
           op.PHI
         ) {
           // The register has been used before
           // Check if it is available
-          String currentlyStoredVariable = registerMap
+          int currentlyStoredVariable = registerMap
             .get(registerNumber)
             .get(registerMap.get(registerNumber).size() - 1)
             .variable;
@@ -1229,7 +1523,7 @@ public class Compiler {
             .closing;
 
           // The current register is holding a dead variable, so we can replace it
-          Instruction thisInstruction = liveIntervals.get(variable).instruction;
+          Instruction thisInstruction = owners.get(variable);
           boolean holdingDeadVariable =
             instruction_number >= deathInstruction &&
             (
@@ -1246,7 +1540,7 @@ public class Compiler {
             switch (thisInstruction.inst) {
               case MOVE:
               case PHI:
-                thisInstruction.right.var.OG.regno = registerNumber;
+                function.setRegno(thisInstruction.right.var.OG, registerNumber);
                 break;
               default:
                 thisInstruction.regno = registerNumber;
@@ -1263,7 +1557,7 @@ public class Compiler {
         ) {
           // The register has been used before
           // Check if it is available
-          String currentlyStoredVariable = registerMap
+          int currentlyStoredVariable = registerMap
             .get(registerNumber)
             .get(registerMap.get(registerNumber).size() - 1)
             .variable;
@@ -1271,7 +1565,7 @@ public class Compiler {
             .closing;
 
           // The current register is holding a dead variable, so we can replace it
-          Instruction thisInstruction = liveIntervals.get(variable).instruction;
+          Instruction thisInstruction = owners.get(variable);
           boolean holdingDeadVariable =
             instruction_number >= deathInstruction &&
             (
@@ -1288,7 +1582,7 @@ public class Compiler {
             switch (thisInstruction.inst) {
               case MOVE:
               case PHI:
-                thisInstruction.right.var.OG.regno = registerNumber;
+                function.setRegno(thisInstruction.right.var.OG, registerNumber);
                 break;
               default:
                 thisInstruction.regno = registerNumber;
@@ -1311,7 +1605,7 @@ public class Compiler {
         // ------------- Momo code for eviction due to spilling --------------//
         // Get Instruction
         int instruction_num = liveIntervals.get(variable).opening;
-        Instruction thisInstruction = liveIntervals.get(variable).instruction;
+        Instruction thisInstruction = owners.get(variable);
         // Get result that best matches
         Result loadResult = null;
         int min = 100000;
@@ -1321,14 +1615,14 @@ public class Compiler {
           registerNumber < numRegs;
           registerNumber++
         ) {
-          String vars = registerMap
+          int vars = registerMap
             .get(registerNumber)
             .get(registerMap.get(registerNumber).size() - 1)
             .variable;
-          Instruction check = liveIntervals.get(vars).instruction; // MOVE is
+          Instruction check = owners.get(vars); // MOVE is
           if (
             liveIntervals.get(vars).closing > instruction_num &&
-            !vars.equals(variable) &&
+            vars != variable &&
             !instructionContainsResult(thisInstruction, check.getResult()) &&
             min > check.getResult().result_count
           ) {
@@ -1341,13 +1635,13 @@ public class Compiler {
         int reg =
           (
             loadResult.kind == Result.VAR
-              ? loadResult.var.OG.regno
+              ? function.regno(loadResult.var.OG)
               : loadResult.inst.regno
           );
         switch (thisInstruction.inst) {
           case MOVE:
           case PHI:
-            thisInstruction.right.var.OG.regno = reg;
+            function.setRegno(thisInstruction.right.var.OG, reg);
             break;
           default:
             thisInstruction.regno = reg;
@@ -1366,7 +1660,7 @@ public class Compiler {
           doIt = true;
         }
         if (doIt) {
-          iMap.put(i, intSet);
+          function.liveRegisters.put(i, intSet);
         }
       }
     }
@@ -1378,42 +1672,43 @@ public class Compiler {
     // Loop through all instructions keep track of the InSet (measures change)
     // If a variable is updated then we will read this as change, if an instruction is ADDED then we read as change other wise no
     // If a variable is loaded back just to be used (no MOVE) then we dont say to store again this is why we loop and put in perspective of variable cuz it will know if it's necessary to store it when someone takes over
-    HashMap<Integer, String> changed = new HashMap<>(); // Currently in register
-    HashSet<String> last = new HashSet<>();
-    for (String variable : declarations) {
+    HashMap<Integer, Integer> changed = new HashMap<>(); // Currently in register
+    HashSet<Integer> last = new HashSet<>();
+    for (int variable : declarations) {
       // Find my register number
-      Instruction regInst = liveIntervals.get(variable).instruction;
+      Instruction regInst = owners.get(variable);
       int reg = -1;
       Result toStore = null;
       if (regInst.inst == op.MOVE || regInst.inst == op.PHI) {
-        reg = regInst.right.var.OG.regno;
+        reg = function.regno(regInst.right.var.OG);
         toStore = regInst.right;
       } else {
         reg = regInst.regno;
+        Instruction usedAt = regInst.usedAt();
         if (
-          regInst.usedAt.left != null &&
-          regInst.usedAt.left.isInstruction() &&
-          regInst.usedAt.left.inst == regInst
+          usedAt.left != null &&
+          usedAt.left.isInstruction() &&
+          usedAt.left.inst == regInst
         ) {
-          toStore = regInst.usedAt.left;
+          toStore = usedAt.left;
         }
         if (
-          regInst.usedAt.right != null &&
-          regInst.usedAt.right.isInstruction() &&
-          regInst.usedAt.right.inst == regInst
+          usedAt.right != null &&
+          usedAt.right.isInstruction() &&
+          usedAt.right.inst == regInst
         ) {
-          toStore = regInst.usedAt.right;
+          toStore = usedAt.right;
         }
       }
       boolean isChanged = true;
       for (Instruction i : ssa.getAllInstruction(block)) {
         // Find change or if no change check if the current Instruction is a MOVE or PHI
         // Just Compare in to out
-        if (!i.OutSet.contains(variable)) continue; // If this variable lacks relevance then skip
+        if (!i.OutSet.get(variable)) continue; // If this variable lacks relevance then skip
         // Just have to check if the Instruction is move or phi and the OG has the same register and the
         // Anytime there is a MOVE or PHI where the OutSet contains me, and InSet contained another variable with my regno
         if (
-          !i.InSet.contains(variable) && i.OutSet.contains(variable)
+          !i.InSet.get(variable) && i.OutSet.get(variable)
         ) continue; // This is already done above so we can go ahead and continue
         // Check if the currentInstruction changes me so im changed then if a register wants to use a register I am holding
         if (
@@ -1425,7 +1720,7 @@ public class Compiler {
         // Check if isChanged and is someone in the current Instruction to be used or loaded that has your regno
         if (isChanged && !instructionContainsResult(i, toStore)) {
           if (
-            i.left != null && i.left.isVariable() && i.left.var.OG.regno == reg
+            i.left != null && i.left.isVariable() && function.regno(i.left.var.OG) == reg
           ) {
             i.storeThese.add(regInst.right);
           }
@@ -1437,7 +1732,7 @@ public class Compiler {
           if (
             i.right != null &&
             i.right.isVariable() &&
-            i.right.var.OG.regno == reg
+            function.regno(i.right.var.OG) == reg
           ) {
             i.storeThese.add(toStore);
           }
@@ -1454,29 +1749,74 @@ public class Compiler {
     }
   }
 
-  private void printLiveIntervals(HashMap<String, VariableInfo> liveIntervals) {
-    for (String variable : liveIntervals.keySet()) {
-      System.out.println("Live Interval for variable \"" + variable + "\"");
+  // the instruction that puts each variable in its register: the one its
+  // interval opens at, unless the variable is only found live there, read
+  // around a loop or on a path from the entry before any assignment, then
+  // its first assignment in the function
+  private HashMap<Integer, Instruction> owners(
+    Block block,
+    HashMap<Integer, VariableInfo> liveIntervals
+  ) {
+    HashMap<Integer, Instruction> owners = new HashMap<>();
+    HashMap<Integer, Instruction> assignments = new HashMap<>();
+    for (Instruction i : ssa.getAllInstruction(block)) {
+      if (!i.isEliminated() && assigned(i) != null) {
+        assignments.putIfAbsent(context.liveKey(assigned(i)), i);
+      }
+    }
+    for (int variable : liveIntervals.keySet()) {
+      Instruction opening = liveIntervals.get(variable).instruction;
+      boolean assigns =
+        assigned(opening) != null &&
+        context.liveKey(assigned(opening)) == variable;
+      owners.put(
+        variable,
+        variable % 2 == 0 && !assigns
+          ? assignments.getOrDefault(variable, opening)
+          : opening
+      );
+    }
+    return owners;
+  }
+
+  // the variable a MOVE or PHI assigns
+  private static Symbol assigned(Instruction i) {
+    if (i.inst == op.MOVE && i.right != null && i.right.isVariable()) {
+      return i.right.var;
+    }
+    if (i.inst == op.PHI && i.third != null && i.third.isVariable()) {
+      return i.third.var;
+    }
+    return null;
+  }
+
+  private void printLiveIntervals(
+    HashMap<Integer, VariableInfo> liveIntervals
+  ) {
+    for (int variable : liveIntervals.keySet()) {
+      System.out.println(
+        "Live Interval for variable \"" + context.liveName(variable) + "\""
+      );
       System.out.println(liveIntervals.get(variable));
     }
     System.out.println();
   }
 
   private void initializeLiveIntervals(
-    HashMap<String, VariableInfo> liveIntervals,
-    HashMap<String, ArrayList<VariableInfo>> liveRanges
+    HashMap<Integer, VariableInfo> liveIntervals,
+    HashMap<Integer, ArrayList<VariableInfo>> liveRanges
   ) {
-    for (String variable : liveRanges.keySet()) {
+    for (int variable : liveRanges.keySet()) {
       liveIntervals.put(variable, null);
     }
   }
 
   // Has nothing to do with adding instruction to VariableInfo
   private void calculateLiveIntervals(
-    HashMap<String, VariableInfo> liveIntervals,
-    HashMap<String, ArrayList<VariableInfo>> liveRanges
+    HashMap<Integer, VariableInfo> liveIntervals,
+    HashMap<Integer, ArrayList<VariableInfo>> liveRanges
   ) {
-    for (String variable : liveRanges.keySet()) {
+    for (int variable : liveRanges.keySet()) {
       int left_boundary = liveRanges.get(variable).get(0).opening;
       int right_boundary = liveRanges
         .get(variable)
@@ -1489,22 +1829,21 @@ public class Compiler {
     }
   }
 
-  private void initializeRegisterMap(Block block, int numRegs) {
-    allRegisterMaps.put(
-      block,
-      new HashMap<Integer, ArrayList<RegisterAlloc>>()
-    );
-    for (int i = 0; i < numRegs; i++) {
-      allRegisterMaps.get(block).put(i, null);
-    }
-  }
-
   private void calculateliveRanges(
-    HashMap<String, ArrayList<VariableInfo>> liveRanges,
+    HashMap<Integer, ArrayList<VariableInfo>> liveRanges,
     Block b
   ) {
+    // the last instruction each variable was live at: liveness follows the
+    // control flow graph, so a variable live out of the last instruction of
+    // a block need not be live into the next block laid out, and its range
+    // closes there
+    HashMap<Integer, Integer> lastLive = new HashMap<>();
     for (Instruction instruction : ssa.getAllInstruction(b)) {
-      for (String variable : instruction.InSet) {
+      for (
+        int variable = instruction.InSet.nextSetBit(0);
+        variable >= 0;
+        variable = instruction.InSet.nextSetBit(variable + 1)
+      ) {
         ArrayList<VariableInfo> PairList = liveRanges.get(variable);
         if (PairList.size() == 0) {
           VariableInfo newInterval = new VariableInfo(
@@ -1516,7 +1855,7 @@ public class Compiler {
           VariableInfo mostRecentPair = PairList.get(PairList.size() - 1);
           if (mostRecentPair.closing == null) {
             // If the interval has not been closed, check if it closes now
-            if (!instruction.OutSet.contains(variable)) {
+            if (!instruction.OutSet.get(variable)) {
               // If the outset doesn't contain this variable, it means it was used this line. So it closes
               mostRecentPair.closing = instruction.my_num;
             }
@@ -1532,10 +1871,15 @@ public class Compiler {
         }
       }
 
-      for (String variable : instruction.OutSet) {
-        if (!instruction.InSet.contains(variable)) {
+      for (
+        int variable = instruction.OutSet.nextSetBit(0);
+        variable >= 0;
+        variable = instruction.OutSet.nextSetBit(variable + 1)
+      ) {
+        if (!instruction.InSet.get(variable)) {
           // If a variable is not in the inset but in the outset, then it was defined on that instruction
           // Therefore a new interval starts here, regardless if the last pair was closed
+          close(liveRanges.get(variable), lastLive.get(variable));
           VariableInfo newInterval = new VariableInfo(
             instruction.my_num,
             instruction
@@ -1543,15 +1887,40 @@ public class Compiler {
           liveRanges.get(variable).add(newInterval);
         }
       }
+
+      BitSet live = (BitSet) instruction.InSet.clone();
+      live.or(instruction.OutSet);
+      for (
+        int variable = live.nextSetBit(0);
+        variable >= 0;
+        variable = live.nextSetBit(variable + 1)
+      ) {
+        lastLive.put(variable, instruction.my_num);
+      }
+    }
+    for (int variable : liveRanges.keySet()) {
+      close(liveRanges.get(variable), lastLive.get(variable));
+    }
+  }
+
+  // closes the last of ranges at the last instruction its variable was live
+  // at if it is still open
+  private static void close(ArrayList<VariableInfo> ranges, Integer last) {
+    if (!ranges.isEmpty() && ranges.get(ranges.size() - 1).closing == null) {
+      ranges.get(ranges.size() - 1).closing = last;
     }
   }
 
   private void populateliveRanges(
-    HashMap<String, ArrayList<VariableInfo>> liveRanges,
+    HashMap<Integer, ArrayList<VariableInfo>> liveRanges,
     Block b
   ) {
     for (Instruction instruction : ssa.getAllInstruction(b)) {
-      for (String variable : instruction.InSet) {
+      for (
+        int variable = instruction.InSet.nextSetBit(0);
+        variable >= 0;
+        variable = instruction.InSet.nextSetBit(variable + 1)
+      ) {
         if (!liveRanges.containsKey(variable)) {
           // If this variable has not been added to the global list, add it
           ArrayList<VariableInfo> blankIntervalList = new ArrayList<VariableInfo>();
@@ -1562,10 +1931,12 @@ public class Compiler {
   }
 
   private void printliveRanges(
-    HashMap<String, ArrayList<VariableInfo>> liveRanges
+    HashMap<Integer, ArrayList<VariableInfo>> liveRanges
   ) {
-    for (String variable : liveRanges.keySet()) {
-      System.out.println("Live Ranges for variable \"" + variable + "\"");
+    for (int variable : liveRanges.keySet()) {
+      System.out.println(
+        "Live Ranges for variable \"" + context.liveName(variable) + "\""
+      );
       System.out.println(liveRanges.get(variable));
     }
     System.out.println();
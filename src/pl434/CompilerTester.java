@@ -3,6 +3,7 @@ package pl434;
 import ast.*;
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 import org.apache.commons.cli.*;
 import types.*;
 
@@ -10,12 +11,71 @@ import types.*;
 public class CompilerTester {
 
   public static void main(String[] args) {
+    int status;
+    try {
+      status = run(args, System.in, generated -> {});
+    } catch (DLX.AssemblyException e) {
+      DLX.halt(e.exitCode());
+      return;
+    }
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  // Compile and run as the command line args say, returning the exit code.
+  // Output goes to System.out and System.err. The program reads stdin unless
+  // given -i, stdin is null when there is no console to read or trace on.
+  // generated gets the code once it is generated, before it runs.
+  public static int run(
+    String[] args,
+    InputStream stdin,
+    Consumer<int[]> generated
+  ) {
     Options options = new Options();
     options.addRequiredOption("s", "src", true, "Source File");
     options.addOption("i", "in", true, "Data File");
     options.addOption("nr", "reg", true, "Num Regs");
     options.addOption("b", "asm", false, "Print DLX instructions");
     options.addOption("a", "astOut", false, "Print AST");
+    options.addOption(
+      "t",
+      "trace",
+      false,
+      "Step through DLX execution, printing state to stderr"
+    );
+    options.addOption(
+      "x",
+      "exec",
+      true,
+      "DLX execution tier: interp (default), block or jit"
+    );
+    options.addOption(
+      "p",
+      "profile",
+      false,
+      "Profile DLX execution, printing a report to stderr"
+    );
+    options.addOption(
+      "cy",
+      "cycles",
+      false,
+      "Simulate DLX timing: cycles, CPI, cache and branch misses to stderr"
+    );
+    options.addOption(
+      "l1",
+      "cache",
+      true,
+      "Simulated L1 data cache as bytes,lineBytes,ways (default 4096,32,2)"
+    );
+    options.addOption("m", "mem", true, "DLX memory size in bytes");
+    options.addOption("q", "batch", false, "Batch mode, no DLX input prompts");
+    options.addOption(
+      "pm",
+      "pagedMem",
+      false,
+      "Allocate DLX memory in pages on first write"
+    );
 
     options.addOption(
       "gDir",
@@ -25,7 +85,12 @@ public class CompilerTester {
     );
     options.addOption("ast", "ast", false, "Print AST.dot - requires graphs/");
 
-    options.addOption("cfg", "cfg", false, "Print CFG.dot - requires graphs/");
+    options.addOption(
+      "cfg",
+      "cfg",
+      false,
+      "Print CFG.dot - requires graphs/, and elim.dot, elimAfter.dot"
+    );
     options.addOption(
       "onefile",
       "onefile",
@@ -59,7 +124,12 @@ public class CompilerTester {
       cmd = cmdParser.parse(options, args);
     } catch (ParseException e) {
       formatter.printHelp("All Options", options);
-      System.exit(-1);
+      return -1;
+    }
+
+    if (cmd.hasOption("trace") && stdin == null) {
+      System.err.println("Tracing steps through DLX on stdin, there is none");
+      return -1;
     }
 
     Scanner s = null;
@@ -71,10 +141,10 @@ public class CompilerTester {
       System.err.println(
         "Error accessing the code file: \"" + sourceFile + "\""
       );
-      System.exit(-3);
+      return -3;
     }
 
-    InputStream in = System.in;
+    InputStream in = stdin != null ? stdin : InputStream.nullInputStream();
     if (cmd.hasOption("in")) {
       String inputFilename = cmd.getOptionValue("in");
       try {
@@ -83,7 +153,7 @@ public class CompilerTester {
         System.err.println(
           "Error accessing the data file: \"" + inputFilename + "\""
         );
-        System.exit(-2);
+        return -2;
       }
     }
 
@@ -104,8 +174,52 @@ public class CompilerTester {
       numRegs = 24;
     }
 
+    String strMemSize = cmd.getOptionValue("mem", "" + DLX.MEM_SIZE);
+    int memSize = DLX.MEM_SIZE;
+    try {
+      memSize = Integer.parseInt(strMemSize);
+      if (memSize < 8 || memSize % 4 != 0) {
+        System.err.println(
+          "mem size must be a positive multiple of 4 - setting to " +
+          DLX.MEM_SIZE
+        );
+        memSize = DLX.MEM_SIZE;
+      }
+    } catch (NumberFormatException e) {
+      System.err.println(
+        "Error in option MemSize -- reseting to " + DLX.MEM_SIZE + " (default)"
+      );
+      memSize = DLX.MEM_SIZE;
+    }
+
+    try (InputStream input = in) {
+      return compile(cmd, s, input, numRegs, memSize, generated);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.err.println("IOException inside DLX");
+      return -6;
+    }
+  }
+
+  // compile, write out what the options ask for and run, with the files open
+  private static int compile(
+    CommandLine cmd,
+    Scanner s,
+    InputStream in,
+    int numRegs,
+    int memSize,
+    Consumer<int[]> generated
+  ) {
+    String sourceFile = cmd.getOptionValue("src");
     Compiler c = new Compiler(s, numRegs);
+    c.setMemorySize(memSize);
+    c.setDumpGraphs(cmd.hasOption("cfg"));
     AST ast = c.genAST();
+    if (c.hasSyntaxError()) {
+      System.out.println("Error parsing file.");
+      System.out.println(c.errorReport());
+      return -4;
+    }
 
     String ast_text = ast.printPreOrder();
     if (cmd.hasOption("astOut")) {
@@ -140,7 +254,7 @@ public class CompilerTester {
           File.pathSeparator +
           filename
         );
-        System.exit(-2);
+        return -2;
       }
     }
 
@@ -149,19 +263,21 @@ public class CompilerTester {
     if (!tc.check(ast)) {
       System.out.println("Error type-checking file.");
       System.out.println(tc.errorReport());
-      System.exit(-4);
+      return -4;
     }
 
     String dotgraph_text = null;
     try {
       dotgraph_text = c.genSSA(ast).asDotGraph();
       System.out.println(dotgraph_text);
+    } catch (CompilationContext.Interrupted e) {
+      throw e;
     } catch (Exception e) {
       e.printStackTrace();
       System.out.println(
         "Error caught - see stderr for stack trace " + e.getMessage()
       );
-      System.exit(-5);
+      return -5;
     }
 
     if (cmd.hasOption("cfg")) {
@@ -182,7 +298,7 @@ public class CompilerTester {
           File.pathSeparator +
           filename
         );
-        System.exit(-2);
+        return -2;
       }
     }
 
@@ -198,12 +314,14 @@ public class CompilerTester {
     try {
       dotgraph_text = c.optimization(optArguments, cmd);
       System.out.println(dotgraph_text);
+    } catch (CompilationContext.Interrupted e) {
+      throw e;
     } catch (Exception e) {
       e.printStackTrace();
       System.out.println(
         "Error caught - see stderr for stack trace " + e.getMessage()
       );
-      System.exit(-6);
+      return -6;
     }
     //PA 8
     c.regAlloc(numRegs);
@@ -213,8 +331,9 @@ public class CompilerTester {
     if (c.hasError()) {
       System.err.println("Error compiling file");
       System.err.println(c.errorReport());
-      System.exit(-4);
+      return -4;
     }
+    generated.accept(program);
 
     if (cmd.hasOption("asm")) {
       String asmFile =
@@ -225,17 +344,76 @@ public class CompilerTester {
         }
       } catch (IOException e) {
         System.err.println("Error accessing the asm file: \"" + asmFile + "\"");
-        System.exit(-5);
+        return -5;
+      }
+    }
+
+    DLXMachine.Tier tier = DLXMachine.Tier.INTERP;
+    if (cmd.hasOption("exec")) {
+      try {
+        tier = DLXMachine.Tier.valueOf(
+          cmd.getOptionValue("exec").toUpperCase()
+        );
+      } catch (IllegalArgumentException e) {
+        System.err.println(
+          "Unknown execution tier \"" +
+          cmd.getOptionValue("exec") +
+          "\" -- using interp"
+        );
       }
     }
 
-    DLX.load(program);
+    DLXMachine machine = new DLXMachine();
+    machine.setMemorySize(memSize);
+    machine.setPagedMemory(cmd.hasOption("pagedMem"));
+    machine.setPrompts(!cmd.hasOption("batch"));
+    DLXProfile profile = cmd.hasOption("profile") ? new DLXProfile() : null;
+    machine.setProfile(profile);
+    DLXTiming timing = null;
+    if (cmd.hasOption("cycles") || cmd.hasOption("cache")) {
+      timing = new DLXTiming();
+      if (cmd.hasOption("cache")) {
+        try {
+          String[] geometry = cmd.getOptionValue("cache").split(",");
+          timing = new DLXTiming(
+            Integer.parseInt(geometry[0].trim()),
+            geometry.length > 1 ? Integer.parseInt(geometry[1].trim()) : 32,
+            geometry.length > 2 ? Integer.parseInt(geometry[2].trim()) : 2,
+            1024
+          );
+        } catch (IllegalArgumentException e) {
+          System.err.println(
+            "Error in option cache \"" +
+            cmd.getOptionValue("cache") +
+            "\" -- using 4096,32,2 (default)"
+          );
+        }
+      }
+    }
+    machine.setTiming(timing);
+    machine.load(program);
+    machine.setTrace(cmd.hasOption("trace"));
+    machine.setTier(tier);
     try {
-      DLX.execute(in);
+      machine.execute(in);
     } catch (IOException e) {
       e.printStackTrace();
       System.err.println("IOException inside DLX");
-      System.exit(-6);
+      return -6;
+    } catch (DLXMachine.HaltException e) {
+      if (machine.isTracing()) {
+        // only from the command line, wait for the last step there
+        DLX.halt(e.exitCode());
+      }
+      return e.exitCode();
+    }
+    System.err.println(machine.throughputReport());
+    if (profile != null) {
+      System.err.print(profile.report(program, c.sourceMap()));
+    }
+    if (timing != null) {
+      System.err.print(timing.report());
     }
+    return 0;
   }
 }
@@ -0,0 +1,945 @@
+package pl434;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Block execution tier for DLXMachine. A block is the straight-line run from
+// an entry PC up to and including the next control transfer (BEQ..BGT, BSR,
+// JSR, RET), compiled into an array of closures that run back to back without
+// going through the dispatch switch in DLXMachine.step(). Common pairs are
+// fused into superinstructions. Anything the tier does not compile is left to
+// step(), which keeps output byte-identical to the interpreter.
+class DLXBlockCompiler {
+
+  // an instruction (or fused pair) of a block
+  abstract static class Op {
+
+    // returns NEXT to fall through, HALT, or the PC to continue at
+    abstract int run() throws IOException;
+  }
+
+  static final int NEXT = -1;
+  static final int HALT = -2;
+
+  static final class Block {
+
+    final int start;
+    final int end; // one past the last instruction
+    final Op[] ops;
+    final int[] ends; // one past the last instruction covered by ops[i]
+    // format and operand of the last instruction covered by ops[i]
+    final byte[] lastFormats;
+    final int[] lastOperands;
+
+    Block(int start, int end, int size) {
+      this.start = start;
+      this.end = end;
+      this.ops = new Op[size];
+      this.ends = new int[size];
+      this.lastFormats = new byte[size];
+      this.lastOperands = new int[size];
+    }
+  }
+
+  // marks an entry PC that step() has to handle
+  private static final Block NONE = new Block(0, 0, 0);
+
+  private final DLXMachine m;
+  private final int[] R;
+  private final int[] M;
+  private Block[] blocks;
+
+  DLXBlockCompiler(DLXMachine m) {
+    this.m = m;
+    this.R = m.R;
+    this.M = m.M;
+    this.blocks = new Block[m.decodedLength];
+  }
+
+  // block entered at pc, or null if step() has to execute that instruction
+  Block at(int pc) {
+    if (pc >= blocks.length) {
+      blocks = Arrays.copyOf(blocks, m.decodedLength);
+    }
+    Block block = blocks[pc];
+    if (block == null) {
+      block = compileBlock(pc);
+      blocks[pc] = block;
+    }
+    return block == NONE ? null : block;
+  }
+
+  // a store overwrote the word at idx, drop every block that covers it
+  void invalidate(int idx) {
+    for (int i = 0; i <= idx && i < blocks.length; i++) {
+      if (blocks[i] != null && blocks[i].end > idx) {
+        blocks[i] = null;
+      }
+    }
+  }
+
+  // run block, leaving PC and the instruction count of m as step() would
+  int run(Block block) throws IOException {
+    Op[] ops = block.ops;
+    int i = 0;
+    R[0] = 0;
+    try {
+      for (; i < ops.length; i++) {
+        int next = ops[i].run();
+        if (next != NEXT) {
+          exit(block, i);
+          return next;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      int pc = (i == 0 ? block.start : block.ends[i - 1]);
+      m.PC = pc;
+      m.instructionCount += pc - block.start + 1;
+      throw e;
+    }
+    exit(block, ops.length - 1);
+    return block.end;
+  }
+
+  private void exit(Block block, int i) {
+    m.instructionCount += block.ends[i] - block.start;
+    // an illegal word executed next reuses these, see DLXMachine.step()
+    int format = block.lastFormats[i];
+    m.lastFormat = format;
+    m.lastC =
+      (format == 2 ? R[block.lastOperands[i]] : block.lastOperands[i]);
+  }
+
+  private Block compileBlock(int start) {
+    int end = start;
+    boolean terminated = false;
+    while (end < m.decodedLength && compilable(end)) {
+      end++;
+      if (isTransfer(m.opcodes[end - 1])) {
+        terminated = true;
+        break;
+      }
+    }
+    // an illegal word right after the block reads the register operand of
+    // the last instruction, which must not be overwritten by it
+    if (
+      !terminated &&
+      end > start &&
+      m.formats[end - 1] == 2 &&
+      m.regA[end - 1] == m.operands[end - 1]
+    ) {
+      end--;
+    }
+    if (end == start) {
+      return NONE;
+    }
+
+    Op[] ops = new Op[end - start];
+    int[] ends = new int[end - start];
+    int size = 0;
+    for (int pc = start; pc < end;) {
+      Op op = (pc + 1 < end ? fuse(pc) : null);
+      int width = 2;
+      if (op == null) {
+        op = compile(pc);
+        width = 1;
+      }
+      pc += width;
+      ops[size] = op;
+      ends[size] = pc;
+      size++;
+    }
+
+    Block block = new Block(start, end, size);
+    for (int i = 0; i < size; i++) {
+      block.ops[i] = ops[i];
+      block.ends[i] = ends[i];
+      block.lastFormats[i] = m.formats[ends[i] - 1];
+      block.lastOperands[i] = m.operands[ends[i] - 1];
+    }
+    return block;
+  }
+
+  private static boolean isTransfer(int op) {
+    return op >= DLX.BEQ && op <= DLX.RET;
+  }
+
+  private boolean compilable(int pc) {
+    if (m.formats[pc] == 0) {
+      return false;
+    }
+    // leave branches that fail their range check to step()
+    int op = m.opcodes[pc];
+    if (op >= DLX.BEQ && op <= DLX.BSR) {
+      return inMemory(pc + m.operands[pc]);
+    } else if (op == DLX.JSR) {
+      return inMemory(m.operands[pc] / 4);
+    }
+    return true;
+  }
+
+  private boolean inMemory(int pc) {
+    return pc >= 0 && pc <= m.memoryWords;
+  }
+
+  // true if the instruction at pc writes R[0], which every instruction has to
+  // read as zero
+  private boolean writesR0(int pc) {
+    int op = m.opcodes[pc];
+    if (op == DLX.POP) {
+      return m.regA[pc] == 0 || m.regB[pc] == 0;
+    } else if (op == DLX.PSH) {
+      return m.regB[pc] == 0;
+    }
+    boolean writesA =
+      op <= DLX.ASH ||
+      (op >= DLX.ADDI && op <= DLX.ASHI) ||
+      op == DLX.LDW ||
+      op == DLX.LDX ||
+      op == DLX.RDI ||
+      op == DLX.RDF ||
+      op == DLX.RDB;
+    return writesA && m.regA[pc] == 0;
+  }
+
+  // Superinstructions ==========================================================
+
+  // fused op for the pair at pc, pc + 1, or null
+  private Op fuse(int pc) {
+    int op = m.opcodes[pc];
+    int next = m.opcodes[pc + 1];
+    if (writesR0(pc) || writesR0(pc + 1)) {
+      return null;
+    }
+    if (
+      (op == DLX.CMP || op == DLX.CMPI) && next >= DLX.BEQ && next <= DLX.BGT
+    ) {
+      if (m.regA[pc + 1] != m.regA[pc]) {
+        return null;
+      }
+      return compareAndBranch(pc);
+    }
+    if (
+      (op == DLX.LDW || op == DLX.LDX) &&
+      (next == DLX.ADD || next == DLX.ADDI)
+    ) {
+      return loadAndAdd(pc);
+    }
+    return null;
+  }
+
+  // CMP(I) a b c; Bxx a t
+  private Op compareAndBranch(int pc) {
+    final int a = m.regA[pc];
+    final int b = m.regB[pc];
+    final int c = m.operands[pc];
+    final int t = pc + 1 + m.operands[pc + 1];
+    if (m.opcodes[pc] == DLX.CMPI) {
+      switch (m.opcodes[pc + 1]) {
+        case DLX.BEQ:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) == 0 ? t : NEXT;
+            }
+          };
+        case DLX.BNE:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) != 0 ? t : NEXT;
+            }
+          };
+        case DLX.BLT:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) < 0 ? t : NEXT;
+            }
+          };
+        case DLX.BGE:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) >= 0 ? t : NEXT;
+            }
+          };
+        case DLX.BLE:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) <= 0 ? t : NEXT;
+            }
+          };
+        default:
+          return new Op() {
+            @Override
+            int run() {
+              return (R[a] = DLXMachine.cmp(R[b] - c)) > 0 ? t : NEXT;
+            }
+          };
+      }
+    }
+    switch (m.opcodes[pc + 1]) {
+      case DLX.BEQ:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) == 0 ? t : NEXT;
+          }
+        };
+      case DLX.BNE:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) != 0 ? t : NEXT;
+          }
+        };
+      case DLX.BLT:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) < 0 ? t : NEXT;
+          }
+        };
+      case DLX.BGE:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) >= 0 ? t : NEXT;
+          }
+        };
+      case DLX.BLE:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) <= 0 ? t : NEXT;
+          }
+        };
+      default:
+        return new Op() {
+          @Override
+          int run() {
+            return (R[a] = DLXMachine.cmp(R[b] - R[c])) > 0 ? t : NEXT;
+          }
+        };
+    }
+  }
+
+  // LDW/LDX a b c; ADD(I) a2 b2 c2
+  private Op loadAndAdd(int pc) {
+    final int a = m.regA[pc];
+    final int b = m.regB[pc];
+    final int c = m.operands[pc];
+    final int a2 = m.regA[pc + 1];
+    final int b2 = m.regB[pc + 1];
+    final int c2 = m.operands[pc + 1];
+    boolean indexed = m.opcodes[pc] == DLX.LDX;
+    boolean immediate = m.opcodes[pc + 1] == DLX.ADDI;
+    if (indexed && immediate) {
+      return new Op() {
+        @Override
+        int run() {
+          R[a] = M[(R[b] + R[c]) / 4];
+          R[a2] = R[b2] + c2;
+          return NEXT;
+        }
+      };
+    } else if (indexed) {
+      return new Op() {
+        @Override
+        int run() {
+          R[a] = M[(R[b] + R[c]) / 4];
+          R[a2] = R[b2] + R[c2];
+          return NEXT;
+        }
+      };
+    } else if (immediate) {
+      return new Op() {
+        @Override
+        int run() {
+          R[a] = M[(R[b] + c) / 4];
+          R[a2] = R[b2] + c2;
+          return NEXT;
+        }
+      };
+    }
+    return new Op() {
+      @Override
+      int run() {
+        R[a] = M[(R[b] + c) / 4];
+        R[a2] = R[b2] + R[c2];
+        return NEXT;
+      }
+    };
+  }
+
+  // Single Instructions ========================================================
+
+  private Op compile(int pc) {
+    Op op = compileInstruction(pc);
+    if (writesR0(pc)) {
+      final Op inner = op;
+      return new Op() {
+        @Override
+        int run() throws IOException {
+          int next = inner.run();
+          R[0] = 0;
+          return next;
+        }
+      };
+    }
+    return op;
+  }
+
+  private Op compileInstruction(int pc) {
+    final int a = m.regA[pc];
+    final int b = m.regB[pc];
+    final int c = m.operands[pc]; // register index for F2 instructions
+    final float fC = m.fOperands[pc];
+    final int next = pc + 1;
+    switch (m.opcodes[pc]) {
+      case DLX.ADD:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] + R[c];
+            return NEXT;
+          }
+        };
+      case DLX.ADDI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] + c;
+            return NEXT;
+          }
+        };
+      case DLX.SUB:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] - R[c];
+            return NEXT;
+          }
+        };
+      case DLX.SUBI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] - c;
+            return NEXT;
+          }
+        };
+      case DLX.MUL:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] * R[c];
+            return NEXT;
+          }
+        };
+      case DLX.MULI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] * c;
+            return NEXT;
+          }
+        };
+      case DLX.DIV:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] / R[c];
+            return NEXT;
+          }
+        };
+      case DLX.DIVI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] / c;
+            return NEXT;
+          }
+        };
+      case DLX.MOD:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] % R[c];
+            return NEXT;
+          }
+        };
+      case DLX.MODI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] % c;
+            return NEXT;
+          }
+        };
+      case DLX.POW:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.pow(R[b], R[c]);
+            return NEXT;
+          }
+        };
+      case DLX.POWI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.pow(R[b], c);
+            return NEXT;
+          }
+        };
+      case DLX.CMP:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = DLXMachine.cmp(R[b] - R[c]);
+            return NEXT;
+          }
+        };
+      case DLX.CMPI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = DLXMachine.cmp(R[b] - c);
+            return NEXT;
+          }
+        };
+      case DLX.fADD:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) + fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fADDI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) + fC);
+            return NEXT;
+          }
+        };
+      case DLX.fSUB:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) - fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fSUBI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) - fC);
+            return NEXT;
+          }
+        };
+      case DLX.fMUL:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) * fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fMULI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) * fC);
+            return NEXT;
+          }
+        };
+      case DLX.fDIV:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) / fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fDIVI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) / fC);
+            return NEXT;
+          }
+        };
+      case DLX.fMOD:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) % fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fMODI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = fBits(fR(b) % fC);
+            return NEXT;
+          }
+        };
+      case DLX.fCMP:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = DLXMachine.fCmp(fR(b) - fR(c));
+            return NEXT;
+          }
+        };
+      case DLX.fCMPI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = DLXMachine.fCmp(fR(b) - fC);
+            return NEXT;
+          }
+        };
+      case DLX.OR:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] | R[c];
+            return NEXT;
+          }
+        };
+      case DLX.ORI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] | c;
+            return NEXT;
+          }
+        };
+      case DLX.AND:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] & R[c];
+            return NEXT;
+          }
+        };
+      case DLX.ANDI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] & c;
+            return NEXT;
+          }
+        };
+      case DLX.BIC:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] & ~R[c];
+            return NEXT;
+          }
+        };
+      case DLX.BICI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] & ~c;
+            return NEXT;
+          }
+        };
+      case DLX.XOR:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] ^ R[c];
+            return NEXT;
+          }
+        };
+      case DLX.XORI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = R[b] ^ c;
+            return NEXT;
+          }
+        };
+      case DLX.LSH:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.lsh(R[b], R[c]);
+            return NEXT;
+          }
+        };
+      case DLX.LSHI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.lsh(R[b], c);
+            return NEXT;
+          }
+        };
+      case DLX.ASH:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.ash(R[b], R[c]);
+            return NEXT;
+          }
+        };
+      case DLX.ASHI:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = m.ash(R[b], c);
+            return NEXT;
+          }
+        };
+      case DLX.CHK:
+        return new Op() {
+          @Override
+          int run() {
+            m.chk(pc, a, R[a], R[c]);
+            return NEXT;
+          }
+        };
+      case DLX.CHKI:
+        return new Op() {
+          @Override
+          int run() {
+            m.chk(pc, a, R[a], c);
+            return NEXT;
+          }
+        };
+      case DLX.LDW:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = M[(R[b] + c) / 4];
+            return NEXT;
+          }
+        };
+      case DLX.LDX:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = M[(R[b] + R[c]) / 4];
+            return NEXT;
+          }
+        };
+      case DLX.POP:
+        return new Op() {
+          @Override
+          int run() {
+            R[a] = M[R[b] / 4];
+            R[b] = R[b] + c;
+            return NEXT;
+          }
+        };
+      // a store into code ends the block, so the next one sees the new code
+      case DLX.STW:
+        return new Op() {
+          @Override
+          int run() {
+            return m.store((R[b] + c) / 4, R[a]) ? next : NEXT;
+          }
+        };
+      case DLX.STX:
+        return new Op() {
+          @Override
+          int run() {
+            return m.store((R[b] + R[c]) / 4, R[a]) ? next : NEXT;
+          }
+        };
+      case DLX.PSH:
+        return new Op() {
+          @Override
+          int run() {
+            R[b] = R[b] + c;
+            return m.store(R[b] / 4, R[a]) ? next : NEXT;
+          }
+        };
+      case DLX.ARRCPY:
+        return new Op() {
+          @Override
+          int run() {
+            return m.copy(R[a], R[b], R[c]) ? next : NEXT;
+          }
+        };
+      // branch targets are range checked in compilable()
+      case DLX.BEQ:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] == 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BNE:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] != 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BLT:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] < 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BGE:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] >= 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BLE:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] <= 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BGT:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              return R[a] > 0 ? t : NEXT;
+            }
+          };
+        }
+      case DLX.BSR:
+        {
+          final int t = pc + c;
+          return new Op() {
+            @Override
+            int run() {
+              R[31] = 4 * next;
+              return t;
+            }
+          };
+        }
+      case DLX.JSR:
+        {
+          final int t = c / 4;
+          return new Op() {
+            @Override
+            int run() {
+              R[31] = 4 * next;
+              return t;
+            }
+          };
+        }
+      case DLX.RET:
+        if (c == 0) {
+          return new Op() {
+            @Override
+            int run() {
+              return HALT;
+            }
+          };
+        }
+        return new Op() {
+          @Override
+          int run() {
+            int t = R[c] / 4;
+            m.checkJump(t, 55);
+            return t;
+          }
+        };
+      case DLX.RDI:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            R[a] = m.readInt();
+            return NEXT;
+          }
+        };
+      case DLX.RDF:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            R[a] = fBits(m.readFloat());
+            return NEXT;
+          }
+        };
+      case DLX.RDB:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            R[a] = m.readBool();
+            return NEXT;
+          }
+        };
+      case DLX.WRI:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            m.writeInt(R[b]);
+            return NEXT;
+          }
+        };
+      case DLX.WRF:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            m.writeFloat(fR(b));
+            return NEXT;
+          }
+        };
+      case DLX.WRB:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            m.writeBool(R[b]);
+            return NEXT;
+          }
+        };
+      case DLX.WRL:
+        return new Op() {
+          @Override
+          int run() throws IOException {
+            m.writeLine();
+            return NEXT;
+          }
+        };
+      default:
+        throw new IllegalStateException("not compilable: " + m.opcodes[pc]);
+    }
+  }
+
+  private float fR(int idx) {
+    return Float.intBitsToFloat(R[idx]);
+  }
+
+  private static int fBits(float val) {
+    return Float.floatToIntBits(val);
+  }
+}
@@ -0,0 +1,304 @@
+package pl434;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+// Default DLXChannel over streams. Values are formatted straight into an
+// output buffer, and input is tokenized in place in a large read buffer, so
+// the common path creates no Strings. Output prints as print(value + " ")
+// and printf("%.2f ") did, input tokens split like StringTokenizer per line.
+// Unusual tokens fall back to the parse methods of Integer and Float.
+public class DLXBufferedChannel implements DLXChannel {
+
+  private static final byte[] INT_PROMPT = ascii("int? ");
+  private static final byte[] FLOAT_PROMPT = ascii("float? ");
+  private static final byte[] BOOL_PROMPT = ascii("true or false? ");
+  private static final byte[] TRUE = ascii("true ");
+  private static final byte[] FALSE = ascii("false ");
+  private static final byte[] LINE = ascii(System.lineSeparator());
+
+  private final InputStream in;
+  private final PrintStream out;
+  private final PrintStream err;
+  private final boolean prompts;
+  // decimal separator of %.2f, 0 if the locale needs Formatter
+  private final byte decimalSeparator;
+
+  // Output =====================================================================
+  private final byte[] outBuf = new byte[8192];
+  private int outLen = 0;
+
+  // Input ======================================================================
+  private byte[] inBuf = new byte[1 << 16];
+  private int inPos = 0;
+  private int inLen = 0;
+  private boolean eof = false;
+  private int tokenStart;
+  private int tokenEnd;
+  private int scanLine = 0; // line terminators seen so far
+  private boolean afterCR = false;
+  private int line = -1; // line of the last token
+
+  // prompts print "int? " and the like before each read, off for batch runs
+  public DLXBufferedChannel(
+    InputStream in,
+    PrintStream out,
+    PrintStream err,
+    boolean prompts
+  ) {
+    this.in = in;
+    this.out = out;
+    this.err = err;
+    this.prompts = prompts;
+    DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(
+      Locale.getDefault(Locale.Category.FORMAT)
+    );
+    char separator = symbols.getDecimalSeparator();
+    this.decimalSeparator = symbols.getZeroDigit() == '0' && separator < 0x80
+      ? (byte) separator
+      : 0;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    prompt(INT_PROMPT);
+    nextToken();
+    int value = parseDigits();
+    return value != Integer.MIN_VALUE ? value : Integer.parseInt(token());
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    prompt(FLOAT_PROMPT);
+    nextToken();
+    // integers below 2^24 convert exactly, -0 keeps its sign
+    if (tokenEnd - tokenStart <= 8) {
+      int value = parseDigits();
+      if (value != Integer.MIN_VALUE && Math.abs(value) < 1 << 24) {
+        float f = Math.abs(value);
+        return inBuf[tokenStart] == '-' ? -f : f;
+      }
+    }
+    return Float.parseFloat(token());
+  }
+
+  @Override
+  public boolean readBool() throws IOException {
+    prompt(BOOL_PROMPT);
+    nextToken();
+    // Boolean.parseBoolean without the String
+    return (
+      tokenEnd - tokenStart == 4 &&
+      (inBuf[tokenStart] | 0x20) == 't' &&
+      (inBuf[tokenStart + 1] | 0x20) == 'r' &&
+      (inBuf[tokenStart + 2] | 0x20) == 'u' &&
+      (inBuf[tokenStart + 3] | 0x20) == 'e'
+    );
+  }
+
+  @Override
+  public void writeInt(int value) throws IOException {
+    reserve(12);
+    if (value == Integer.MIN_VALUE) {
+      put(ascii("-2147483648 "));
+      return;
+    }
+    if (value < 0) {
+      outBuf[outLen++] = '-';
+      value = -value;
+    }
+    putDigits(value);
+    outBuf[outLen++] = ' ';
+  }
+
+  // printf("%.2f ", value), which rounds the shortest decimal of the value
+  // half up. Floats never lie close enough to a boundary for the rounding of
+  // value * 100 to differ, so that can round instead.
+  @Override
+  public void writeFloat(float value) throws IOException {
+    double abs = Math.abs((double) value);
+    if (decimalSeparator == 0 || !(abs < 1e13)) {
+      putString(String.format("%.2f ", value));
+      return;
+    }
+    long cents = Math.round(abs * 100);
+    reserve(24);
+    if (Float.floatToRawIntBits(value) < 0) {
+      outBuf[outLen++] = '-';
+    }
+    putDigits(cents / 100);
+    outBuf[outLen++] = decimalSeparator;
+    outBuf[outLen++] = (byte) ('0' + cents % 100 / 10);
+    outBuf[outLen++] = (byte) ('0' + cents % 10);
+    outBuf[outLen++] = ' ';
+  }
+
+  @Override
+  public void writeBool(boolean value) throws IOException {
+    put(value ? TRUE : FALSE);
+  }
+
+  @Override
+  public void writeLine() throws IOException {
+    put(LINE);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  @Override
+  public int inputLine() {
+    return line;
+  }
+
+  // Output Buffer ==============================================================
+
+  private void prompt(byte[] text) throws IOException {
+    if (prompts) {
+      put(text);
+    }
+  }
+
+  private void reserve(int n) {
+    if (outLen + n > outBuf.length) {
+      drain();
+    }
+  }
+
+  private void put(byte[] bytes) {
+    reserve(bytes.length);
+    System.arraycopy(bytes, 0, outBuf, outLen, bytes.length);
+    outLen += bytes.length;
+  }
+
+  // text the PrintStream has to encode
+  private void putString(String s) {
+    drain();
+    out.print(s);
+  }
+
+  private void putDigits(long value) {
+    int end = outLen + digits(value);
+    int at = end;
+    do {
+      outBuf[--at] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    outLen = end;
+  }
+
+  private static int digits(long value) {
+    int n = 1;
+    while (value >= 10) {
+      value /= 10;
+      n++;
+    }
+    return n;
+  }
+
+  private void drain() {
+    out.write(outBuf, 0, outLen);
+    outLen = 0;
+  }
+
+  // Tokenizer ==================================================================
+
+  // whitespace of StringTokenizer and line ends of BufferedReader.readLine()
+  private static boolean isDelimiter(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+
+  // next token into inBuf[tokenStart, tokenEnd)
+  private void nextToken() throws IOException {
+    while (true) {
+      if (inPos == inLen && !fill(inPos)) {
+        throw new NoSuchElementException("end of input");
+      }
+      byte b = inBuf[inPos];
+      if (!isDelimiter(b)) {
+        break;
+      }
+      if (b == '\r' || (b == '\n' && !afterCR)) {
+        scanLine++;
+      }
+      afterCR = b == '\r';
+      inPos++;
+    }
+    afterCR = false;
+    line = scanLine;
+    tokenStart = inPos;
+    while ((inPos < inLen || fill(tokenStart)) && !isDelimiter(inBuf[inPos])) {
+      inPos++;
+    }
+    tokenEnd = inPos;
+  }
+
+  // read more input, keeping inBuf[keep, inLen), false at the end of input
+  private boolean fill(int keep) throws IOException {
+    flush(); // prompts and output show before waiting for input
+    if (eof) {
+      return false;
+    }
+    int kept = inLen - keep;
+    if (keep == 0 && kept == inBuf.length) {
+      inBuf = Arrays.copyOf(inBuf, 2 * inBuf.length);
+    } else {
+      System.arraycopy(inBuf, keep, inBuf, 0, kept);
+    }
+    tokenStart -= keep;
+    inPos -= keep;
+    inLen = kept;
+    int n;
+    try {
+      n = in.read(inBuf, inLen, inBuf.length - inLen);
+    } catch (IOException e) {
+      putString("error" + System.lineSeparator());
+      err.println("Interepter: Couldn't read data file");
+      throw e;
+    }
+    if (n < 0) {
+      eof = true;
+      return false;
+    }
+    inLen += n;
+    return true;
+  }
+
+  // value of a token of at most 9 plain digits after an optional sign,
+  // Integer.MIN_VALUE for anything else
+  private int parseDigits() {
+    int i = tokenStart;
+    if (inBuf[i] == '-' || inBuf[i] == '+') {
+      i++;
+    }
+    if (i == tokenEnd || tokenEnd - i > 9) {
+      return Integer.MIN_VALUE;
+    }
+    int value = 0;
+    for (; i < tokenEnd; i++) {
+      int digit = inBuf[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Integer.MIN_VALUE;
+      }
+      value = 10 * value + digit;
+    }
+    return inBuf[tokenStart] == '-' ? -value : value;
+  }
+
+  private String token() {
+    return new String(inBuf, tokenStart, tokenEnd - tokenStart);
+  }
+}
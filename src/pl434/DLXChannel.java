@@ -0,0 +1,28 @@
+package pl434;
+
+import java.io.IOException;
+
+// Input and output of the RDx and WRx instructions. DLXMachine.execute()
+// reads and writes only through its channel, so programs can be fed from and
+// print to anything. DLXBufferedChannel is the default over streams.
+public interface DLXChannel {
+  int readInt() throws IOException;
+
+  float readFloat() throws IOException;
+
+  boolean readBool() throws IOException;
+
+  void writeInt(int value) throws IOException;
+
+  void writeFloat(float value) throws IOException;
+
+  void writeBool(boolean value) throws IOException;
+
+  void writeLine() throws IOException;
+
+  // push buffered output through, called when a run ends or stops
+  void flush() throws IOException;
+
+  // line of input of the last value read, counting from 0, for error reports
+  int inputLine();
+}
@@ -0,0 +1,800 @@
+package pl434;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+// JIT tier for DLXMachine. A loaded program is translated to JVM bytecode and
+// defined as hidden classes, so HotSpot compiles the guest program itself.
+// Registers live in JVM locals and M is the machine's int[]. Code is split
+// into regions of about REGION_SIZE instructions, one class and method each,
+// to stay below HotSpot's limit for compiling huge methods. Inside a region
+// branches are plain jumps, those going back checking for an interrupt
+// first, and RET goes through a tableswitch over the region's entry points.
+// Anything else leaves the generated code with the next PC, and DLXMachine
+// carries on in the block tier or step(), which also handles illegal words
+// and branches that fail their range check.
+class DLXJit {
+
+  // generated code of one region, returns the next PC or HALT
+  interface Code {
+    int run(DLXMachine m, int[] R, int[] M, int pc) throws IOException;
+  }
+
+  static final int HALT = DLXBlockCompiler.HALT;
+  private static final int REGION_SIZE = 128;
+
+  private final DLXMachine m;
+  private final Code[] regions;
+  private final int[] regionOf; // region entered at pc, or -1
+
+  private DLXJit(DLXMachine m, Code[] regions, int[] regionOf) {
+    this.m = m;
+    this.regions = regions;
+    this.regionOf = regionOf;
+  }
+
+  boolean isEntry(int pc) {
+    return pc < regionOf.length && regionOf[pc] >= 0;
+  }
+
+  int run(int pc) throws IOException {
+    return regions[regionOf[pc]].run(m, m.R, m.M, pc);
+  }
+
+  // the same code for another machine with the same program, generated
+  // code keeps no state of its own
+  DLXJit forMachine(DLXMachine m) {
+    return new DLXJit(m, regions, regionOf);
+  }
+
+  // translate the predecoded program of m
+  static DLXJit compile(DLXMachine m) {
+    int n = m.decodedLength;
+    boolean[] compilable = new boolean[n];
+    boolean[] leader = new boolean[n + 1];
+    leader[0] = true;
+    for (int pc = 0; pc < n; pc++) {
+      compilable[pc] = compilable(m, pc);
+      int op = m.opcodes[pc];
+      if (!compilable[pc] || isTransfer(op)) {
+        leader[pc + 1] = true;
+      }
+      if (compilable[pc] && op >= DLX.BEQ && op <= DLX.JSR) {
+        int target = target(m, pc);
+        if (target < n) {
+          leader[target] = true;
+        }
+      }
+    }
+
+    List<Code> regions = new ArrayList<>();
+    int[] regionOf = new int[n];
+    int start = 0;
+    for (int pc = 1; pc <= n; pc++) {
+      if (pc == n || (leader[pc] && pc - start >= REGION_SIZE)) {
+        Region region = new Region(m, start, pc, compilable, leader);
+        for (int i = start; i < pc; i++) {
+          regionOf[i] = region.isEntry(i) ? regions.size() : -1;
+        }
+        regions.add(region.define());
+        start = pc;
+      }
+    }
+    return new DLXJit(m, regions.toArray(new Code[0]), regionOf);
+  }
+
+  private static boolean isTransfer(int op) {
+    return op >= DLX.BEQ && op <= DLX.RET;
+  }
+
+  // static target of a branch or call at pc
+  private static int target(DLXMachine m, int pc) {
+    if (m.opcodes[pc] == DLX.JSR) {
+      return m.operands[pc] / 4;
+    }
+    return pc + m.operands[pc];
+  }
+
+  // illegal words and branches that fail their range check are left to step()
+  private static boolean compilable(DLXMachine m, int pc) {
+    if (m.formats[pc] == 0) {
+      return false;
+    }
+    int op = m.opcodes[pc];
+    if (op >= DLX.BEQ && op <= DLX.JSR) {
+      int target = target(m, pc);
+      return target >= 0 && target <= m.memoryWords;
+    }
+    return true;
+  }
+
+  // Translation ================================================================
+  private static final class Region {
+
+    private static final String SELF = "pl434/DLXJitRegion";
+    private static final String MACHINE = "pl434/DLXMachine";
+
+    // local variable slots
+    private static final int THIS = 0;
+    private static final int MACHINE_ = 1;
+    private static final int REGS = 2;
+    private static final int MEM = 3;
+    private static final int PC = 4;
+    private static final int R1 = 5; // R[r] lives in R1 - 1 + r
+    private static final int COUNT = 36; // long
+    private static final int TEMP = 38;
+    private static final int SAVED_C = 39;
+    private static final int ADJUST = 40;
+    private static final int EXCEPTION = 41;
+
+    private final DLXMachine m;
+    private final int start;
+    private final int end;
+    private final boolean[] compilable;
+    private final boolean[] leader;
+    private final boolean[] used = new boolean[32];
+
+    private final ClassAssembler asm = new ClassAssembler();
+    private final ClassAssembler.Label[] labels;
+    private final ClassAssembler.Label dispatch = new ClassAssembler.Label();
+    private final ClassAssembler.Label exit = new ClassAssembler.Label();
+    private final ClassAssembler.Label rethrow = new ClassAssembler.Label();
+    private final List<Runnable> stubs = new ArrayList<>();
+    private final int throwable;
+
+    Region(
+      DLXMachine m,
+      int start,
+      int end,
+      boolean[] compilable,
+      boolean[] leader
+    ) {
+      this.m = m;
+      this.start = start;
+      this.end = end;
+      this.compilable = compilable;
+      this.leader = leader;
+      this.labels = new ClassAssembler.Label[end - start];
+      for (int pc = start; pc < end; pc++) {
+        if (isEntry(pc)) {
+          labels[pc - start] = new ClassAssembler.Label();
+        }
+        if (compilable[pc]) {
+          used[m.regA[pc] & 31] = true;
+          used[m.regB[pc] & 31] = true;
+          if (m.formats[pc] == 2) {
+            used[m.operands[pc]] = true;
+          }
+        }
+      }
+      used[31] = true;
+      used[0] = false; // R[0] always reads as zero
+
+      // frame locals, the long counter takes one entry for two slots
+      int[] locals = new int[COUNT + 4];
+      locals[THIS] = ClassAssembler.OBJECT | asm.classRef(SELF);
+      locals[MACHINE_] = ClassAssembler.OBJECT | asm.classRef(MACHINE);
+      locals[REGS] = ClassAssembler.OBJECT | asm.classRef("[I");
+      locals[MEM] = ClassAssembler.OBJECT | asm.classRef("[I");
+      locals[PC] = ClassAssembler.INT;
+      for (int r = 1; r < 32; r++) {
+        locals[R1 - 1 + r] = used[r] ? ClassAssembler.INT : ClassAssembler.TOP;
+      }
+      locals[COUNT] = ClassAssembler.LONG; // covers COUNT + 1
+      locals[COUNT + 1] = ClassAssembler.INT; // TEMP
+      locals[COUNT + 2] = ClassAssembler.INT; // SAVED_C
+      locals[COUNT + 3] = ClassAssembler.INT; // ADJUST
+      asm.setLocals(locals, EXCEPTION + 1);
+      throwable = ClassAssembler.OBJECT | asm.classRef("java/lang/Throwable");
+    }
+
+    boolean isEntry(int pc) {
+      return compilable[pc] && leader[pc];
+    }
+
+    Code define() {
+      translate();
+      byte[] bytes = asm.toClass(
+        SELF,
+        "pl434/DLXJit$Code",
+        "run",
+        "(L" + MACHINE + ";[I[II)I",
+        8
+      );
+      try {
+        return (Code) MethodHandles
+          .lookup()
+          .defineHiddenClass(bytes, true)
+          .lookupClass()
+          .getDeclaredConstructor()
+          .newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private void translate() {
+      for (int r = 1; r < 32; r++) {
+        if (used[r]) {
+          asm.local(ClassAssembler.ALOAD, REGS);
+          asm.pushInt(r);
+          asm.op(ClassAssembler.IALOAD);
+          asm.local(ClassAssembler.ISTORE, R1 - 1 + r);
+        }
+      }
+      asm.op(ClassAssembler.LCONST_0);
+      asm.local(ClassAssembler.LSTORE, COUNT);
+      for (int slot = TEMP; slot <= ADJUST; slot++) {
+        asm.op(ClassAssembler.ICONST_0);
+        asm.local(ClassAssembler.ISTORE, slot);
+      }
+
+      // entry and RET dispatch, a RET to anything else leaves the region
+      ClassAssembler.Label other = new ClassAssembler.Label();
+      asm.bind(dispatch);
+      asm.local(ClassAssembler.ILOAD, PC);
+      ClassAssembler.Label[] targets = new ClassAssembler.Label[end - start];
+      for (int pc = start; pc < end; pc++) {
+        targets[pc - start] = isEntry(pc) ? labels[pc - start] : other;
+      }
+      asm.tableswitch(start, other, targets);
+      stubs.add(() -> {
+        asm.bind(other);
+        setLast(2, () -> asm.local(ClassAssembler.ILOAD, SAVED_C));
+        asm.local(ClassAssembler.ILOAD, PC);
+        asm.op(ClassAssembler.ICONST_0);
+        asm.jump(ClassAssembler.GOTO, exit);
+      });
+
+      int pc = start;
+      while (pc < end) {
+        if (!compilable[pc]) {
+          pc++;
+          continue;
+        }
+        int blockEnd = pc + 1;
+        while (
+          blockEnd < end &&
+          !isTransfer(m.opcodes[blockEnd - 1]) &&
+          compilable[blockEnd] &&
+          !leader[blockEnd]
+        ) {
+          blockEnd++;
+        }
+        translateBlock(pc, blockEnd);
+        pc = blockEnd;
+      }
+
+      for (int i = 0; i < stubs.size(); i++) {
+        stubs.get(i).run();
+      }
+      translateExit();
+      translateRethrow();
+    }
+
+    private void translateBlock(int from, int to) {
+      asm.bind(labels[from - start]);
+      asm.local(ClassAssembler.LLOAD, COUNT);
+      asm.pushLong(to - from);
+      asm.op(ClassAssembler.LADD);
+      asm.local(ClassAssembler.LSTORE, COUNT);
+
+      for (int pc = from; pc < to; pc++) {
+        // the block may fall through into a word this region does not compile
+        int op = m.opcodes[pc];
+        Runnable lastC = null;
+        if (
+          pc == to - 1 &&
+          op != DLX.BSR &&
+          op != DLX.JSR &&
+          op != DLX.RET &&
+          !(pc + 1 < end && isEntry(pc + 1))
+        ) {
+          lastC = operandOf(pc, true);
+        }
+
+        int codeStart = asm.position();
+        translateInstruction(pc, to);
+        // exceptions leave with PC and registers as step() would
+        final int failedPC = pc;
+        ClassAssembler.Label handler = new ClassAssembler.Label();
+        asm.handler(codeStart, asm.position(), handler);
+        stubs.add(() -> {
+          asm.bind(handler, throwable);
+          asm.pushInt(failedPC);
+          asm.pushInt(to - failedPC - 1);
+          asm.jump(ClassAssembler.GOTO, rethrow);
+        });
+
+        if (lastC != null) {
+          jump(ClassAssembler.GOTO, pc + 1, m.formats[pc], lastC);
+        }
+      }
+    }
+
+    // c as the next illegal word sees it, saveFirst copies a register operand
+    // before the instruction can overwrite it
+    private Runnable operandOf(int pc, boolean saveFirst) {
+      int c = m.operands[pc];
+      if (m.formats[pc] != 2) {
+        return () -> asm.pushInt(c);
+      }
+      if (saveFirst && m.regA[pc] == c) {
+        read(c);
+        asm.local(ClassAssembler.ISTORE, SAVED_C);
+        return () -> asm.local(ClassAssembler.ILOAD, SAVED_C);
+      }
+      return () -> read(c);
+    }
+
+    // jump to target, through an exit stub if it is not compiled here
+    private void jump(int opcode, int target, int format, Runnable lastC) {
+      if (target >= start && target < end && isEntry(target)) {
+        asm.jump(opcode, labels[target - start]);
+        return;
+      }
+      ClassAssembler.Label stub = new ClassAssembler.Label();
+      asm.jump(opcode, stub);
+      stubs.add(() -> {
+        asm.bind(stub);
+        setLast(format, lastC);
+        asm.pushInt(target);
+        asm.op(ClassAssembler.ICONST_0);
+        asm.jump(ClassAssembler.GOTO, exit);
+      });
+    }
+
+    // leave with the format and c an illegal word executed next reuses
+    private void setLast(int format, Runnable lastC) {
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      asm.pushInt(format);
+      asm.ref(
+        ClassAssembler.PUTFIELD,
+        asm.fieldRef(MACHINE, "lastFormat", "I")
+      );
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      lastC.run();
+      asm.ref(ClassAssembler.PUTFIELD, asm.fieldRef(MACHINE, "lastC", "I"));
+    }
+
+    // [next pc, instructions not executed] -> return next pc
+    private void translateExit() {
+      asm.bind(exit, ClassAssembler.INT, ClassAssembler.INT);
+      asm.local(ClassAssembler.ISTORE, ADJUST);
+      asm.local(ClassAssembler.ISTORE, PC);
+      writeBack();
+      asm.local(ClassAssembler.ILOAD, PC);
+      asm.op(ClassAssembler.IRETURN);
+    }
+
+    // [exception, failed pc, instructions not executed] -> rethrow
+    private void translateRethrow() {
+      asm.bind(
+        rethrow,
+        throwable,
+        ClassAssembler.INT,
+        ClassAssembler.INT
+      );
+      asm.local(ClassAssembler.ISTORE, ADJUST);
+      asm.local(ClassAssembler.ISTORE, PC);
+      asm.local(ClassAssembler.ASTORE, EXCEPTION);
+      writeBack();
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      asm.local(ClassAssembler.ILOAD, PC);
+      asm.ref(ClassAssembler.PUTFIELD, asm.fieldRef(MACHINE, "PC", "I"));
+      asm.local(ClassAssembler.ALOAD, EXCEPTION);
+      asm.op(ClassAssembler.ATHROW);
+    }
+
+    // store registers and the instruction count back into the machine
+    private void writeBack() {
+      for (int r = 1; r < 32; r++) {
+        if (used[r]) {
+          asm.local(ClassAssembler.ALOAD, REGS);
+          asm.pushInt(r);
+          asm.local(ClassAssembler.ILOAD, R1 - 1 + r);
+          asm.op(ClassAssembler.IASTORE);
+        }
+      }
+      int count = asm.fieldRef(MACHINE, "instructionCount", "J");
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      asm.op(ClassAssembler.DUP);
+      asm.ref(ClassAssembler.GETFIELD, count);
+      asm.local(ClassAssembler.LLOAD, COUNT);
+      asm.op(ClassAssembler.LADD);
+      asm.local(ClassAssembler.ILOAD, ADJUST);
+      asm.op(ClassAssembler.I2L);
+      asm.op(ClassAssembler.LSUB);
+      asm.ref(ClassAssembler.PUTFIELD, count);
+    }
+
+    // Instructions =============================================================
+
+    private void read(int r) {
+      if (r == 0) {
+        asm.op(ClassAssembler.ICONST_0);
+      } else {
+        asm.local(ClassAssembler.ILOAD, R1 - 1 + r);
+      }
+    }
+
+    private void write(int r) {
+      if (r == 0) {
+        asm.op(ClassAssembler.POP);
+      } else {
+        asm.local(ClassAssembler.ISTORE, R1 - 1 + r);
+      }
+    }
+
+    // c, or R[c] for F2 instructions
+    private void operand(int pc) {
+      if (m.formats[pc] == 2) {
+        read(m.operands[pc]);
+      } else {
+        asm.pushInt(m.operands[pc]);
+      }
+    }
+
+    private void floatOperand(int pc) {
+      if (m.formats[pc] == 2) {
+        read(m.operands[pc]);
+        toFloat();
+      } else {
+        asm.pushFloat(m.fOperands[pc]);
+      }
+    }
+
+    private void toFloat() {
+      asm.ref(
+        ClassAssembler.INVOKESTATIC,
+        asm.methodRef("java/lang/Float", "intBitsToFloat", "(I)F")
+      );
+    }
+
+    private void fromFloat() {
+      asm.ref(
+        ClassAssembler.INVOKESTATIC,
+        asm.methodRef("java/lang/Float", "floatToIntBits", "(F)I")
+      );
+    }
+
+    private void callMachine(String name, String descriptor) {
+      asm.ref(
+        ClassAssembler.INVOKEVIRTUAL,
+        asm.methodRef(MACHINE, name, descriptor)
+      );
+    }
+
+    private void intOp(int pc, int opcode) {
+      read(m.regB[pc]);
+      operand(pc);
+      asm.op(opcode);
+      write(m.regA[pc]);
+    }
+
+    private void floatOp(int pc, int opcode) {
+      read(m.regB[pc]);
+      toFloat();
+      floatOperand(pc);
+      asm.op(opcode);
+      fromFloat();
+      write(m.regA[pc]);
+    }
+
+    private void machineOp(int pc, String name) {
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      read(m.regB[pc]);
+      operand(pc);
+      callMachine(name, "(II)I");
+      write(m.regA[pc]);
+    }
+
+    // branch to pc + 1 and leave the region if a store overwrote code
+    private void leaveIfCode(int pc, int blockEnd) {
+      ClassAssembler.Label stub = new ClassAssembler.Label();
+      asm.jump(ClassAssembler.IFNE, stub);
+      Runnable lastC = operandOf(pc, false);
+      stubs.add(() -> {
+        asm.bind(stub);
+        setLast(m.formats[pc], lastC);
+        asm.pushInt(pc + 1);
+        asm.pushInt(blockEnd - pc - 1);
+        asm.jump(ClassAssembler.GOTO, exit);
+      });
+    }
+
+    private void translateInstruction(int pc, int blockEnd) {
+      int a = m.regA[pc];
+      int b = m.regB[pc];
+      int c = m.operands[pc];
+      switch (m.opcodes[pc]) {
+        case DLX.ADD:
+        case DLX.ADDI:
+          intOp(pc, ClassAssembler.IADD);
+          break;
+        case DLX.SUB:
+        case DLX.SUBI:
+          intOp(pc, ClassAssembler.ISUB);
+          break;
+        case DLX.MUL:
+        case DLX.MULI:
+          intOp(pc, ClassAssembler.IMUL);
+          break;
+        case DLX.DIV:
+        case DLX.DIVI:
+          intOp(pc, ClassAssembler.IDIV);
+          break;
+        case DLX.MOD:
+        case DLX.MODI:
+          intOp(pc, ClassAssembler.IREM);
+          break;
+        case DLX.OR:
+        case DLX.ORI:
+          intOp(pc, ClassAssembler.IOR);
+          break;
+        case DLX.AND:
+        case DLX.ANDI:
+          intOp(pc, ClassAssembler.IAND);
+          break;
+        case DLX.XOR:
+        case DLX.XORI:
+          intOp(pc, ClassAssembler.IXOR);
+          break;
+        case DLX.BIC:
+        case DLX.BICI:
+          read(b);
+          operand(pc);
+          asm.op(ClassAssembler.ICONST_M1);
+          asm.op(ClassAssembler.IXOR);
+          asm.op(ClassAssembler.IAND);
+          write(a);
+          break;
+        case DLX.CMP:
+        case DLX.CMPI:
+          read(b);
+          operand(pc);
+          asm.op(ClassAssembler.ISUB);
+          asm.ref(
+            ClassAssembler.INVOKESTATIC,
+            asm.methodRef(MACHINE, "cmp", "(I)I")
+          );
+          write(a);
+          break;
+        case DLX.POW:
+        case DLX.POWI:
+          machineOp(pc, "pow");
+          break;
+        case DLX.LSH:
+        case DLX.LSHI:
+          machineOp(pc, "lsh");
+          break;
+        case DLX.ASH:
+        case DLX.ASHI:
+          machineOp(pc, "ash");
+          break;
+        case DLX.fADD:
+        case DLX.fADDI:
+          floatOp(pc, ClassAssembler.FADD);
+          break;
+        case DLX.fSUB:
+        case DLX.fSUBI:
+          floatOp(pc, ClassAssembler.FSUB);
+          break;
+        case DLX.fMUL:
+        case DLX.fMULI:
+          floatOp(pc, ClassAssembler.FMUL);
+          break;
+        case DLX.fDIV:
+        case DLX.fDIVI:
+          floatOp(pc, ClassAssembler.FDIV);
+          break;
+        case DLX.fMOD:
+        case DLX.fMODI:
+          floatOp(pc, ClassAssembler.FREM);
+          break;
+        case DLX.fCMP:
+        case DLX.fCMPI:
+          read(b);
+          toFloat();
+          floatOperand(pc);
+          asm.op(ClassAssembler.FSUB);
+          asm.ref(
+            ClassAssembler.INVOKESTATIC,
+            asm.methodRef(MACHINE, "fCmp", "(F)I")
+          );
+          write(a);
+          break;
+        case DLX.CHK:
+        case DLX.CHKI:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          asm.pushInt(pc);
+          asm.pushInt(a);
+          read(a);
+          operand(pc);
+          callMachine("chk", "(IIII)V");
+          break;
+        case DLX.LDW:
+        case DLX.LDX:
+          asm.local(ClassAssembler.ALOAD, MEM);
+          read(b);
+          operand(pc);
+          asm.op(ClassAssembler.IADD);
+          asm.pushInt(4);
+          asm.op(ClassAssembler.IDIV);
+          asm.op(ClassAssembler.IALOAD);
+          write(a);
+          break;
+        case DLX.POP:
+          asm.local(ClassAssembler.ALOAD, MEM);
+          read(b);
+          asm.pushInt(4);
+          asm.op(ClassAssembler.IDIV);
+          asm.op(ClassAssembler.IALOAD);
+          write(a);
+          read(b);
+          asm.pushInt(c);
+          asm.op(ClassAssembler.IADD);
+          write(b);
+          break;
+        case DLX.STW:
+        case DLX.STX:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          read(b);
+          operand(pc);
+          asm.op(ClassAssembler.IADD);
+          asm.pushInt(4);
+          asm.op(ClassAssembler.IDIV);
+          read(a);
+          callMachine("store", "(II)Z");
+          leaveIfCode(pc, blockEnd);
+          break;
+        case DLX.PSH:
+          // the stored address and value see the updated R[b], even R[0]
+          read(b);
+          asm.pushInt(c);
+          asm.op(ClassAssembler.IADD);
+          asm.local(ClassAssembler.ISTORE, TEMP);
+          if (b != 0) {
+            asm.local(ClassAssembler.ILOAD, TEMP);
+            write(b);
+          }
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          asm.local(ClassAssembler.ILOAD, TEMP);
+          asm.pushInt(4);
+          asm.op(ClassAssembler.IDIV);
+          if (a == b) {
+            asm.local(ClassAssembler.ILOAD, TEMP);
+          } else {
+            read(a);
+          }
+          callMachine("store", "(II)Z");
+          leaveIfCode(pc, blockEnd);
+          break;
+        case DLX.ARRCPY:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          read(a);
+          read(b);
+          operand(pc);
+          callMachine("copy", "(III)Z");
+          leaveIfCode(pc, blockEnd);
+          break;
+        case DLX.BEQ:
+          branch(pc, ClassAssembler.IFEQ);
+          break;
+        case DLX.BNE:
+          branch(pc, ClassAssembler.IFNE);
+          break;
+        case DLX.BLT:
+          branch(pc, ClassAssembler.IFLT);
+          break;
+        case DLX.BGE:
+          branch(pc, ClassAssembler.IFGE);
+          break;
+        case DLX.BLE:
+          branch(pc, ClassAssembler.IFLE);
+          break;
+        case DLX.BGT:
+          branch(pc, ClassAssembler.IFGT);
+          break;
+        case DLX.BSR:
+        case DLX.JSR:
+          poll(pc);
+          asm.pushInt(4 * (pc + 1));
+          write(31);
+          jump(
+            ClassAssembler.GOTO,
+            target(m, pc),
+            m.formats[pc],
+            () -> asm.pushInt(c)
+          );
+          break;
+        case DLX.RET:
+          translateReturn(c);
+          break;
+        case DLX.RDI:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          callMachine("readInt", "()I");
+          write(a);
+          break;
+        case DLX.RDF:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          callMachine("readFloat", "()F");
+          fromFloat();
+          write(a);
+          break;
+        case DLX.RDB:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          callMachine("readBool", "()I");
+          write(a);
+          break;
+        case DLX.WRI:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          read(b);
+          callMachine("writeInt", "(I)V");
+          break;
+        case DLX.WRF:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          read(b);
+          toFloat();
+          callMachine("writeFloat", "(F)V");
+          break;
+        case DLX.WRB:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          read(b);
+          callMachine("writeBool", "(I)V");
+          break;
+        case DLX.WRL:
+          asm.local(ClassAssembler.ALOAD, MACHINE_);
+          callMachine("writeLine", "()V");
+          break;
+        default:
+          throw new IllegalStateException("not compilable: " + m.opcodes[pc]);
+      }
+    }
+
+    private void branch(int pc, int opcode) {
+      int c = m.operands[pc];
+      poll(pc);
+      read(m.regA[pc]);
+      jump(opcode, pc + c, 1, () -> asm.pushInt(c));
+    }
+
+    // a jump back may loop inside the region, let an interrupt stop it
+    private void poll(int pc) {
+      if (target(m, pc) <= pc) {
+        asm.local(ClassAssembler.ALOAD, MACHINE_);
+        callMachine("poll", "()V");
+      }
+    }
+
+    private void translateReturn(int c) {
+      if (c == 0) {
+        asm.pushInt(HALT);
+        asm.op(ClassAssembler.ICONST_0);
+        asm.jump(ClassAssembler.GOTO, exit);
+        return;
+      }
+      ClassAssembler.Label bad = new ClassAssembler.Label();
+      read(c);
+      asm.op(ClassAssembler.DUP);
+      asm.local(ClassAssembler.ISTORE, SAVED_C);
+      asm.pushInt(4);
+      asm.op(ClassAssembler.IDIV);
+      asm.op(ClassAssembler.DUP);
+      asm.local(ClassAssembler.ISTORE, PC);
+      asm.jump(ClassAssembler.IFLT, bad);
+      asm.local(ClassAssembler.ILOAD, PC);
+      asm.pushInt(m.memoryWords);
+      asm.jump(ClassAssembler.IF_ICMPGT, bad);
+      asm.jump(ClassAssembler.GOTO, dispatch);
+      asm.bind(bad);
+      asm.local(ClassAssembler.ALOAD, MACHINE_);
+      asm.local(ClassAssembler.ILOAD, PC);
+      asm.pushInt(55);
+      callMachine("checkJump", "(II)V");
+      asm.jump(ClassAssembler.GOTO, dispatch);
+    }
+  }
+}
@@ -0,0 +1,936 @@
+package pl434;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// A single DLX processor. All state lives in the instance, so one JVM can
+// emulate any number of programs at once as long as each gets its own machine.
+public class DLXMachine {
+
+  public enum Tier {
+    INTERP, // decode and dispatch one instruction at a time
+    BLOCK, // run straight-line blocks compiled by DLXBlockCompiler
+    JIT, // run JVM bytecode generated by DLXJit, blocks where it has none
+  }
+
+  // Processor Emulation ========================================================
+  final int[] R = new int[32];
+  int PC;
+
+  int[] M = new int[DLX.MEM_SIZE / 4];
+  int memoryWords = DLX.MEM_SIZE / 4; // of the loaded program
+  // replaces M when memory is paged
+  private DLXPagedMemory pages;
+
+  // streams program output and diagnostics are written to, null for the
+  // System.out and System.err of the moment they are written to
+  private final PrintStream out;
+  private final PrintStream err;
+
+  // input and output of the running program
+  private DLXChannel io;
+  private boolean prompts = true;
+
+  // execution mode and statistics of the last run
+  private boolean trace = false;
+  private DLXProfile profile = null;
+  private DLXTiming timing = null;
+  private Tier tier = Tier.INTERP;
+  private int memorySize = DLX.MEM_SIZE;
+  private boolean paged = false;
+  long instructionCount;
+  private long elapsedNanos;
+
+  // exit code of a program stopped by an interrupt of its thread, which is
+  // how CompileServer ends a request at its deadline
+  public static final int INTERRUPTED = 124;
+  // instructions, or exits from compiled code, between checks for one
+  private static final int POLL_MASK = 0xFFFF;
+
+  // writing wherever System.out and System.err point at the time, as
+  // System.setOut() and setErr() redirect
+  public DLXMachine() {
+    this(null, null);
+  }
+
+  public DLXMachine(PrintStream out, PrintStream err) {
+    this.out = out;
+    this.err = err;
+  }
+
+  private PrintStream out() {
+    return out != null ? out : System.out;
+  }
+
+  private PrintStream err() {
+    return err != null ? err : System.err;
+  }
+
+  // step through the program on stdin, dumping state to err before each instruction
+  public void setTrace(boolean trace) {
+    this.trace = trace;
+  }
+
+  public boolean isTracing() {
+    return trace;
+  }
+
+  // record every run into profile, null to stop. Profiled runs use the
+  // interpreter.
+  public void setProfile(DLXProfile profile) {
+    this.profile = profile;
+  }
+
+  public DLXProfile getProfile() {
+    return profile;
+  }
+
+  // charge every run to timing, null to stop. Timed runs use the interpreter.
+  public void setTiming(DLXTiming timing) {
+    this.timing = timing;
+  }
+
+  public DLXTiming getTiming() {
+    return timing;
+  }
+
+  // print "int? " and the like before reads, off for batch runs
+  public void setPrompts(boolean prompts) {
+    this.prompts = prompts;
+  }
+
+  // execution tier used when not tracing
+  public void setTier(Tier tier) {
+    this.tier = tier;
+  }
+
+  public Tier getTier() {
+    return tier;
+  }
+
+  // memory size in bytes, takes effect with the next load()
+  public void setMemorySize(int bytes) {
+    if (bytes < 8 || bytes % 4 != 0) {
+      throw new IllegalArgumentException(
+        "memory size must be a positive multiple of 4: " + bytes
+      );
+    }
+    memorySize = bytes;
+  }
+
+  public int getMemorySize() {
+    return memorySize;
+  }
+
+  // allocate memory in pages on first write instead of one dense array, for
+  // large memories of which programs touch little. Paged memory always runs
+  // on the interpreter since the compiled tiers address M directly. Takes
+  // effect with the next load().
+  public void setPagedMemory(boolean paged) {
+    this.paged = paged;
+  }
+
+  public boolean isPagedMemory() {
+    return paged;
+  }
+
+  // bytes of memory actually allocated for the loaded program
+  public long memoryFootprint() {
+    return pages == null ? 4L * M.length : pages.footprint();
+  }
+
+  public long instructionCount() {
+    return instructionCount;
+  }
+
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  // executed instructions per second of the last run
+  public double instructionsPerSecond() {
+    if (elapsedNanos == 0) {
+      return 0;
+    }
+    return instructionCount * 1e9 / elapsedNanos;
+  }
+
+  public String throughputReport() {
+    return String.format(
+      "DLX: %d instructions in %.3f ms (%.0f instructions/s)",
+      instructionCount,
+      elapsedNanos / 1e6,
+      instructionsPerSecond()
+    );
+  }
+
+  public void load(int[] program) {
+    memoryWords = memorySize / 4;
+    if (program.length >= memoryWords) {
+      throw new IllegalArgumentException(
+        "program of " + program.length + " words does not fit in memory"
+      );
+    }
+    if (paged) {
+      pages = new DLXPagedMemory(memoryWords);
+      M = new int[0];
+      for (int i = 0; i < program.length; i++) {
+        pages.set(i, program[i]);
+      }
+      pages.set(program.length, -1);
+    } else {
+      pages = null;
+      M = Arrays.copyOf(program, memoryWords);
+      M[program.length] = -1;
+    }
+    predecode(program.length + 1);
+    blocks = null;
+    jit = null;
+  }
+
+  // run with buffered I/O over in and the machine's streams, closes in
+  public void execute(InputStream in) throws IOException {
+    try (InputStream input = in) {
+      execute(new DLXBufferedChannel(input, out(), err(), prompts));
+    }
+  }
+
+  public void execute(DLXChannel io) throws IOException {
+    reset();
+    resume(io, false);
+  }
+
+  // Run the loaded program from its start up to its first read, or to its
+  // end if it never reads, and capture the state there. Output so far is
+  // kept in the snapshot rather than written. Loading a program and taking
+  // the snapshot once lets every input run skip both.
+  public DLXSnapshot warmUp() throws IOException {
+    reset();
+    DLXSnapshot.Output output = new DLXSnapshot.Output();
+    boolean halted = resume(output, true);
+    int[][] shared;
+    if (pages != null) {
+      shared = pages.share();
+    } else {
+      DLXPagedMemory copy = new DLXPagedMemory(memoryWords);
+      for (int i = 0; i < memoryWords; i++) {
+        copy.set(i, M[i]);
+      }
+      shared = copy.share();
+    }
+    return new DLXSnapshot(this, shared, output, halted);
+  }
+
+  // continue a snapshot with io as if the whole program ran on it, the
+  // machine takes over the snapshot's program and memory
+  public void execute(DLXSnapshot snapshot, DLXChannel io) throws IOException {
+    restore(snapshot);
+    try {
+      snapshot.replay(io);
+      if (!snapshot.halted) {
+        resume(io, false);
+      }
+    } finally {
+      io.flush();
+    }
+    instructionCount += snapshot.instructionCount;
+  }
+
+  // registers at the start of the program
+  private void reset() {
+    for (int i = 0; i < 32; i++) {
+      R[i] = 0;
+    }
+    R[30] = 4 * memoryWords - 1;
+    PC = 0;
+    lastFormat = 0;
+    lastC = 0;
+  }
+
+  private void restore(DLXSnapshot snapshot) {
+    memoryWords = snapshot.memoryWords;
+    if (paged) {
+      pages = new DLXPagedMemory(memoryWords, snapshot.pages);
+      M = new int[0];
+    } else {
+      pages = null;
+      M = snapshot.memory();
+    }
+    System.arraycopy(snapshot.R, 0, R, 0, R.length);
+    PC = snapshot.PC;
+    lastFormat = snapshot.lastFormat;
+    lastC = snapshot.lastC;
+    opcodes = snapshot.opcodes.clone();
+    regA = snapshot.regA.clone();
+    regB = snapshot.regB.clone();
+    formats = snapshot.formats.clone();
+    operands = snapshot.operands.clone();
+    fOperands = snapshot.fOperands.clone();
+    decodedLength = opcodes.length;
+    blocks = null;
+    jit = tier == Tier.JIT && pages == null ? snapshot.jit(this) : null;
+  }
+
+  // run from the current state, up to the next read if warmingUp, returns
+  // whether the program halted
+  private boolean resume(DLXChannel io, boolean warmingUp)
+    throws IOException {
+    instructionCount = 0;
+    long start = System.nanoTime();
+    this.io = io;
+    try {
+      try {
+        if (warmingUp) {
+          return runToInput();
+        } else if (trace) {
+          runTraced();
+        } else if (profile != null || timing != null) {
+          runInstrumented();
+        } else if (tier == Tier.INTERP || pages != null) {
+          run();
+        } else {
+          runCompiled();
+        }
+        return true;
+      } catch (ArrayIndexOutOfBoundsException e) {
+        io.flush();
+        err().println("Failed at " + (4 * PC));
+        // PC itself may be what ran off the end of memory
+        if (PC >= 0 && PC < memoryWords) {
+          err().println("Instruction :: " + DLX.instrString(load(PC)));
+        } else {
+          err().println("Instruction :: out of range");
+        }
+        bug(63);
+        return true;
+      }
+    } catch (HaltException e) {
+      // registers are up to date here even if compiled code was running
+      io.flush();
+      dumpState();
+      throw e;
+    } catch (NumberFormatException e) {
+      throw new NumberFormatException(
+        "Failed at line " + io.inputLine() + " of input: " + e.getMessage()
+      );
+    } finally {
+      io.flush();
+      this.io = null;
+      elapsedNanos = System.nanoTime() - start;
+    }
+  }
+
+  // interpret the prologue of warmUp(), false when stopped before a read
+  private boolean runToInput() throws IOException {
+    while (true) {
+      if (PC < decodedLength) {
+        int op = opcodes[PC];
+        if (op == DLX.RDI || op == DLX.RDF || op == DLX.RDB) {
+          return false;
+        }
+      }
+      if ((++instructionCount & POLL_MASK) == 0) {
+        poll();
+      }
+      if (step()) {
+        return true;
+      }
+    }
+  }
+
+  // tight run loop, no tracing
+  private void run() throws IOException {
+    long count = 0;
+    try {
+      do {
+        if ((++count & POLL_MASK) == 0) {
+          poll();
+        }
+      } while (!step());
+    } finally {
+      instructionCount += count;
+    }
+  }
+
+  // run generated code where there is some, then blocks, then step()
+  private void runCompiled() throws IOException {
+    if (blocks == null) {
+      blocks = new DLXBlockCompiler(this);
+    }
+    if (tier == Tier.JIT && jit == null) {
+      jit = DLXJit.compile(this);
+    }
+    int exits = 0;
+    while (true) {
+      if ((++exits & POLL_MASK) == 0) {
+        poll();
+      }
+      if (jit != null && jit.isEntry(PC)) {
+        int next = jit.run(PC);
+        if (next == DLXBlockCompiler.HALT) {
+          return;
+        }
+        PC = next;
+        continue;
+      }
+      DLXBlockCompiler.Block block = null;
+      if (PC < decodedLength) {
+        block = blocks.at(PC);
+      }
+      if (block == null) {
+        instructionCount++;
+        if (step()) {
+          return;
+        }
+      } else {
+        int next = blocks.run(block);
+        if (next == DLXBlockCompiler.HALT) {
+          return;
+        }
+        PC = next;
+      }
+    }
+  }
+
+  // run loop feeding the profile and the timing model
+  private void runInstrumented() throws IOException {
+    while (true) {
+      int pc = PC;
+      if (pc >= decodedLength) {
+        decodeUpTo(pc);
+      }
+      if (profile != null) {
+        profile.enter(this, pc);
+      }
+      if (timing != null) {
+        timing.enter(this, pc);
+      }
+      if ((++instructionCount & POLL_MASK) == 0) {
+        poll();
+      }
+      if (step()) {
+        return;
+      }
+      if (profile != null) {
+        profile.leave(this, pc, PC);
+      }
+      if (timing != null) {
+        timing.leave(this, pc, PC);
+      }
+    }
+  }
+
+  // print each instruction with the machine state and wait for a key press
+  private void runTraced() throws IOException {
+    do {
+      err().print(DLX.instrString(load(PC)));
+      for (int i = 31; i > 27; i--) {
+        err().println("R[" + i + "] :: " + R[i]);
+      }
+      for (int i = 8; i > 0; i--) {
+        err().println("R[" + i + "] :: " + R[i]);
+      }
+      for (int i = 0; i < 40; i += 4) {
+        err().println("--M[" + (R[30] - i) / 4 + "] :: " + load((R[30] - i) / 4));
+      }
+      io.flush();
+      try {
+        System.in.read();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      instructionCount++;
+    } while (!step());
+  }
+
+  // execute the instruction at PC, returns true once the program returned
+  private boolean step() throws IOException {
+    if (PC >= decodedLength) {
+      decodeUpTo(PC);
+    }
+    int op = opcodes[PC];
+    int a = regA[PC];
+    int b = regB[PC];
+    int format = formats[PC];
+    int c = operands[PC];
+    int origC = 0; // used for F2 instruction RET
+    float fC = fOperands[PC]; // used for F1/F2 instructions fOP
+
+    R[0] = 0;
+    if (format == 0) {
+      // an illegal word keeps format and c of the previous instruction
+      err().println("Illegal instruction: (" + PC + ")!");
+      format = lastFormat;
+      c = lastC;
+      fC = (format == 1 ? DLX.toFP32FromFP16(c) : 0f);
+    }
+    if (format == 2) {
+      origC = c;
+      c = R[origC];
+      fC = fR(origC);
+    }
+    lastFormat = format;
+    lastC = c;
+
+    int nextPC = PC + 1;
+    switch (op) {
+      case DLX.ADD:
+      case DLX.ADDI:
+        R[a] = R[b] + c;
+        break;
+      case DLX.fADD:
+      case DLX.fADDI:
+        fR(a, fR(b) + fC);
+        break;
+      case DLX.SUB:
+      case DLX.SUBI:
+        R[a] = R[b] - c;
+        break;
+      case DLX.fSUB:
+      case DLX.fSUBI:
+        fR(a, fR(b) - fC);
+        break;
+      case DLX.MUL:
+      case DLX.MULI:
+        R[a] = R[b] * c;
+        break;
+      case DLX.fMUL:
+      case DLX.fMULI:
+        fR(a, fR(b) * fC);
+        break;
+      case DLX.DIV:
+      case DLX.DIVI:
+        R[a] = R[b] / c;
+        break;
+      case DLX.fDIV:
+      case DLX.fDIVI:
+        fR(a, fR(b) / fC);
+        break;
+      case DLX.MOD:
+      case DLX.MODI:
+        R[a] = R[b] % c;
+        break;
+      case DLX.fMOD:
+      case DLX.fMODI:
+        fR(a, fR(b) % fC);
+        break;
+      case DLX.POW:
+      case DLX.POWI:
+        R[a] = pow(R[b], c);
+        break;
+      case DLX.CMP:
+      case DLX.CMPI:
+        R[a] = cmp(R[b] - c);
+        break;
+      case DLX.fCMP:
+      case DLX.fCMPI:
+        R[a] = fCmp(fR(b) - fC);
+        break;
+      case DLX.OR:
+      case DLX.ORI:
+        R[a] = R[b] | c;
+        break;
+      case DLX.AND:
+      case DLX.ANDI:
+        R[a] = R[b] & c;
+        break;
+      case DLX.BIC:
+      case DLX.BICI:
+        R[a] = R[b] & ~c;
+        break;
+      case DLX.XOR:
+      case DLX.XORI:
+        R[a] = R[b] ^ c;
+        break;
+      case DLX.LSH:
+      case DLX.LSHI:
+        R[a] = lsh(R[b], c);
+        break;
+      case DLX.ASH:
+      case DLX.ASHI:
+        R[a] = ash(R[b], c);
+        break;
+      case DLX.CHK:
+      case DLX.CHKI:
+        chk(PC, a, R[a], c);
+        break;
+      case DLX.LDW:
+      case DLX.LDX:
+        R[a] = load((R[b] + c) / 4);
+        break;
+      case DLX.POP:
+        R[a] = load(R[b] / 4);
+        R[b] = R[b] + c;
+        break;
+      case DLX.STW:
+      case DLX.STX:
+        store((R[b] + c) / 4, R[a]);
+        break;
+      case DLX.PSH:
+        R[b] = R[b] + c;
+        store(R[b] / 4, R[a]);
+        break;
+      case DLX.ARRCPY:
+        copy(R[a], R[b], c);
+        break;
+      case DLX.BEQ:
+        if (R[a] == 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 47);
+        break;
+      case DLX.BNE:
+        if (R[a] != 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 48);
+        break;
+      case DLX.BLT:
+        if (R[a] < 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 49);
+        break;
+      case DLX.BGE:
+        if (R[a] >= 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 50);
+        break;
+      case DLX.BLE:
+        if (R[a] <= 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 51);
+        break;
+      case DLX.BGT:
+        if (R[a] > 0) {
+          nextPC = PC + c;
+        }
+        checkJump(nextPC, 52);
+        break;
+      case DLX.BSR:
+        R[31] = 4 * (PC + 1);
+        nextPC = PC + c;
+        checkJump(nextPC, 53);
+        break;
+      case DLX.JSR:
+        R[31] = 4 * (PC + 1);
+        nextPC = c / 4;
+        checkJump(nextPC, 54);
+        break;
+      case DLX.RET:
+        if (origC == 0) {
+          return true;
+        }
+        nextPC = c / 4;
+        checkJump(nextPC, 55);
+        break;
+      case DLX.RDI:
+        R[a] = readInt();
+        break;
+      case DLX.RDF:
+        fR(a, readFloat());
+        break;
+      case DLX.RDB:
+        R[a] = readBool();
+        break;
+      case DLX.WRI:
+        writeInt(R[b]);
+        break;
+      case DLX.WRF:
+        writeFloat(fR(b));
+        break;
+      case DLX.WRB:
+        writeBool(R[b]);
+        break;
+      case DLX.WRL:
+        writeLine();
+        break;
+      case DLX.ERR:
+        err().println("Program dropped off the end!");
+        break;
+      default:
+        err().println("DLX.execute: Unknown opcode encountered!");
+        bug(2);
+        break;
+    }
+    PC = nextPC;
+    return false;
+  }
+
+  // Shared Instruction Semantics ===============================================
+  // used by both step() and the compiled blocks, so error output is identical
+
+  static int cmp(int diff) {
+    if (diff < 0) {
+      return -1;
+    } else if (diff > 1) {
+      return 1;
+    }
+    return diff;
+  }
+
+  static int fCmp(float diff) {
+    if (diff <= -DLX.EPS) {
+      return -1;
+    } else if (diff >= DLX.EPS) {
+      return 1;
+    }
+    return 0;
+  }
+
+  int pow(int x, int c) {
+    if (x < 0 || c < 0) {
+      err().println("DLX.execute: Illegal value (" + x + ")^(" + c + ") in POW!");
+      bug(1);
+    }
+    return (int) Math.round(Math.pow(x, c));
+  }
+
+  int lsh(int x, int c) {
+    if (c < -31 || c > 31) {
+      err().println("DLX.execute: Illegal value " + c + " in LSH!");
+      bug(1);
+    }
+    return c < 0 ? x >>> -c : x << c;
+  }
+
+  int ash(int x, int c) {
+    if (c < -31 || c > 31) {
+      err().println("DLX.execute: Illegal value " + c + " in ASH!");
+      bug(1);
+    }
+    return c < 0 ? x >> -c : x << c;
+  }
+
+  // bounds check of R[a] == value against c
+  void chk(int pc, int a, int value, int c) {
+    if (value < 0) {
+      err().println(
+        "DLX.execute: " + (4 * pc) + " :: R[" + a + "] == " + value + " < 0"
+      );
+      bug(39);
+    } else if (value >= c) {
+      err().println(
+        "DLX.execute: " +
+        (4 * pc) +
+        " :: R[" +
+        a +
+        "] == " +
+        value +
+        " >= " +
+        c
+      );
+      bug(39);
+    }
+  }
+
+  // ARRCPY of n words downwards from address src to dst, returns true if it
+  // overwrote predecoded code
+  boolean copy(int dst, int src, int n) {
+    boolean code = false;
+    for (int i = 0; i < n; i++) {
+      code |= store((dst - 4 * i) / 4, load((src - 4 * i) / 4));
+    }
+    return code;
+  }
+
+  // stop if the running thread was interrupted, compiled code calls this on
+  // every backward jump as a loop may never leave it
+  void poll() {
+    if (Thread.currentThread().isInterrupted()) {
+      err().println("DLX.execute: interrupted");
+      bug(INTERRUPTED);
+    }
+  }
+
+  // stop with exit code n unless nextPC lies in memory
+  void checkJump(int nextPC, int n) {
+    if (nextPC < 0 || nextPC > memoryWords) {
+      err().println(
+        "DLX.execute: " +
+        (4 * nextPC) +
+        " is no address " +
+        "in memory [0, " +
+        4 * memoryWords +
+        "]."
+      );
+      bug(n);
+    }
+  }
+
+  int readInt() throws IOException {
+    return io.readInt();
+  }
+
+  float readFloat() throws IOException {
+    return io.readFloat();
+  }
+
+  int readBool() throws IOException {
+    return io.readBool() ? 1 : 0;
+  }
+
+  void writeInt(int value) throws IOException {
+    io.writeInt(value);
+  }
+
+  void writeFloat(float value) throws IOException {
+    io.writeFloat(value);
+  }
+
+  void writeBool(int value) throws IOException {
+    io.writeBool(value == 1);
+  }
+
+  void writeLine() throws IOException {
+    io.writeLine();
+  }
+
+  // put val in R[idx]
+  private void fR(int idx, float val) {
+    R[idx] = Float.floatToIntBits(val);
+  }
+
+  // get float value from R[idx]
+  private float fR(int idx) {
+    return Float.intBitsToFloat(R[idx]);
+  }
+
+  int load(int idx) {
+    return pages == null ? M[idx] : pages.get(idx);
+  }
+
+  // write a memory word, re-decoding it if it overwrote a predecoded
+  // instruction, returns true in that case
+  boolean store(int idx, int val) {
+    if (pages == null) {
+      M[idx] = val;
+    } else {
+      pages.set(idx, val);
+    }
+    if (idx < decodedLength) {
+      decode(idx);
+      if (blocks != null) {
+        blocks.invalidate(idx);
+      }
+      // self-modifying code, the rest of this run goes without the JIT
+      jit = null;
+      return true;
+    }
+    return false;
+  }
+
+  // Predecoding ================================================================
+  /*
+   * Every instruction word is split into its fields once, when it is loaded,
+   * so the run loop never shifts and masks instruction words or expands FP16
+   * immediates. F1 float ops find their expanded immediate in fOperands.
+   * Words executed beyond the loaded program (or overwritten by stores) are
+   * decoded on demand.
+   */
+  byte[] opcodes = new byte[0];
+  byte[] regA = new byte[0];
+  byte[] regB = new byte[0];
+  byte[] formats = new byte[0]; // 0 marks an illegal instruction
+  int[] operands = new int[0];
+  float[] fOperands = new float[0];
+  int decodedLength = 0;
+
+  // compiled blocks of the BLOCK tier, rebuilt for every loaded program
+  private DLXBlockCompiler blocks;
+  // generated code of the JIT tier, dropped once a store hits code
+  private DLXJit jit;
+
+  // format and c of the previously executed instruction
+  int lastFormat = 0;
+  int lastC = 0;
+
+  private void predecode(int length) {
+    opcodes = new byte[length];
+    regA = new byte[length];
+    regB = new byte[length];
+    formats = new byte[length];
+    operands = new int[length];
+    fOperands = new float[length];
+    decodedLength = length;
+    for (int i = 0; i < length; i++) {
+      decode(i);
+    }
+  }
+
+  // extend the predecoded range so that it covers pc
+  private void decodeUpTo(int pc) {
+    if (pc >= memoryWords) {
+      throw new ArrayIndexOutOfBoundsException(pc);
+    }
+    int length = Math.min(memoryWords, Math.max(pc + 1, 2 * decodedLength));
+    int from = decodedLength;
+    opcodes = Arrays.copyOf(opcodes, length);
+    regA = Arrays.copyOf(regA, length);
+    regB = Arrays.copyOf(regB, length);
+    formats = Arrays.copyOf(formats, length);
+    operands = Arrays.copyOf(operands, length);
+    fOperands = Arrays.copyOf(fOperands, length);
+    decodedLength = length;
+    for (int i = from; i < length; i++) {
+      decode(i);
+    }
+  }
+
+  private void decode(int idx) {
+    int instrWord = load(idx);
+    int op = instrWord >>> 26;
+    int format = DLX.format(op);
+    int c = DLX.operandC(instrWord, format);
+    opcodes[idx] = (byte) op;
+    formats[idx] = (byte) format;
+    operands[idx] = c;
+    fOperands[idx] = (format == 1 ? DLX.toFP32FromFP16(c) : 0f);
+    if (format == 3) {
+      regA[idx] = -1;
+      regB[idx] = -1;
+    } else {
+      regA[idx] = (byte) ((instrWord >>> 21) & 0x1F);
+      regB[idx] = (byte) ((instrWord >>> 16) & 0x1F);
+    }
+  }
+
+  // stop this machine with exit code n, execute() dumps the processor state
+  private void bug(int n) {
+    throw new HaltException(n);
+  }
+
+  private void dumpState() {
+    if (R[30] != 0) {
+      for (int i = 31; i > 27; i--) {
+        err().println("R[" + i + "] :: " + R[i]);
+      }
+      for (int i = 8; i > 0; i--) {
+        err().println("R[" + i + "] :: " + R[i]);
+      }
+      for (int i = 0; i < 40; i += 4) {
+        err().println("--M[" + (R[30] - i) / 4 + "] :: " + load((R[30] - i) / 4));
+      }
+    }
+  }
+
+  // thrown instead of exiting the JVM when the emulated program hits an error
+  public static class HaltException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    private final int exitCode;
+
+    public HaltException(int exitCode) {
+      super("DLX halted with code " + exitCode);
+      this.exitCode = exitCode;
+    }
+
+    public int exitCode() {
+      return exitCode;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package pl434;
+
+import java.util.Arrays;
+
+// Sparse DLX memory. Words live in fixed-size pages allocated on the first
+// write, so a large address space only costs what the program touches. Reads
+// of untouched words return 0, out of range indices throw like an int[].
+// Pages can be shared with a DLXSnapshot, they are copied on the first write.
+class DLXPagedMemory {
+
+  static final int PAGE_BITS = 10; // 1024 words, 4 KiB per page
+  static final int PAGE_WORDS = 1 << PAGE_BITS;
+
+  private final int words;
+  private final int[][] pages;
+  private final boolean[] shared;
+  private int allocated = 0;
+
+  DLXPagedMemory(int words) {
+    this.words = words;
+    this.pages = new int[(words + PAGE_WORDS - 1) >> PAGE_BITS][];
+    this.shared = new boolean[pages.length];
+  }
+
+  // memory over the pages of a snapshot, which are never written to
+  DLXPagedMemory(int words, int[][] pages) {
+    this(words);
+    for (int p = 0; p < pages.length; p++) {
+      if (pages[p] != null) {
+        this.pages[p] = pages[p];
+        shared[p] = true;
+        allocated++;
+      }
+    }
+  }
+
+  // the pages as they are now, later writes here copy them first
+  int[][] share() {
+    Arrays.fill(shared, true);
+    return pages.clone();
+  }
+
+  int get(int idx) {
+    check(idx);
+    int[] page = pages[idx >> PAGE_BITS];
+    return page == null ? 0 : page[idx & (PAGE_WORDS - 1)];
+  }
+
+  void set(int idx, int val) {
+    check(idx);
+    int[] page = pages[idx >> PAGE_BITS];
+    if (page == null) {
+      if (val == 0) {
+        return;
+      }
+      page = new int[PAGE_WORDS];
+      pages[idx >> PAGE_BITS] = page;
+      allocated++;
+    } else if (shared[idx >> PAGE_BITS]) {
+      page = page.clone();
+      pages[idx >> PAGE_BITS] = page;
+      shared[idx >> PAGE_BITS] = false;
+    }
+    page[idx & (PAGE_WORDS - 1)] = val;
+  }
+
+  // bytes held by allocated pages
+  long footprint() {
+    return (long) allocated * PAGE_WORDS * 4;
+  }
+
+  private void check(int idx) {
+    if (idx < 0 || idx >= words) {
+      throw new ArrayIndexOutOfBoundsException(
+        "Index " + idx + " out of bounds for length " + words
+      );
+    }
+  }
+}
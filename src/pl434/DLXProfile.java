@@ -0,0 +1,242 @@
+package pl434;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Execution profile filled by a DLXMachine while profiling: hits per PC and
+// per opcode, memory loads and stores, calls per BSR/JSR target and taken
+// backward jumps per loop header. Counts add up over runs until reset().
+// With a DLXSourceMap the report ranks SSA blocks by dynamic cost.
+public class DLXProfile {
+
+  private static final int HOT_INSTRUCTIONS = 20;
+
+  private long[] hits = new long[0];
+  private long[] calls = new long[0];
+  private long[] loops = new long[0];
+  private final long[] opcodes = new long[DLX.mnemo.length];
+  private long total = 0;
+  private long loads = 0;
+  private long stores = 0;
+
+  public void reset() {
+    hits = new long[0];
+    calls = new long[0];
+    loops = new long[0];
+    Arrays.fill(opcodes, 0);
+    total = loads = stores = 0;
+  }
+
+  public long instructions() {
+    return total;
+  }
+
+  public long hits(int pc) {
+    return pc < hits.length ? hits[pc] : 0;
+  }
+
+  public long opcodeCount(int op) {
+    return opcodes[op];
+  }
+
+  public long loads() {
+    return loads;
+  }
+
+  public long stores() {
+    return stores;
+  }
+
+  // Recording ==================================================================
+
+  // before the instruction at pc executes, it is already decoded
+  void enter(DLXMachine m, int pc) {
+    if (pc >= hits.length) {
+      grow(pc);
+    }
+    hits[pc]++;
+    total++;
+    int op = m.opcodes[pc];
+    opcodes[op]++;
+    switch (op) {
+      case DLX.LDW:
+      case DLX.LDX:
+      case DLX.POP:
+        loads++;
+        break;
+      case DLX.STW:
+      case DLX.STX:
+      case DLX.PSH:
+        stores++;
+        break;
+      case DLX.ARRCPY:
+        int n = m.formats[pc] == 2 ? m.R[m.operands[pc]] : m.operands[pc];
+        if (n > 0) {
+          loads += n;
+          stores += n;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  // after the instruction at pc executed and moved on to next
+  void leave(DLXMachine m, int pc, int next) {
+    int op = m.opcodes[pc];
+    if (op < DLX.BEQ || op > DLX.JSR) {
+      return;
+    }
+    if (next >= hits.length) {
+      grow(next);
+    }
+    if (op == DLX.BSR || op == DLX.JSR) {
+      calls[next]++;
+    }
+    if (next <= pc) {
+      loops[next]++;
+    }
+  }
+
+  private void grow(int pc) {
+    int length = Math.max(pc + 1, 2 * hits.length);
+    hits = Arrays.copyOf(hits, length);
+    calls = Arrays.copyOf(calls, length);
+    loops = Arrays.copyOf(loops, length);
+  }
+
+  // Report =====================================================================
+
+  // program gives the instruction text, map (may be null) the SSA origin
+  public String report(int[] program, DLXSourceMap map) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(
+      String.format(
+        "DLX profile: %d instructions, %d loads, %d stores\n",
+        total,
+        loads,
+        stores
+      )
+    );
+
+    sb.append("Opcodes\n");
+    for (int op : ranked(opcodes)) {
+      sb.append(
+        String.format(
+          "  %-8s %12d %6.2f%%\n",
+          DLX.mnemo[op],
+          opcodes[op],
+          percent(opcodes[op])
+        )
+      );
+    }
+
+    sb.append("Hot instructions\n");
+    List<Integer> hot = ranked(hits);
+    for (int pc : hot.subList(0, Math.min(HOT_INSTRUCTIONS, hot.size()))) {
+      String text = pc < program.length
+        ? DLX.instrString(program[pc]).trim()
+        : "";
+      String row = String.format(
+        "  %6d %12d %6.2f%%  %-20s%s",
+        pc,
+        hits[pc],
+        percent(hits[pc]),
+        text,
+        origin(map, pc, true)
+      );
+      sb.append(row.stripTrailing()).append("\n");
+    }
+
+    if (map != null) {
+      sb.append("SSA blocks\n");
+      TreeMap<Integer, long[]> blocks = new TreeMap<>(); // cost, first, last line
+      for (int pc = 0; pc < hits.length; pc++) {
+        if (hits[pc] == 0) {
+          continue;
+        }
+        long[] block = blocks.computeIfAbsent(
+          map.block(pc),
+          b -> new long[] { 0, Long.MAX_VALUE, -1 }
+        );
+        block[0] += hits[pc];
+        int line = map.line(pc);
+        if (line >= 0) {
+          block[1] = Math.min(block[1], line);
+          block[2] = Math.max(block[2], line);
+        }
+      }
+      List<Map.Entry<Integer, long[]>> ranking = new ArrayList<>(
+        blocks.entrySet()
+      );
+      ranking.sort((x, y) -> Long.compare(y.getValue()[0], x.getValue()[0]));
+      for (Map.Entry<Integer, long[]> e : ranking) {
+        long[] block = e.getValue();
+        sb.append(
+          String.format(
+            "  %-8s %12d %6.2f%%%s\n",
+            e.getKey() < 0 ? "(none)" : "BB" + e.getKey(),
+            block[0],
+            percent(block[0]),
+            block[2] < 0
+              ? ""
+              : block[1] == block[2]
+                ? "  line " + block[1]
+                : "  lines " + block[1] + "-" + block[2]
+          )
+        );
+      }
+    }
+
+    sb.append("Calls (BSR/JSR targets)\n");
+    for (int pc : ranked(calls)) {
+      sb.append(
+        String.format("  %6d %12d%s\n", pc, calls[pc], origin(map, pc, false))
+      );
+    }
+
+    sb.append("Loops (targets of taken backward jumps)\n");
+    for (int pc : ranked(loops)) {
+      sb.append(
+        String.format("  %6d %12d%s\n", pc, loops[pc], origin(map, pc, false))
+      );
+    }
+    return sb.toString();
+  }
+
+  private double percent(long count) {
+    return total == 0 ? 0 : 100.0 * count / total;
+  }
+
+  // indices of the non-zero counts, highest first
+  private static List<Integer> ranked(long[] counts) {
+    List<Integer> ranking = new ArrayList<>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        ranking.add(i);
+      }
+    }
+    ranking.sort((x, y) -> Long.compare(counts[y], counts[x]));
+    return ranking;
+  }
+
+  private static String origin(DLXSourceMap map, int pc, boolean instruction) {
+    if (map == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    if (instruction && map.instruction(pc) >= 0) {
+      sb.append("  #").append(map.instruction(pc));
+    }
+    if (map.block(pc) >= 0) {
+      sb.append("  BB").append(map.block(pc));
+    }
+    if (map.line(pc) >= 0) {
+      sb.append("  line ").append(map.line(pc));
+    }
+    return sb.toString();
+  }
+}
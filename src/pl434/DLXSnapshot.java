@@ -0,0 +1,171 @@
+package pl434;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Machine state of a loaded program stopped before its first read, taken by
+// DLXMachine.warmUp(). Any number of machines, also on different threads,
+// can run it to the end with their own input through execute(DLXSnapshot,
+// DLXChannel), without reloading the program or rerunning its prologue.
+// Memory is kept in pages which paged machines share copy-on-write, dense
+// machines copy them into their array. Output of the prologue is replayed on
+// every run. A snapshot is never modified once taken.
+public class DLXSnapshot {
+
+  final int memoryWords;
+  final int[][] pages; // DLXPagedMemory pages, null where all zero
+  final int[] R;
+  final int PC;
+  final int lastFormat;
+  final int lastC;
+  final long instructionCount;
+  final boolean halted; // the program ended without reading
+
+  // predecoded program, copied by every machine since stores re-decode
+  final byte[] opcodes;
+  final byte[] regA;
+  final byte[] regB;
+  final byte[] formats;
+  final int[] operands;
+  final float[] fOperands;
+
+  // output written before the snapshot, one value per kind
+  private final byte[] outputKinds;
+  private final int[] outputValues;
+
+  // generated code, translated for the first JIT machine and shared after
+  private DLXJit jit;
+
+  DLXSnapshot(DLXMachine m, int[][] pages, Output output, boolean halted) {
+    this.memoryWords = m.memoryWords;
+    this.pages = pages;
+    this.R = m.R.clone();
+    this.PC = m.PC;
+    this.lastFormat = m.lastFormat;
+    this.lastC = m.lastC;
+    this.instructionCount = m.instructionCount;
+    this.halted = halted;
+    int n = m.decodedLength;
+    this.opcodes = Arrays.copyOf(m.opcodes, n);
+    this.regA = Arrays.copyOf(m.regA, n);
+    this.regB = Arrays.copyOf(m.regB, n);
+    this.formats = Arrays.copyOf(m.formats, n);
+    this.operands = Arrays.copyOf(m.operands, n);
+    this.fOperands = Arrays.copyOf(m.fOperands, n);
+    this.outputKinds = Arrays.copyOf(output.kinds, output.length);
+    this.outputValues = Arrays.copyOf(output.values, output.length);
+  }
+
+  // dense memory of the snapshot
+  int[] memory() {
+    int[] M = new int[memoryWords];
+    for (int p = 0; p < pages.length; p++) {
+      if (pages[p] != null) {
+        int at = p << DLXPagedMemory.PAGE_BITS;
+        int n = Math.min(DLXPagedMemory.PAGE_WORDS, memoryWords - at);
+        System.arraycopy(pages[p], 0, M, at, n);
+      }
+    }
+    return M;
+  }
+
+  // code of the JIT tier for m, which was just restored from this snapshot
+  synchronized DLXJit jit(DLXMachine m) {
+    if (jit == null) {
+      jit = DLXJit.compile(m);
+    }
+    return jit.forMachine(m);
+  }
+
+  // write the output of the prologue again
+  void replay(DLXChannel io) throws IOException {
+    for (int i = 0; i < outputKinds.length; i++) {
+      int value = outputValues[i];
+      switch (outputKinds[i]) {
+        case DLX.WRI:
+          io.writeInt(value);
+          break;
+        case DLX.WRF:
+          io.writeFloat(Float.intBitsToFloat(value));
+          break;
+        case DLX.WRB:
+          io.writeBool(value != 0);
+          break;
+        default:
+          io.writeLine();
+          break;
+      }
+    }
+  }
+
+  public boolean isHalted() {
+    return halted;
+  }
+
+  // instructions executed before the snapshot
+  public long instructionCount() {
+    return instructionCount;
+  }
+
+  // Recording ==================================================================
+
+  // channel of warmUp(), records output and has no input
+  static class Output implements DLXChannel {
+
+    private byte[] kinds = new byte[16];
+    private int[] values = new int[16];
+    private int length = 0;
+
+    private void add(int kind, int value) {
+      if (length == kinds.length) {
+        kinds = Arrays.copyOf(kinds, 2 * length);
+        values = Arrays.copyOf(values, 2 * length);
+      }
+      kinds[length] = (byte) kind;
+      values[length++] = value;
+    }
+
+    @Override
+    public int readInt() {
+      throw new IllegalStateException("no input before the snapshot");
+    }
+
+    @Override
+    public float readFloat() {
+      throw new IllegalStateException("no input before the snapshot");
+    }
+
+    @Override
+    public boolean readBool() {
+      throw new IllegalStateException("no input before the snapshot");
+    }
+
+    @Override
+    public void writeInt(int value) {
+      add(DLX.WRI, value);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+      add(DLX.WRF, Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public void writeBool(boolean value) {
+      add(DLX.WRB, value ? 1 : 0);
+    }
+
+    @Override
+    public void writeLine() {
+      add(DLX.WRL, 0);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public int inputLine() {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package pl434;
+
+// Where each word of a compiled DLX program came from: the SSA instruction
+// (Instruction.my_num), its block (Block.my_num) and the source line, each -1
+// where unknown, such as for the prologue or spill code.
+public class DLXSourceMap {
+
+  private final int[] instructions;
+  private final int[] blocks;
+  private final int[] lines;
+
+  public DLXSourceMap(int[] instructions, int[] blocks, int[] lines) {
+    this.instructions = instructions;
+    this.blocks = blocks;
+    this.lines = lines;
+  }
+
+  public int instruction(int pc) {
+    return pc >= 0 && pc < instructions.length ? instructions[pc] : -1;
+  }
+
+  public int block(int pc) {
+    return pc >= 0 && pc < blocks.length ? blocks[pc] : -1;
+  }
+
+  public int line(int pc) {
+    return pc >= 0 && pc < lines.length ? lines[pc] : -1;
+  }
+}
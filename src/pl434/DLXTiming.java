@@ -0,0 +1,230 @@
+package pl434;
+
+import java.util.Arrays;
+
+// Cycle cost model for DLX runs, to score generated code by more than its
+// instruction count. Every instruction costs the latency of its opcode.
+// Loads and stores go through a simulated set-associative L1 data cache
+// (LRU, write-allocate) and pay a penalty per miss. Conditional branches go
+// through a table of 2-bit saturating counters and pay a penalty per
+// misprediction. Counts add up over runs until reset().
+public class DLXTiming {
+
+  // cycles per opcode, indexed like DLX.mnemo
+  private final int[] latency = new int[DLX.mnemo.length];
+  private int missPenalty = 20;
+  private int mispredictPenalty = 3;
+
+  // L1 data cache, tags[set * ways + way] of line numbers, -1 when empty
+  private final int cacheBytes;
+  private final int lineBytes;
+  private final int ways;
+  private final int sets;
+  private final long[] tags;
+  private final long[] lastUse;
+  private long clock = 0;
+
+  // branch predictor, counters 0-1 predict not taken, 2-3 taken
+  private final byte[] counters;
+
+  private long cycles = 0;
+  private long instructions = 0;
+  private long accesses = 0;
+  private long misses = 0;
+  private long branches = 0;
+  private long mispredicts = 0;
+
+  // 4 KiB 2-way cache of 32 byte lines, 1024 predictor counters
+  public DLXTiming() {
+    this(4096, 32, 2, 1024);
+  }
+
+  public DLXTiming(int cacheBytes, int lineBytes, int ways, int predictors) {
+    if (
+      lineBytes < 4 ||
+      Integer.bitCount(lineBytes) != 1 ||
+      ways < 1 ||
+      cacheBytes < lineBytes * ways ||
+      cacheBytes % (lineBytes * ways) != 0 ||
+      Integer.bitCount(predictors) != 1
+    ) {
+      throw new IllegalArgumentException(
+        "bad cache or predictor geometry: " +
+        cacheBytes +
+        " B, " +
+        lineBytes +
+        " B lines, " +
+        ways +
+        " ways, " +
+        predictors +
+        " predictors"
+      );
+    }
+    this.cacheBytes = cacheBytes;
+    this.lineBytes = lineBytes;
+    this.ways = ways;
+    this.sets = cacheBytes / (lineBytes * ways);
+    this.tags = new long[sets * ways];
+    this.lastUse = new long[sets * ways];
+    this.counters = new byte[predictors];
+
+    Arrays.fill(latency, 1);
+    for (int op : new int[] { DLX.MUL, DLX.MULI }) {
+      latency[op] = 3;
+    }
+    for (int op : new int[] { DLX.DIV, DLX.DIVI, DLX.MOD, DLX.MODI }) {
+      latency[op] = 20;
+    }
+    for (int op : new int[] { DLX.POW, DLX.POWI }) {
+      latency[op] = 40;
+    }
+    for (int op : new int[] { DLX.fADD, DLX.fADDI, DLX.fSUB, DLX.fSUBI }) {
+      latency[op] = 3;
+    }
+    for (int op : new int[] { DLX.fMUL, DLX.fMULI, DLX.fCMP, DLX.fCMPI }) {
+      latency[op] = 4;
+    }
+    for (int op : new int[] { DLX.fDIV, DLX.fDIVI, DLX.fMOD, DLX.fMODI }) {
+      latency[op] = 15;
+    }
+    for (int op : new int[] { DLX.LDW, DLX.LDX, DLX.POP }) {
+      latency[op] = 2; // cache hit
+    }
+    latency[DLX.RET] = 2;
+    reset();
+  }
+
+  public void setLatency(int op, int cycles) {
+    latency[op] = cycles;
+  }
+
+  public void setMissPenalty(int cycles) {
+    missPenalty = cycles;
+  }
+
+  public void setMispredictPenalty(int cycles) {
+    mispredictPenalty = cycles;
+  }
+
+  public void reset() {
+    Arrays.fill(tags, -1);
+    Arrays.fill(lastUse, 0);
+    Arrays.fill(counters, (byte) 1);
+    clock = 0;
+    cycles = instructions = accesses = misses = branches = mispredicts = 0;
+  }
+
+  public long cycles() {
+    return cycles;
+  }
+
+  public double cpi() {
+    return instructions == 0 ? 0 : (double) cycles / instructions;
+  }
+
+  public long misses() {
+    return misses;
+  }
+
+  public long mispredicts() {
+    return mispredicts;
+  }
+
+  // Recording ==================================================================
+
+  // before the instruction at pc executes, it is already decoded
+  void enter(DLXMachine m, int pc) {
+    int op = m.opcodes[pc];
+    int[] R = m.R;
+    int c = m.formats[pc] == 2 ? R[m.operands[pc]] : m.operands[pc];
+    instructions++;
+    cycles += latency[op];
+    switch (op) {
+      case DLX.LDW:
+      case DLX.LDX:
+      case DLX.STW:
+      case DLX.STX:
+        access(R[m.regB[pc]] + c);
+        break;
+      case DLX.POP:
+        access(R[m.regB[pc]]);
+        break;
+      case DLX.PSH:
+        access(R[m.regB[pc]] + c);
+        break;
+      case DLX.ARRCPY:
+        for (int i = 0; i < c; i++) {
+          access(R[m.regB[pc]] - 4 * i);
+          access(R[m.regA[pc]] - 4 * i);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  // after the instruction at pc executed and moved on to next
+  void leave(DLXMachine m, int pc, int next) {
+    int op = m.opcodes[pc];
+    if (op < DLX.BEQ || op > DLX.BGT) {
+      return;
+    }
+    boolean taken = next != pc + 1;
+    int slot = pc & (counters.length - 1);
+    byte counter = counters[slot];
+    branches++;
+    if ((counter >= 2) != taken) {
+      mispredicts++;
+      cycles += mispredictPenalty;
+    }
+    if (taken && counter < 3) {
+      counters[slot] = (byte) (counter + 1);
+    } else if (!taken && counter > 0) {
+      counters[slot] = (byte) (counter - 1);
+    }
+  }
+
+  // data access at a byte address
+  private void access(int address) {
+    long line = Integer.toUnsignedLong(address) / lineBytes;
+    int set = (int) (line % sets) * ways;
+    accesses++;
+    clock++;
+    int victim = set;
+    for (int way = set; way < set + ways; way++) {
+      if (tags[way] == line) {
+        lastUse[way] = clock;
+        return;
+      }
+      if (lastUse[way] < lastUse[victim]) {
+        victim = way;
+      }
+    }
+    misses++;
+    cycles += missPenalty;
+    tags[victim] = line;
+    lastUse[victim] = clock;
+  }
+
+  // Report =====================================================================
+
+  public String report() {
+    return String.format(
+      "DLX timing: %d cycles, %d instructions, CPI %.3f\n" +
+      "  L1D %d B, %d B lines, %d-way: %d accesses, %d misses (%.2f%%)\n" +
+      "  branches: %d conditional, %d mispredicted (%.2f%%)\n",
+      cycles,
+      instructions,
+      cpi(),
+      cacheBytes,
+      lineBytes,
+      ways,
+      accesses,
+      misses,
+      accesses == 0 ? 0 : 100.0 * misses / accesses,
+      branches,
+      mispredicts,
+      branches == 0 ? 0 : 100.0 * mispredicts / branches
+    );
+  }
+}
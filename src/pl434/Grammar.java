@@ -0,0 +1,329 @@
+package pl434;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import pl434.Token.Kind;
+
+// Analysis of the grammar written into NonTerminal: parses every production,
+// computes FIRST and FOLLOW sets to a fixpoint as bit masks over
+// Kind.ordinal() and checks that one token of lookahead decides between any
+// two alternatives. Repetitions and options are taken greedily, as the
+// parser's loops do, since the operand of not extends as far as it can and
+// so overlaps what follows every expression loop. Class initialization of
+// NonTerminal fails on a malformed production or an LL(1) conflict.
+final class Grammar {
+
+  private Grammar() {}
+
+  private static final Kind[] KINDS = Kind.values();
+
+  static {
+    if (KINDS.length > Long.SIZE) {
+      throw new IllegalStateException("more token kinds than bits in a long");
+    }
+  }
+
+  // Productions ================================================================
+
+  private static final int KIND = 0;
+  private static final int NONTERMINAL = 1;
+  private static final int SEQUENCE = 2;
+  private static final int CHOICE = 3;
+  private static final int REPEAT = 4; // { }
+  private static final int OPTION = 5; // [ ]
+
+  private static final class Node {
+
+    final int type;
+    Kind kind;
+    NonTerminal nt;
+    final List<Node> items = new ArrayList<>();
+
+    Node(int type) {
+      this.type = type;
+    }
+  }
+
+  // production parser, one instance per production
+  private static final class Parser {
+
+    private final NonTerminal owner;
+    private final Map<String, NonTerminal> nonTerminals;
+    private final String[] words;
+    private int at = 0;
+
+    Parser(NonTerminal owner, Map<String, NonTerminal> nonTerminals) {
+      this.owner = owner;
+      this.nonTerminals = nonTerminals;
+      this.words = owner.production.trim().split("\\s+");
+    }
+
+    Node parse() {
+      Node node = choice();
+      if (at < words.length) {
+        throw error("unexpected " + words[at]);
+      }
+      return node;
+    }
+
+    // sequence { | sequence }
+    private static final List<String> ENDS = List.of("|", ")", "}", "]");
+
+    private Node choice() {
+      Node first = sequence();
+      if (at == words.length || !words[at].equals("|")) {
+        return first;
+      }
+      Node choice = new Node(CHOICE);
+      choice.items.add(first);
+      while (at < words.length && words[at].equals("|")) {
+        at++;
+        choice.items.add(sequence());
+      }
+      return choice;
+    }
+
+    private Node sequence() {
+      Node sequence = new Node(SEQUENCE);
+      while (at < words.length && !ENDS.contains(words[at])) {
+        sequence.items.add(item());
+      }
+      if (sequence.items.isEmpty()) {
+        throw error("empty alternative");
+      }
+      return sequence.items.size() == 1 ? sequence.items.get(0) : sequence;
+    }
+
+    private Node item() {
+      String word = words[at++];
+      switch (word) {
+        case "(":
+          return close(choice(), ")");
+        case "{":
+          return wrap(REPEAT, close(choice(), "}"));
+        case "[":
+          return wrap(OPTION, close(choice(), "]"));
+        default:
+          break;
+      }
+      if (word.startsWith("<") && word.endsWith(">")) {
+        Node node = new Node(NONTERMINAL);
+        node.nt = nonTerminals.get(word.substring(1, word.length() - 1));
+        if (node.nt == null) {
+          throw error("no nonterminal " + word);
+        }
+        return node;
+      }
+      Node node = new Node(KIND);
+      try {
+        node.kind = Kind.valueOf(word);
+      } catch (IllegalArgumentException e) {
+        throw error("no token kind " + word);
+      }
+      return node;
+    }
+
+    private Node close(Node node, String bracket) {
+      if (at == words.length || !words[at].equals(bracket)) {
+        throw error("missing " + bracket);
+      }
+      at++;
+      return node;
+    }
+
+    private Node wrap(int type, Node body) {
+      Node node = new Node(type);
+      node.items.add(body);
+      return node;
+    }
+
+    private IllegalStateException error(String message) {
+      return new IllegalStateException(owner + ": " + message);
+    }
+  }
+
+  // Analysis ===================================================================
+
+  private static Node[] productions;
+  private static boolean[] nullable;
+
+  // fill in first and follow of every nonterminal, the last one is the start
+  static void analyze(NonTerminal[] nts) {
+    Map<String, NonTerminal> byName = new HashMap<>();
+    for (NonTerminal nt : nts) {
+      byName.put(nt.name(), nt);
+    }
+    productions = new Node[nts.length];
+    nullable = new boolean[nts.length];
+    for (NonTerminal nt : nts) {
+      productions[nt.ordinal()] = new Parser(nt, byName).parse();
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (NonTerminal nt : nts) {
+        Node production = productions[nt.ordinal()];
+        long first = nt.first | first(production);
+        boolean empty = nullable(production);
+        changed |= first != nt.first || empty != nullable[nt.ordinal()];
+        nt.first = first;
+        nullable[nt.ordinal()] = empty;
+      }
+    }
+
+    nts[nts.length - 1].follow = bit(Kind.EOF);
+    changed = true;
+    while (changed) {
+      changed = false;
+      for (NonTerminal nt : nts) {
+        changed |= follow(productions[nt.ordinal()], nt.follow);
+      }
+    }
+
+    for (NonTerminal nt : nts) {
+      check(nt, productions[nt.ordinal()], nt.follow);
+    }
+    productions = null;
+    nullable = null;
+  }
+
+  private static long first(Node node) {
+    switch (node.type) {
+      case KIND:
+        return bit(node.kind);
+      case NONTERMINAL:
+        return node.nt.first;
+      case SEQUENCE:
+        long first = 0;
+        for (Node item : node.items) {
+          first |= first(item);
+          if (!nullable(item)) {
+            break;
+          }
+        }
+        return first;
+      default:
+        long union = 0;
+        for (Node item : node.items) {
+          union |= first(item);
+        }
+        return union;
+    }
+  }
+
+  private static boolean nullable(Node node) {
+    switch (node.type) {
+      case KIND:
+        return false;
+      case NONTERMINAL:
+        return nullable[node.nt.ordinal()];
+      case SEQUENCE:
+        for (Node item : node.items) {
+          if (!nullable(item)) {
+            return false;
+          }
+        }
+        return true;
+      case CHOICE:
+        for (Node item : node.items) {
+          if (nullable(item)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  // add what can follow each nonterminal in node, given what follows node,
+  // true if any follow set grew
+  private static boolean follow(Node node, long after) {
+    switch (node.type) {
+      case KIND:
+        return false;
+      case NONTERMINAL:
+        long follow = node.nt.follow | after;
+        boolean grew = follow != node.nt.follow;
+        node.nt.follow = follow;
+        return grew;
+      case SEQUENCE:
+        boolean changed = false;
+        for (int i = node.items.size() - 1; i >= 0; i--) {
+          Node item = node.items.get(i);
+          changed |= follow(item, after);
+          after = first(item) | (nullable(item) ? after : 0);
+        }
+        return changed;
+      case REPEAT:
+        Node body = node.items.get(0);
+        return follow(body, first(body) | after);
+      default:
+        boolean any = false;
+        for (Node item : node.items) {
+          any |= follow(item, after);
+        }
+        return any;
+    }
+  }
+
+  // every choice in node is made by the next token
+  private static void check(NonTerminal nt, Node node, long after) {
+    switch (node.type) {
+      case SEQUENCE:
+        for (int i = node.items.size() - 1; i >= 0; i--) {
+          Node item = node.items.get(i);
+          check(nt, item, after);
+          after = first(item) | (nullable(item) ? after : 0);
+        }
+        break;
+      case CHOICE:
+        long seen = 0;
+        for (Node item : node.items) {
+          long first = first(item) | (nullable(item) ? after : 0);
+          conflict(nt, "alternatives", seen & first);
+          seen |= first;
+          check(nt, item, after);
+        }
+        break;
+      case REPEAT:
+      case OPTION:
+        Node body = node.items.get(0);
+        if (nullable(body)) {
+          throw new IllegalStateException(nt + ": { } or [ ] of nothing");
+        }
+        check(nt, body, node.type == REPEAT ? first(body) | after : after);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void conflict(NonTerminal nt, String where, long kinds) {
+    if (kinds != 0) {
+      throw new IllegalStateException(
+        "LL(1) conflict in " + nt + " " + where + " on " + kinds(kinds)
+      );
+    }
+  }
+
+  // Sets =======================================================================
+
+  static long bit(Kind kind) {
+    return 1L << kind.ordinal();
+  }
+
+  static EnumSet<Kind> kinds(long bits) {
+    EnumSet<Kind> set = EnumSet.noneOf(Kind.class);
+    for (Kind kind : KINDS) {
+      if ((bits & bit(kind)) != 0) {
+        set.add(kind);
+      }
+    }
+    return set;
+  }
+}
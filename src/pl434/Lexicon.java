@@ -0,0 +1,149 @@
+package pl434;
+
+import pl434.Token.Kind;
+
+// Fixed lexemes of the language for the Scanner and Kind.getKind(). Keywords
+// are found by a perfect hash of their first and last character and length,
+// one and two character operators and delimiters by table. All of it is
+// built from Token.Kind, class initialization fails if the hash collides.
+final class Lexicon {
+
+  private Lexicon() {}
+
+  private static final Kind[] SINGLE = new Kind[128];
+  private static final Kind[] PAIR = new Kind[128 * 128];
+  private static final Kind[] KEYWORDS = new Kind[64];
+
+  private static int keywordHash(char first, char last, int length) {
+    return (2 * first + 9 * last + length) & (KEYWORDS.length - 1);
+  }
+
+  static {
+    for (Kind kind : Kind.values()) {
+      String lexeme = kind.defaultLexeme();
+      if (lexeme.isEmpty()) {
+        continue;
+      }
+      if (isIdentStart(lexeme.charAt(0))) {
+        int h = keywordHash(
+          lexeme.charAt(0),
+          lexeme.charAt(lexeme.length() - 1),
+          lexeme.length()
+        );
+        if (KEYWORDS[h] != null) {
+          throw new IllegalStateException(
+            "keyword hash collision: " + lexeme + ", " + KEYWORDS[h]
+          );
+        }
+        KEYWORDS[h] = kind;
+      } else if (lexeme.length() == 1) {
+        SINGLE[lexeme.charAt(0)] = kind;
+      } else if (lexeme.length() == 2) {
+        PAIR[lexeme.charAt(0) * 128 + lexeme.charAt(1)] = kind;
+      } else {
+        throw new IllegalStateException("no table for lexeme " + lexeme);
+      }
+    }
+  }
+
+  // kind of the one character lexeme c, null if there is none
+  static Kind single(char c) {
+    return c < 128 ? SINGLE[c] : null;
+  }
+
+  // kind of the two character lexeme, null if there is none
+  static Kind pair(char first, char second) {
+    return first < 128 && second < 128 ? PAIR[first * 128 + second] : null;
+  }
+
+  // keyword spelled by s[start, start + n), null if it is none
+  static Kind keyword(char[] s, int start, int n) {
+    Kind kind = candidate(s[start], s[start + n - 1], n);
+    if (kind == null) {
+      return null;
+    }
+    String lexeme = kind.defaultLexeme();
+    for (int i = 0; i < n; i++) {
+      if (lexeme.charAt(i) != s[start + i]) {
+        return null;
+      }
+    }
+    return kind;
+  }
+
+  static Kind keyword(String s) {
+    Kind kind = candidate(s.charAt(0), s.charAt(s.length() - 1), s.length());
+    return kind != null && kind.defaultLexeme().equals(s) ? kind : null;
+  }
+
+  // the only keyword that could have length n, first and last, if any
+  private static Kind candidate(char first, char last, int n) {
+    Kind kind = KEYWORDS[keywordHash(first, last, n)];
+    return kind != null && kind.defaultLexeme().length() == n ? kind : null;
+  }
+
+  // Classification =============================================================
+
+  // Kind.getKind(): the first of INT_VAL, FLOAT_VAL, a fixed lexeme and IDENT
+  // that matches, ERROR if none does
+  static Kind classify(String s) {
+    int n = s.length();
+    if (n == 0) {
+      return Kind.ERROR;
+    }
+    // -?[0-9]+ and -?[0-9]*\.[0-9]+
+    int digits = s.charAt(0) == '-' ? 1 : 0;
+    int end = skipDigits(s, digits);
+    if (end == n && end > digits) {
+      return Kind.INT_VAL;
+    }
+    if (end < n && s.charAt(end) == '.') {
+      int fraction = skipDigits(s, end + 1);
+      if (fraction == n && fraction > end + 1) {
+        return Kind.FLOAT_VAL;
+      }
+    }
+
+    Kind kind = null;
+    if (n == 1) {
+      kind = single(s.charAt(0));
+    } else if (n == 2) {
+      kind = pair(s.charAt(0), s.charAt(1));
+    }
+    if (kind == null) {
+      kind = keyword(s);
+    }
+    if (kind != null) {
+      return kind;
+    }
+
+    // [a-zA-Z_$][a-zA-Z0-9_$]*
+    if (!isIdentStart(s.charAt(0))) {
+      return Kind.ERROR;
+    }
+    for (int i = 1; i < n; i++) {
+      char c = s.charAt(i);
+      if (!isIdentStart(c) && !isDigit(c)) {
+        return Kind.ERROR;
+      }
+    }
+    return Kind.IDENT;
+  }
+
+  private static int skipDigits(String s, int i) {
+    while (i < s.length() && isDigit(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  static boolean isIdentStart(char c) {
+    return (
+      (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+    );
+  }
+}
@@ -0,0 +1,104 @@
+package pl434;
+
+import java.util.Arrays;
+
+// Interned identifiers of one compilation. Every distinct name gets a dense
+// int id, the first one 0, which the Scanner hands out with IDENT tokens and
+// declared Symbols keep, so the symbol table and liveness work on ints and
+// share one String per name. Each Scanner interns into its own table, which
+// the CompilationContext of the Compiler reading it takes over, so nothing is
+// shared or locked between compilations and a table goes with its compilation.
+public final class Names {
+
+  private String[] names = new String[64];
+  private int[] hashes = new int[64];
+  private int count = 0;
+
+  // open addressing, id + 1 per slot, 0 when empty
+  private int[] slots = new int[128];
+
+  // id of the name s[start, start + n), without making a String unless the
+  // name is new
+  public int id(char[] s, int start, int n) {
+    int h = 0;
+    for (int i = start; i < start + n; i++) {
+      h = 31 * h + s[i];
+    }
+    int mask = slots.length - 1;
+    for (int slot = spread(h) & mask;; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) {
+        return add(new String(s, start, n), h, slot);
+      }
+      if (hashes[id] == h && equals(names[id], s, start, n)) {
+        return id;
+      }
+    }
+  }
+
+  public int id(String name) {
+    int h = name.hashCode();
+    int mask = slots.length - 1;
+    for (int slot = spread(h) & mask;; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) {
+        return add(name, h, slot);
+      }
+      if (hashes[id] == h && names[id].equals(name)) {
+        return id;
+      }
+    }
+  }
+
+  public String name(int id) {
+    return names[id];
+  }
+
+  // ids handed out so far, every id is below it
+  public int count() {
+    return count;
+  }
+
+  private int add(String name, int h, int slot) {
+    if (count == names.length) {
+      names = Arrays.copyOf(names, 2 * count);
+      hashes = Arrays.copyOf(hashes, 2 * count);
+    }
+    int id = count++;
+    names[id] = name;
+    hashes[id] = h;
+    slots[slot] = id + 1;
+    if (2 * count > slots.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    slots = new int[2 * slots.length];
+    int mask = slots.length - 1;
+    for (int id = 0; id < count; id++) {
+      int slot = spread(hashes[id]) & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(String name, char[] s, int start, int n) {
+    if (name.length() != n) {
+      return false;
+    }
+    for (int i = 0; i < n; i++) {
+      if (name.charAt(i) != s[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -1,361 +1,115 @@
 package pl434;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
 
 public enum NonTerminal {
-  // nonterminal FIRST sets for grammar
+  // grammar, one EBNF production per nonterminal over Token.Kind names and
+  // <NonTerminal> names: | alternatives, { } repetition, [ ] option, ( )
+  // group. FIRST and FOLLOW sets are computed from it by Grammar.
 
   // operators
   REL_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.EQUAL_TO);
-        add(Token.Kind.NOT_EQUAL);
-        add(Token.Kind.LESS_THAN);
-        add(Token.Kind.LESS_EQUAL);
-        add(Token.Kind.GREATER_EQUAL);
-        add(Token.Kind.GREATER_THAN);
-      }
-    }
+    "EQUAL_TO | NOT_EQUAL | LESS_THAN | LESS_EQUAL | GREATER_EQUAL | " +
+    "GREATER_THAN"
   ),
   ASSIGN_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.ASSIGN);
-        add(Token.Kind.ADD_ASSIGN);
-        add(Token.Kind.DIV_ASSIGN);
-        add(Token.Kind.MOD_ASSIGN);
-        add(Token.Kind.MUL_ASSIGN);
-        add(Token.Kind.POW_ASSIGN);
-        add(Token.Kind.SUB_ASSIGN);
-      }
-    }
-  ),
-  POW_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.POW);
-      }
-    }
-  ),
-  ADD_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.ADD);
-        add(Token.Kind.SUB);
-        add(Token.Kind.OR);
-      }
-    }
-  ),
-  MULT_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.MUL);
-        add(Token.Kind.DIV);
-        add(Token.Kind.AND);
-        add(Token.Kind.MOD);
-      }
-    }
-  ),
-  UNARY_OP(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.UNI_DEC);
-        add(Token.Kind.UNI_INC);
-      }
-    }
+    "ASSIGN | ADD_ASSIGN | DIV_ASSIGN | MOD_ASSIGN | MUL_ASSIGN | " +
+    "POW_ASSIGN | SUB_ASSIGN"
   ),
+  POW_OP("POW"),
+  ADD_OP("ADD | SUB | OR"),
+  MULT_OP("MUL | DIV | AND | MOD"),
+  UNARY_OP("UNI_DEC | UNI_INC"),
 
   // literals (integer and float handled by Scanner)
-  BOOL_LIT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.TRUE);
-        add(Token.Kind.FALSE);
-      }
-    }
-  ),
-  LITERAL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        add(Token.Kind.INT_VAL);
-        add(Token.Kind.FLOAT_VAL);
-        add(Token.Kind.TRUE);
-        add(Token.Kind.FALSE);
-      }
-    }
-  ),
+  BOOL_LIT("TRUE | FALSE"),
+  LITERAL("INT_VAL | FLOAT_VAL | <BOOL_LIT>"),
 
   // designator (ident handled by Scanner)
-  DESIGNATOR(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement designator FIRST set");
-        add(Token.Kind.IDENT);
-      }
-    }
-  ),
-
-  ADD_EXPRESSION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement expression FIRST set");
-      }
-    }
-  ),
-  MULT_EXPRESSION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement expression FIRST set");
-      }
-    }
-  ),
-  POW_EXPRESSION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement expression FIRST set");
-      }
-    }
-  ),
-  RELATION_EXPRESSION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
+  DESIGNATOR("IDENT { OPEN_BRACKET <RELATION_EXPRESSION> CLOSE_BRACKET }"),
 
-      {
-        //throw new RuntimeException("implement term FIRST set");
-      }
-    }
-  ),
+  ADD_EXPRESSION("<MULT_EXPRESSION> { <ADD_OP> <MULT_EXPRESSION> }"),
+  MULT_EXPRESSION("<POW_EXPRESSION> { <MULT_OP> <POW_EXPRESSION> }"),
+  POW_EXPRESSION("<GROUP_EXPRESSION> { <POW_OP> <GROUP_EXPRESSION> }"),
+  RELATION_EXPRESSION("<ADD_EXPRESSION> { <REL_OP> <ADD_EXPRESSION> }"),
   GROUP_EXPRESSION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement expression FIRST set");
-      }
-    }
-  ),
-  RELATION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement relation FIRST set");
-        add(Token.Kind.OPEN_PAREN);
-      }
-    }
-  ),
-  CONDITION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement condition FIRST set");
-      }
-    }
+    "<LITERAL> | <DESIGNATOR> | NOT <RELATION_EXPRESSION> | <RELATION> | " +
+    "<FUNC_CALL>"
   ),
+  RELATION("OPEN_PAREN <RELATION_EXPRESSION> CLOSE_PAREN"),
+  CONDITION("<RELATION>"),
 
   // statements
-  ASSIGN(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement assign FIRST set");
-        add(Token.Kind.LET);
-      }
-    }
-  ),
+  ASSIGN("LET <DESIGNATOR> ( <ASSIGN_OP> <RELATION_EXPRESSION> | <UNARY_OP> )"),
   FUNC_CALL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement funcCall FIRST set");
-        add(Token.Kind.CALL);
-      }
-    }
-  ),
-  IF_STAT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement ifStat FIRST set");
-        add(Token.Kind.IF);
-      }
-    }
-  ),
-  WHILE_STAT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement whileStat FIRST set");
-        add(Token.Kind.WHILE);
-      }
-    }
-  ),
-  REPEAT_STAT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement repeatStat FIRST set");
-        add(Token.Kind.REPEAT);
-      }
-    }
-  ),
-  RETURN_STAT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement returnStat FIRST set");
-        add(Token.Kind.RETURN);
-      }
-    }
+    "CALL IDENT OPEN_PAREN " +
+    "[ <RELATION_EXPRESSION> { COMMA <RELATION_EXPRESSION> } ] CLOSE_PAREN"
   ),
+  IF_STAT("IF <RELATION> THEN <STAT_SEQ> [ ELSE <STAT_SEQ> ] FI"),
+  WHILE_STAT("WHILE <RELATION> DO <STAT_SEQ> OD"),
+  REPEAT_STAT("REPEAT <STAT_SEQ> UNTIL <RELATION>"),
+  RETURN_STAT("RETURN [ <RELATION_EXPRESSION> ]"),
   STATEMENT(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement statement FIRST set");
-        add(Token.Kind.RETURN);
-        add(Token.Kind.REPEAT);
-        add(Token.Kind.WHILE);
-        add(Token.Kind.IF);
-        add(Token.Kind.LET);
-        add(Token.Kind.CALL);
-      }
-    }
-  ),
-  STAT_SEQ(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement statSeq FIRST set");
-
-      }
-    }
+    "<ASSIGN> | <FUNC_CALL> | <IF_STAT> | <WHILE_STAT> | <REPEAT_STAT> | " +
+    "<RETURN_STAT>"
   ),
+  STAT_SEQ("<STATEMENT> SEMICOLON { <STATEMENT> SEMICOLON }"),
 
   // declarations
-  TYPE_DECL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement typeDecl FIRST set");
-        add(Token.Kind.INT);
-        add(Token.Kind.FLOAT);
-        add(Token.Kind.BOOL);
-        add(Token.Kind.VOID);
-      }
-    }
-  ),
+  TYPE_DECL("VOID | INT | FLOAT | BOOL"),
   VAR_DECL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement varDecl FIRST set");
-        add(Token.Kind.INT);
-        add(Token.Kind.FLOAT);
-        add(Token.Kind.BOOL);
-      }
-    }
-  ),
-  PARAM_DECL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement paramDecl FIRST set");
-        add(Token.Kind.INT);
-        add(Token.Kind.FLOAT);
-        add(Token.Kind.BOOL);
-      }
-    }
+    "( INT | FLOAT | BOOL ) { OPEN_BRACKET INT_VAL CLOSE_BRACKET } " +
+    "IDENT { COMMA IDENT } SEMICOLON"
   ),
-
-  // functions
+  PARAM_DECL("( INT | FLOAT | BOOL ) { OPEN_BRACKET CLOSE_BRACKET } IDENT"),
   FORMAL_PARAM(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement formalParam FIRST set");
-        add(Token.Kind.OPEN_PAREN);
-      }
-    }
-  ),
-  FUNC_BODY(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement funcBody FIRST set");
-        add(Token.Kind.OPEN_BRACE);
-      }
-    }
-  ),
-  FUNC_DECL(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
-
-      {
-        //throw new RuntimeException("implement funcDecl FIRST set");
-        add(Token.Kind.FUNC);
-      }
-    }
+    "OPEN_PAREN [ <PARAM_DECL> { COMMA <PARAM_DECL> } ] CLOSE_PAREN"
   ),
+  FUNC_BODY("OPEN_BRACE { <VAR_DECL> } <STAT_SEQ> CLOSE_BRACE SEMICOLON"),
+  FUNC_DECL("FUNC IDENT <FORMAL_PARAM> COLON <TYPE_DECL> <FUNC_BODY>"),
 
   // computation
   COMPUTATION(
-    new HashSet<Token.Kind>() {
-      private static final long serialVersionUID = 1L;
+    "MAIN { <VAR_DECL> } { <FUNC_DECL> } " +
+    "OPEN_BRACE <STAT_SEQ> CLOSE_BRACE PERIOD"
+  );
+
+  final String production;
+
+  // sets as bits by Kind.ordinal(), filled in by Grammar
+  long first;
+  long follow;
+  private Set<Token.Kind> firstSet;
+  private Set<Token.Kind> followSet;
+
+  private NonTerminal(String production) {
+    this.production = production;
+  }
 
-      {
-        //throw new RuntimeException("implement computation FIRST set");
-      }
+  static {
+    Grammar.analyze(values());
+    for (NonTerminal nt : values()) {
+      nt.firstSet = Collections.unmodifiableSet(Grammar.kinds(nt.first));
+      nt.followSet = Collections.unmodifiableSet(Grammar.kinds(nt.follow));
     }
-  );
+  }
 
-  private final Set<Token.Kind> firstSet = new HashSet<>();
+  // whether kind can start this nonterminal, one bit test
+  public final boolean has(Token.Kind kind) {
+    return (first >>> kind.ordinal() & 1) != 0;
+  }
 
-  private NonTerminal(Set<Token.Kind> set) {
-    firstSet.addAll(set);
+  // whether kind can come right after this nonterminal
+  public final boolean isFollowedBy(Token.Kind kind) {
+    return (follow >>> kind.ordinal() & 1) != 0;
   }
 
   public final Set<Token.Kind> firstSet() {
     return firstSet;
   }
+
+  public final Set<Token.Kind> followSet() {
+    return followSet;
+  }
 }
@@ -4,14 +4,14 @@ public class RegisterAlloc {
 
   // This class holds the instruction number of when a variable was assigned to a register
   Integer instruction_number;
-  String variable;
+  int variable; // CompilationContext.liveKey()
 
-  public RegisterAlloc(Integer instruction_number, String variable) {
+  public RegisterAlloc(Integer instruction_number, int variable) {
     this.instruction_number = instruction_number;
     this.variable = variable;
   }
 
-  public String toString() {
-    return instruction_number + ": " + variable;
+  public String toString(CompilationContext context) {
+    return instruction_number + ": " + context.liveName(variable);
   }
 }
@@ -1,35 +1,143 @@
 package pl434;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 import pl434.Token.Kind;
 
+// Scanner over the whole source in one char[]. Characters are classified by
+// table, words run through a DFA and the Lexicon tells keywords and
+// operators, so scanning builds no Strings: tokens refer to their text in
+// the buffer.
 public class Scanner implements Iterator<Token> {
 
-  private BufferedReader input; // buffered reader to read file
-  private boolean closed; // flag for whether reader is closed or not
+  // Tables =====================================================================
 
-  private int lineNum; // current line number
-  private int charPos; // character offset on current line
+  // character classes, anything not ASCII is OTHER
+  private static final byte SPACE = 0;
+  private static final byte DELIM = 1; // single character tokens
+  private static final byte OP = 2;
+  private static final byte DIGIT = 3;
+  private static final byte LETTER = 4;
+  private static final byte OTHER = 5;
+  private static final byte DOT = 6; // '.' continuing a number, DFA only
+
+  private static final byte[] CLASS = new byte[128];
+
+  // word DFA over DIGIT, LETTER, OTHER and DOT
+  private static final int START = 0;
+  private static final int INT = 1;
+  private static final int POINT = 2; // digits and '.'
+  private static final int FLOAT = 3;
+  private static final int IDENT = 4;
+  private static final int ERROR = 5;
+  private static final int MINUS = 6; // after a '-' followed by a digit
+
+  // prettier-ignore
+  private static final byte[][] WORD = {
+    //          DIGIT  LETTER OTHER  DOT
+    /* START */ { INT,   IDENT, ERROR, ERROR },
+    /* INT   */ { INT,   ERROR, ERROR, POINT },
+    /* POINT */ { FLOAT, ERROR, ERROR, ERROR },
+    /* FLOAT */ { FLOAT, ERROR, ERROR, ERROR },
+    /* IDENT */ { IDENT, IDENT, ERROR, ERROR },
+    /* ERROR */ { ERROR, ERROR, ERROR, ERROR },
+    /* MINUS */ { INT,   ERROR, ERROR, ERROR },
+  };
+
+  private static final Kind[] ACCEPT = {
+    Kind.ERROR,
+    Kind.INT_VAL,
+    Kind.ERROR,
+    Kind.FLOAT_VAL,
+    Kind.IDENT,
+    Kind.ERROR,
+    Kind.ERROR,
+  };
+
+  static {
+    Arrays.fill(CLASS, OTHER);
+    for (char c : " \t\n\r".toCharArray()) {
+      CLASS[c] = SPACE;
+    }
+    for (char c : "{}[]().,:;".toCharArray()) {
+      CLASS[c] = DELIM;
+    }
+    for (char c : "+*/%=-<>^!".toCharArray()) {
+      CLASS[c] = OP;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      CLASS[c] = DIGIT;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      CLASS[c] = LETTER;
+      CLASS[c - 'a' + 'A'] = LETTER;
+    }
+    CLASS['_'] = LETTER;
+    CLASS['$'] = LETTER;
+
+  }
+
+  // Scanner ====================================================================
+
+  private final char[] source;
+  private final int length;
+  private int pos = 0; // next character, the old lookahead
+
+  // positions as the character reader reported them: lineNum counts every
+  // '\n' up to and including the next character, charPos restarts at 0 on a
+  // '\n' and did not count the first character that was not one
+  private int lines = 0; // '\n' before pos
+  private int lineStart = -1; // last '\n' before pos
+  private final int firstChar;
+
+  // the IDENTs of this source, handed on to the compilation reading it
+  private final Names names = new Names();
 
-  private String scan; // current lexeme being scanned in
-  private int nextChar; // contains the next char (-1 == EOF))
-  boolean firstTime;
   // reader will be a FileReader over the source file
   public Scanner(Reader reader) {
-    input = new BufferedReader(reader);
-    charPos = 0;
-    lineNum = 0;
-    closed = false;
-    firstTime = true;
-    readChar();
+    this(readAll(reader));
+  }
+
+  public Scanner(char[] source) {
+    this(source, source.length);
+  }
+
+  // scan source[0, length)
+  public Scanner(char[] source, int length) {
+    this.source = source;
+    this.length = length;
+    int first = 0;
+    while (first < length && source[first] == '\n') {
+      first++;
+    }
+    this.firstChar = first;
+  }
+
+  private static char[] readAll(Reader reader) {
+    char[] buffer = new char[8192];
+    int n = 0;
+    try (Reader input = reader) {
+      int read;
+      while ((read = input.read(buffer, n, buffer.length - n)) >= 0) {
+        n += read;
+        if (n == buffer.length) {
+          buffer = Arrays.copyOf(buffer, 2 * n);
+        }
+      }
+    } catch (IOException e) {
+      // scan what was read, as if the file ended there
+    }
+    return Arrays.copyOf(buffer, n);
   }
 
   // signal an error message
   public void Error(String msg, Exception e) {
+    error(lineNumber(), charPosition(), msg, e);
+  }
+
+  private void error(int lineNum, int charPos, String msg, Exception e) {
     System.err.println("Scanner: Line - " + lineNum + ", Char - " + charPos);
     if (e != null) {
       e.printStackTrace();
@@ -37,192 +145,228 @@ public class Scanner implements Iterator<Token> {
     System.err.println(msg);
   }
 
-  /*
-   * helper function for reading a single char from input
-   * can be used to catch and handle any IOExceptions,
-   * advance the charPos or lineNum, etc.
-   */
-  private int readChar() {
-    int currChar = nextChar;
-    try {
-      nextChar = input.read();
-      if (nextChar == '\n') {
-        lineNum++;
-        charPos = 0;
-      } else {
-        if(firstTime){
-          firstTime = false;
-        }else{
-          charPos++;
-        }
-      }
-      if (nextChar == -1) {
-        closed = true;
-        input.close();
-      }
-    } catch (IOException e) {
-      nextChar = -1;
-      closed = true;
+  private int lineNumber() {
+    return pos < length && source[pos] == '\n' ? lines + 1 : lines;
+  }
+
+  private int charPosition() {
+    if (pos < length && source[pos] == '\n') {
+      return 0;
     }
-    return currChar;
+    boolean first = firstChar > lineStart && firstChar <= pos;
+    return pos - lineStart - (first ? 1 : 0);
+  }
+
+  private static int classOf(char c) {
+    return c < 128 ? CLASS[c] : OTHER;
   }
 
   /*
    * function to query whether or not more characters can be read
-   * depends on closed and nextChar
    */
   @Override
   public boolean hasNext() {
-    return !closed;
+    return pos < length;
   }
 
   /*
    *	returns next Token from input
    *
    *  invariants:
-   *  1. call assumes that nextChar is already holding an unread character
-   *  2. return leaves nextChar containing an untokenized character
-   *  3. closes reader when emitting EOF
+   *  1. pos is at an unscanned character or the end
+   *  2. return leaves pos after the token and the whitespace behind it
+   *  3. keeps returning EOF at the end
    */
   @Override
   public Token next() {
-    skipToWord();
-    if (nextChar == -1) {
-      closed = true;
-      return Token.EOF(lineNum, charPos);
-    }
-    if (!hasNext()) {
-      throw new NoSuchElementException();
-    }
-    Token token;
-    if (isRegionDelimiter() || isRecordDelimiter()) {
-      token = new Token("" + (char) readChar(), lineNum, charPos);
-    } else if (isOperator()) {
-      String nextOperator = nextOperator();
-      if (nextOperator.equals("-") && isNumber()) {
-        nextOperator += nextWord();
-        token = new Token(nextOperator, lineNum, charPos);
-      } else if (nextOperator.startsWith("//")) {
-        skipLine();
-        return next();
-      } else if (nextOperator.startsWith("/*")) {
-        if (!endOfBlockComment()) {
-          token = new Token("", lineNum, charPos);
-        } else {
-          return next();
-        }
-      }
-      token = new Token(nextOperator, lineNum, charPos);
-    } else {
-      token = new Token(nextWord(), lineNum, charPos);
+    scanToken();
+    Token token = tokenKind == Kind.EOF
+      ? Token.EOF(tokenLine, tokenChar)
+      : new Token(
+        tokenKind,
+        source,
+        tokenStart,
+        tokenLength,
+        names,
+        tokenId,
+        tokenLine,
+        tokenChar
+      );
+    if (tokenKind == Kind.ERROR) {
+      reportError(token);
     }
-    if (token.kind() == Kind.ERROR) {
-      Error("Error on Lexeme: " + token.lexeme(), new Exception());
-    }
-    skipToWord();
     return token;
   }
 
-  private void skipToWord() {
-    while (hasNext() && isEmptySpace()) {
-      readChar();
-    }
+  // next token packed into into[at, at + TokenStream.FIELDS) for a
+  // TokenStream, which reports it if it is an error
+  void scan(int[] into, int at) {
+    scanToken();
+    into[at + TokenStream.KIND] = tokenKind.ordinal();
+    into[at + TokenStream.START] = tokenStart;
+    into[at + TokenStream.LENGTH] = tokenLength;
+    into[at + TokenStream.ID] = tokenId;
+    into[at + TokenStream.LINE] = tokenLine;
+    into[at + TokenStream.CHAR] = tokenChar;
   }
 
-  private void skipLine() {
-    while (nextChar != '\n' && nextChar != -1) {
-      readChar();
-    }
-  }
-
-  private String nextWord() {
-    String fullWord = "";
-    boolean isNum = true;
-    boolean entered = false;
-    while (
-      nextChar != -1 &&
-      !isRegionDelimiter() &&
-      !isRecordDelimiter() &&
-      !isEmptySpace() &&
-      !isOperator()
-    ) {
-      entered = true;
-      if (!isNumber()) {
-        isNum = false;
-      }
-      fullWord += (char) readChar();
-    }
-    if (entered && isNum && nextChar == '.') {
-      fullWord += (char) readChar() + nextWord();
-    }
-    return fullWord;
+  char[] source() {
+    return source;
   }
 
-  private String nextOperator() {
-    String fullOperator = "";
-    fullOperator += (char) readChar();
-    if (fullOperator.equals("/") && (nextChar == '/' || nextChar == '*')) {
-      return fullOperator + (char) readChar();
-    }
-    if (
-      isOperator() && Kind.getKind(fullOperator + (char) nextChar) != Kind.ERROR
-    ) {
-      fullOperator += (char) readChar();
-    }
-    return fullOperator;
+  // the ids of the IDENTs scanned so far
+  Names names() {
+    return names;
   }
 
-  private boolean isRegionDelimiter() {
-    return (
-      nextChar == '{' ||
-      nextChar == '}' ||
-      nextChar == '[' ||
-      nextChar == ']' ||
-      nextChar == '(' ||
-      nextChar == ')'
+  // the message next() prints for an error token, at the position the
+  // scanner had right after it
+  void reportError(Token token) {
+    error(
+      token.lineNumber(),
+      token.charPosition() + token.lexeme().length(),
+      "Error on Lexeme: " + token.lexeme(),
+      new Exception()
     );
   }
 
-  private boolean isRecordDelimiter() {
-    return (
-      nextChar == '.' || nextChar == ',' || nextChar == ':' || nextChar == ';'
-    );
+  // the last token scanned
+  private Kind tokenKind;
+  private int tokenStart;
+  private int tokenLength;
+  private int tokenId; // Names id of an IDENT, -1 otherwise
+  private int tokenLine;
+  private int tokenChar;
+
+  private void scanToken() {
+    while (true) {
+      skipSpace();
+      tokenStart = pos;
+      if (pos == length) {
+        tokenKind = Kind.EOF;
+        tokenLength = 0;
+        tokenId = -1;
+        tokenLine = lineNumber();
+        tokenChar = charPosition();
+        return;
+      }
+      char c = source[pos++];
+      int cls = classOf(c);
+      if (cls == DELIM) {
+        token(Lexicon.single(c));
+      } else if (cls == OP) {
+        char next = pos < length ? source[pos] : 0; // 0 is no OP or DIGIT
+        if (c == '/' && (next == '/' || next == '*')) {
+          pos++;
+          if (next == '/') {
+            skipLine();
+            continue;
+          }
+          if (skipBlockComment()) {
+            continue;
+          }
+          // unterminated, the comment start is the token, placed at the end
+          token(Kind.ERROR);
+          tokenLength = 2;
+          tokenChar += pos - tokenStart - 2;
+        } else if (classOf(next) == OP && Lexicon.pair(c, next) != null) {
+          pos++;
+          token(Lexicon.pair(c, next));
+        } else if (c == '-' && classOf(next) == DIGIT) {
+          token(ACCEPT[scanWord(MINUS)]);
+        } else {
+          Kind kind = Lexicon.single(c);
+          token(kind != null ? kind : Kind.ERROR);
+        }
+      } else {
+        pos--;
+        int state = scanWord(START);
+        Kind kind = ACCEPT[state];
+        if (state == IDENT) {
+          Kind keyword = Lexicon.keyword(source, tokenStart, pos - tokenStart);
+          if (keyword != null) {
+            kind = keyword;
+          }
+        }
+        token(kind);
+      }
+      skipSpace();
+      return;
+    }
   }
 
-  private boolean isEmptySpace() {
-    return (
-      nextChar == ' ' || nextChar == '\n' || nextChar == '\t' || nextChar == 13
-    );
+  // the token from tokenStart to pos, positioned like the old scanner did:
+  // on the line of the next character, at its charPos minus the lexeme
+  private void token(Kind kind) {
+    tokenKind = kind;
+    tokenLength = pos - tokenStart;
+    tokenId =
+      kind == Kind.IDENT ? names.id(source, tokenStart, tokenLength) : -1;
+    tokenLine = lineNumber();
+    tokenChar =
+      charPosition() -
+      tokenLength -
+      (kind == Kind.ERROR ? Token.UNRECOGNIZED.length() : 0);
   }
 
-  private boolean isOperator() {
-    return (
-      nextChar == '+' ||
-      nextChar == '*' ||
-      nextChar == '/' ||
-      nextChar == '%' ||
-      nextChar == '=' ||
-      nextChar == '-' ||
-      nextChar == '<' ||
-      nextChar == '>' ||
-      nextChar == '^' ||
-      nextChar == '!'
-    );
+  // Words ======================================================================
+
+  // Run the word DFA from state over the characters up to whitespace, a
+  // delimiter or an operator. A '.' after a run of digits does not end the
+  // word, so 3.14 and 1.2.3 are one word each.
+  private int scanWord(int state) {
+    int run = pos; // start of the characters since the last '.'
+    boolean digits = true;
+    while (pos < length) {
+      char c = source[pos];
+      int cls = classOf(c);
+      if (cls <= OP) {
+        if (c != '.' || !digits || pos == run) {
+          break;
+        }
+        cls = DOT;
+        run = pos + 1;
+      } else if (cls != DIGIT) {
+        digits = false;
+      }
+      state = WORD[state][cls - DIGIT];
+      pos++;
+    }
+    return state;
   }
 
-  private boolean isNumber() {
-    return nextChar >= '0' && nextChar <= '9';
+  // Skipping ===================================================================
+
+  private void skipSpace() {
+    while (pos < length && classOf(source[pos]) == SPACE) {
+      newline(pos++);
+    }
   }
 
-  private boolean endOfBlockComment() {
-    int last = '&';
-    while (nextChar != '/' || last != '*') {
-      if (nextChar == -1) {
-        return false;
+  // up to the end of the line, leaving the '\n'
+  private void skipLine() {
+    while (pos < length && source[pos] != '\n') {
+      pos++;
+    }
+  }
+
+  // past the next "*/", false if there is none
+  private boolean skipBlockComment() {
+    int from = pos;
+    while (pos < length) {
+      char c = source[pos];
+      newline(pos++);
+      if (c == '/' && pos - 2 >= from && source[pos - 2] == '*') {
+        return true;
       }
-      last = readChar();
     }
-    readChar();
-    return true;
+    return false;
+  }
+
+  private void newline(int at) {
+    if (source[at] == '\n') {
+      lines++;
+      lineStart = at;
+    }
   }
 }
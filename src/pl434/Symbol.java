@@ -9,10 +9,11 @@ import types.*;
 public class Symbol {
 
   public String name;
+  public int id = -1; // Names id of name, given when it is declared
+  public int live = -1; // liveness id, see CompilationContext.liveKey()
   public Type type;
   public int address = -1;
   public int regno = -1;
-  public static int static_assign = 0;
   public int my_assign;
   public Instruction instruction;
   public boolean assign;
@@ -38,12 +39,13 @@ public class Symbol {
     OG = this;
   }
 
-  public Symbol(Symbol simba, boolean assign) {
+  // a version of simba, numbered by the next instruction of the compilation
+  public Symbol(Symbol simba, boolean assign, CompilationContext context) {
     if (this.equals(simba)) {
       throw new RuntimeErrorException(null, "Can't set Symbol to itself");
     }
     this.OG = simba.OG;
-    this.my_assign = Instruction.instruction_num;
+    this.my_assign = context.instructionCount();
     if (!assign && !simba.assign) {
       // If this variable has not been assigned yet
       instruction = null;
@@ -65,6 +67,7 @@ public class Symbol {
       simba.my_assign = this.my_assign;
     }
     this.name = simba.name;
+    this.id = simba.id;
     this.type = simba.type;
   }
 
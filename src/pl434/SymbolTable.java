@@ -1,91 +1,158 @@
 package pl434;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Stack;
+import java.util.Arrays;
 import types.*;
 
+// Scoped symbols in flat arrays indexed by the ids of one Names table. Every
+// declaration is an entry on one stack, which links to the declaration of the
+// same name it hides, so the innermost declaration of a name is one array
+// read away. The entry stack is also the undo log of popScope(), which
+// unlinks the entries of the scope it drops. Functions live in one global
+// overload table. Nothing is allocated but when an array or overload list
+// grows.
 public class SymbolTable {
 
-  // TODO: Create Symbol Table structure
-  Stack<HashMap<String, Symbol>> stack = new Stack<>();
-  HashMap<String, ArrayList<Symbol>> st = new HashMap<>();
+  // innermost entry declaring each name id, -1 for none
+  private int[] innermost = new int[64];
 
-  public SymbolTable() {
+  // declarations, innermost scope last
+  private Symbol[] symbols = new Symbol[64];
+  private int[] names = new int[64];
+  private int[] levels = new int[64];
+  private int[] hidden = new int[64]; // entry of the same name it hides, or -1
+  private int entries = 0;
+
+  // first entry of every open scope
+  private int[] scopeStart = new int[16];
+  private int depth = 0;
+
+  // overloads of each function name id, null for none
+  private ArrayList<Symbol>[] functions = newFunctions(64);
+
+  private final Names ids;
+
+  public SymbolTable(Names ids) {
     //throw new RuntimeException("Create Symbol Table and initialize predefined functions");
+    this.ids = ids;
+    Arrays.fill(innermost, -1);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static ArrayList<Symbol>[] newFunctions(int n) {
+    return (ArrayList<Symbol>[]) new ArrayList[n];
   }
 
   // lookup name in SymbolTable
   public Symbol lookup(String name) throws SymbolNotFoundError {
-    //loop through stacks
-    Stack<HashMap<String, Symbol>> currentStack = (Stack<HashMap<String, Symbol>>) stack.clone();
-    while (!currentStack.peek().containsKey(name) && currentStack.size() > 1) {
-      currentStack.pop();
-    }
-    if (currentStack.peek().containsKey(name)) {
-      return currentStack.peek().get(name);
+    return lookup(ids.id(name));
+  }
+
+  public Symbol lookup(int id) throws SymbolNotFoundError {
+    int entry = id < innermost.length ? innermost[id] : -1;
+    if (entry < 0) {
+      throw new SymbolNotFoundError(ids.name(id));
     }
-    throw new SymbolNotFoundError(name);
+    return symbols[entry];
   }
 
   public ArrayList<Symbol> lookupFunc(String name) throws SymbolNotFoundError {
-    if (st.containsKey(name)) {
-      return st.get(name);
+    return lookupFunc(ids.id(name));
+  }
+
+  public ArrayList<Symbol> lookupFunc(int id) throws SymbolNotFoundError {
+    ArrayList<Symbol> overloads = id < functions.length ? functions[id] : null;
+    if (overloads == null) {
+      throw new SymbolNotFoundError(ids.name(id));
     }
-    throw new SymbolNotFoundError(name);
+    return overloads;
   }
 
   // insert name in SymbolTable
   public Symbol insert(String name, Symbol sym) throws RedeclarationError {
+    return insert(ids.id(name), sym);
+  }
+
+  // sym takes id, the liveness of its versions goes by it
+  public Symbol insert(int id, Symbol sym) throws RedeclarationError {
+    sym.id = id;
     if (sym.type.getClass().equals(FuncType.class)) {
-      if (st.containsKey(name)) {
-        Iterator<Symbol> it = st.get(name).iterator();
-        FuncType symt = (FuncType) sym.type;
-        while (it.hasNext()) {
-          Symbol simba = it.next();
-          FuncType simt = (FuncType) simba.type;
-          if (symt.params().list.size() != simt.params().list.size()) {
-            continue;
-          }
-          boolean b = false;
-          for (int i = 0; i < simt.params().list.size(); i++) {
-            if (
-              !simt
-                .params()
-                .list.get(i)
-                .getClass()
-                .equals(symt.params().list.get(i).getClass())
-            ) {
-              b = true;
-              break;
-            }
-          }
-          if (b) {
-            continue;
-          }
-          throw new RedeclarationError(name);
-        }
-        st.get(name).add(sym);
-      } else {
-        st.put(name, new ArrayList<>());
-        st.get(name).add(sym);
+      return insertFunction(id, sym);
+    }
+    ensureName(id);
+    int entry = innermost[id];
+    if (entry >= 0 && levels[entry] == depth) {
+      throw new RedeclarationError(ids.name(id));
+    }
+    if (entries == symbols.length) {
+      int n = 2 * entries;
+      symbols = Arrays.copyOf(symbols, n);
+      names = Arrays.copyOf(names, n);
+      levels = Arrays.copyOf(levels, n);
+      hidden = Arrays.copyOf(hidden, n);
+    }
+    symbols[entries] = sym;
+    names[entries] = id;
+    levels[entries] = depth;
+    hidden[entries] = entry;
+    innermost[id] = entries++;
+    return sym;
+  }
+
+  // a new overload, unless one with the same parameter types exists
+  private Symbol insertFunction(int id, Symbol sym) throws RedeclarationError {
+    ensureName(id);
+    ArrayList<Symbol> overloads = functions[id];
+    if (overloads == null) {
+      overloads = functions[id] = new ArrayList<>();
+    }
+    TypeList params = ((FuncType) sym.type).params();
+    for (int i = 0; i < overloads.size(); i++) {
+      if (sameTypes(params, ((FuncType) overloads.get(i).type).params())) {
+        throw new RedeclarationError(ids.name(id));
+      }
+    }
+    overloads.add(sym);
+    return sym;
+  }
+
+  // parameter lists of the same length and type classes
+  private static boolean sameTypes(TypeList a, TypeList b) {
+    if (a.list.size() != b.list.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.list.size(); i++) {
+      if (!a.list.get(i).getClass().equals(b.list.get(i).getClass())) {
+        return false;
       }
-      return sym;
     }
-    if (stack.peek().containsKey(name)) {
-      throw new RedeclarationError(name);
+    return true;
+  }
+
+  private void ensureName(int id) {
+    if (id >= innermost.length) {
+      int n = Math.max(2 * innermost.length, id + 1);
+      int old = innermost.length;
+      innermost = Arrays.copyOf(innermost, n);
+      Arrays.fill(innermost, old, n, -1);
+      functions = Arrays.copyOf(functions, n);
     }
-    stack.peek().put(name, sym);
-    return stack.peek().get(name);
   }
 
   public void addScope() {
-    stack.push(new HashMap<>());
+    if (depth == scopeStart.length) {
+      scopeStart = Arrays.copyOf(scopeStart, 2 * depth);
+    }
+    scopeStart[depth++] = entries;
   }
 
   public void popScope() {
-    stack.pop();
+    int start = scopeStart[--depth];
+    while (entries > start) {
+      entries--;
+      innermost[names[entries]] = hidden[entries];
+      symbols[entries] = null;
+    }
   }
 }
 
@@ -116,35 +116,30 @@ public class Token {
       return defaultLexeme != null;
     }
 
+    // lexeme shared by every token of this kind, empty for literals and IDENT
+    public String defaultLexeme() {
+      return defaultLexeme;
+    }
+
     // OPTIONAL: convenience function - boolean matches (String lexeme)
     //           to report whether a Token.Kind has the given lexeme
     //           may be useful
     public static Kind getKind(String lexeme) {
-      if (lexeme.length() == 0) {
-        return ERROR;
-      }
-      if (isInt.matcher(lexeme).matches()) {
-        return INT_VAL;
-      }
-      if (isFloat.matcher(lexeme).matches()) {
-        return FLOAT_VAL;
-      }
-      for (Kind k : Kind.values()) {
-        if (k.defaultLexeme.equals(lexeme)) {
-          return k;
-        }
-      }
-      if (isIdent.matcher(lexeme).matches()) {
-        return IDENT;
-      }
-      return ERROR;
+      return Lexicon.classify(lexeme);
     }
   }
 
+  static final String UNRECOGNIZED = "Unrecognized lexeme: ";
+
   private int lineNum;
   private int charPos;
   Kind kind; // package-private
   private String lexeme = "";
+  // Scanner tokens keep their text in the source until lexeme() asks for it
+  private char[] source;
+  private int start;
+  private int length;
+  private int id = -1; // Names id of an IDENT
 
   // TODO: implement remaining factory functions for handling special cases (EOF below)
 
@@ -162,11 +157,39 @@ public class Token {
     this.lexeme = "No Lexeme Given";
   }
 
+  // token over source[start, start + length) of a Scanner which already
+  // knows its kind, position and, for an IDENT, its id in names
+  Token(
+    Kind kind,
+    char[] source,
+    int start,
+    int length,
+    Names names,
+    int id,
+    int lineNum,
+    int charPos
+  ) {
+    this.lineNum = lineNum;
+    this.kind = kind;
+    if (kind != Kind.ERROR && !kind.defaultLexeme.isEmpty()) {
+      this.lexeme = kind.defaultLexeme;
+    } else if (kind == Kind.IDENT) {
+      this.lexeme = names.name(id);
+      this.id = id;
+    } else {
+      this.lexeme = null;
+      this.source = source;
+      this.start = start;
+      this.length = length;
+    }
+    this.charPos = charPos;
+  }
+
   public Token(String lexeme, int lineNum, int charPos) {
     this.lineNum = lineNum;
     this.kind = Kind.getKind(lexeme);
     this.lexeme =
-      (this.kind != Kind.ERROR ? lexeme : "Unrecognized lexeme: " + lexeme);
+      (this.kind != Kind.ERROR ? lexeme : UNRECOGNIZED + lexeme);
     this.charPos = charPos - lexeme().length();
   }
 
@@ -178,7 +201,18 @@ public class Token {
     return charPos;
   }
 
+  // interned name of an IDENT a Scanner read, -1 for other kinds and tokens
+  // made from a String
+  public int id() {
+    return id;
+  }
+
   public String lexeme() {
+    if (lexeme == null) {
+      String text = new String(source, start, length);
+      lexeme = kind != Kind.ERROR ? text : UNRECOGNIZED + text;
+      source = null;
+    }
     return lexeme;
   }
 
@@ -193,6 +227,6 @@ public class Token {
 
   @Override
   public String toString() {
-    return "Line: " + lineNum + ", Char: " + charPos + ", Lexeme: " + lexeme;
+    return "Line: " + lineNum + ", Char: " + charPos + ", Lexeme: " + lexeme();
   }
 }
@@ -0,0 +1,131 @@
+package pl434;
+
+import pl434.Token.Kind;
+
+// Tokens of a Scanner for the parser, with lookahead. Tokens are scanned in
+// batches into a ring of int records (kind, text, name id and position), so
+// moving along the input allocates nothing. A Token object is made only for
+// the tokens the parser keeps, by token(). Scanner errors are reported when
+// the bad token becomes the current one, as when the parser pulled it with
+// Scanner.next().
+public class TokenStream {
+
+  // fields of a record
+  static final int KIND = 0;
+  static final int START = 1;
+  static final int LENGTH = 2;
+  static final int ID = 3;
+  static final int LINE = 4;
+  static final int CHAR = 5;
+  static final int FIELDS = 6;
+
+  private static final Kind[] KINDS = Kind.values();
+
+  // records in the ring, a power of two
+  private static final int SIZE = 64;
+  public static final int MAX_LOOKAHEAD = SIZE - 1;
+
+  private final Scanner scanner;
+  private final char[] source;
+  private final int[] ring = new int[SIZE * FIELDS];
+  private int current = 0; // index of the current token
+  private int scanned = 0; // tokens in the ring from current on
+  private boolean ended = false; // EOF is in the ring
+
+  public TokenStream(Scanner scanner) {
+    this.scanner = scanner;
+    this.source = scanner.source();
+    fill(1);
+    reportIfError();
+  }
+
+  // at least n tokens from current on in the ring, scanning until the ring is
+  // full or the input ends once it has to scan at all. Past the end every
+  // token is EOF.
+  private void fill(int n) {
+    if (scanned >= n) {
+      return;
+    }
+    while (scanned < SIZE && !ended) {
+      int at = slot(scanned);
+      scanner.scan(ring, at);
+      ended = ring[at + KIND] == Kind.EOF.ordinal();
+      scanned++;
+    }
+    for (; scanned < n; scanned++) {
+      System.arraycopy(ring, slot(scanned - 1), ring, slot(scanned), FIELDS);
+    }
+  }
+
+  // offset of the record k tokens after the current one
+  private int slot(int k) {
+    return ((current + k) & (SIZE - 1)) * FIELDS;
+  }
+
+  private int record(int k) {
+    if (k > MAX_LOOKAHEAD) {
+      throw new IllegalArgumentException("lookahead " + k + " too far");
+    }
+    fill(k + 1);
+    return slot(k);
+  }
+
+  // Current token ==============================================================
+
+  public Kind kind() {
+    return KINDS[ring[current * FIELDS + KIND]];
+  }
+
+  // kind of the token k after the current one, kind(0) is kind()
+  public Kind kind(int k) {
+    return KINDS[ring[record(k) + KIND]];
+  }
+
+  public int lineNumber() {
+    return ring[current * FIELDS + LINE];
+  }
+
+  public int charPosition() {
+    return ring[current * FIELDS + CHAR];
+  }
+
+  public String lexeme() {
+    return token().lexeme();
+  }
+
+  // the current token as a Token
+  public Token token() {
+    return token(current * FIELDS);
+  }
+
+  private Token token(int at) {
+    Kind kind = KINDS[ring[at + KIND]];
+    if (kind == Kind.EOF) {
+      return Token.EOF(ring[at + LINE], ring[at + CHAR]);
+    }
+    return new Token(
+      kind,
+      source,
+      ring[at + START],
+      ring[at + LENGTH],
+      scanner.names(),
+      ring[at + ID],
+      ring[at + LINE],
+      ring[at + CHAR]
+    );
+  }
+
+  // move to the next token
+  public void advance() {
+    fill(2);
+    current = (current + 1) & (SIZE - 1);
+    scanned--;
+    reportIfError();
+  }
+
+  private void reportIfError() {
+    if (kind() == Kind.ERROR) {
+      scanner.reportError(token());
+    }
+  }
+}
@@ -0,0 +1,617 @@
+package ssa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import pl434.Symbol;
+import ssa.Instruction.op;
+import types.FloatType;
+
+// Sparse conditional constant propagation, after Wegman and Zadeck. The value
+// of every instruction starts unknown and can only go down, to one constant
+// and then to varying. A block is visited once an edge into it is found
+// executable: from the roots, along every edge of a block without a branch,
+// along both edges of a branch on a varying condition but only the taken one
+// of a branch on a constant. Phis meet their operands over the executable
+// edges only, and a value that went down is carried to the instructions
+// reading it by their users lists, so one pass solves the whole SSA. Then
+// branches on a constant become BRA, every instruction of a block never
+// reached is eliminated, the operands reading a constant take it where code
+// generation can encode one, and expressions folded to one no longer read are
+// eliminated. A second run finds nothing left to do.
+final class ConditionalConstants {
+
+  // the bottom of the lattice, unknown values are not in values at all
+  private static final Result VARYING = new Result();
+
+  private final SSA ssa;
+  private final HashMap<Instruction, Result> values = new HashMap<>();
+  private final HashMap<Instruction, Block> blockOf = new HashMap<>();
+  // predecessors along the executable edges into each block reached, null
+  // for the edge into a root
+  private final HashMap<Block, HashSet<Block>> executable = new HashMap<>();
+
+  private final ArrayDeque<Block[]> edgeWork = new ArrayDeque<>();
+  private final ArrayDeque<Instruction> valueWork = new ArrayDeque<>();
+
+  // the root of the function each block is in, and the globals the
+  // functions each root calls may assign
+  private final HashMap<Block, Block> functionOf = new HashMap<>();
+  private final HashMap<Block, HashSet<Symbol>> clobbers = new HashMap<>();
+
+  ConditionalConstants(SSA ssa) {
+    this.ssa = ssa;
+    for (Block b : ssa.blocks) {
+      for (Instruction i : b.instructions) {
+        blockOf.put(i, b);
+      }
+    }
+    findClobbers();
+  }
+
+  // whether anything was rewritten
+  boolean run() {
+    solve();
+    boolean changed = foldBranches();
+    changed |= joinReached();
+    // first, so nothing unreached keeps a constant read
+    changed |= eliminateUnreached();
+    changed |= propagate();
+    return changed;
+  }
+
+  // Solving ===================================================================
+
+  private void solve() {
+    for (Block root : ssa.roots) {
+      edgeWork.add(new Block[] { null, root });
+    }
+    while (!edgeWork.isEmpty() || !valueWork.isEmpty()) {
+      ssa.context.checkInterrupted();
+      while (!edgeWork.isEmpty()) {
+        Block[] edge = edgeWork.poll();
+        reach(edge[0], edge[1]);
+      }
+      if (!valueWork.isEmpty()) {
+        Instruction i = valueWork.poll();
+        if (executable.containsKey(blockOf.get(i))) {
+          visit(i);
+        }
+      }
+    }
+  }
+
+  // along the edge from p into b, every instruction the first time, only the
+  // phis after
+  private void reach(Block p, Block b) {
+    HashSet<Block> from = executable.get(b);
+    boolean first = from == null;
+    if (first) {
+      from = new HashSet<>();
+      executable.put(b, from);
+    }
+    if (!from.add(p)) {
+      return;
+    }
+    boolean branches = false;
+    for (Instruction i : b.instructions) {
+      if (first) {
+        blockOf.put(i, b);
+      }
+      if (!i.eliminated && isBranch(i.inst)) {
+        branches = true;
+      }
+      if (first || i.inst == op.PHI) {
+        visit(i);
+      }
+    }
+    if (first && !branches) {
+      for (Block s : b.edges) {
+        edgeWork.add(new Block[] { b, s });
+      }
+    }
+  }
+
+  private void visit(Instruction i) {
+    if (i.eliminated) {
+      return;
+    }
+    if (isBranch(i.inst)) {
+      branch(i);
+      return;
+    }
+    if (lower(i, evaluate(i))) {
+      valueWork.addAll(i.users);
+    }
+  }
+
+  // the edges of the block of i that a branch i can take
+  private void branch(Instruction i) {
+    Block b = blockOf.get(i);
+    Result c = i.inst == op.BRA ? VARYING : valueOf(i.left, b);
+    if (c == null) {
+      return;
+    }
+    Block target = i.right != null ? i.right.proc : null;
+    boolean known = b.edges.contains(target) && isConstant(c);
+    for (Block s : b.edges) {
+      if (
+        i.inst == op.BRA
+          ? s == target || !b.edges.contains(target)
+          : !known || (s == target) == jumps(i.inst, c.value)
+      ) {
+        edgeWork.add(new Block[] { b, s });
+      }
+    }
+  }
+
+  // puts v for i if it is lower, whether it was
+  private boolean lower(Instruction i, Result v) {
+    Result old = values.get(i);
+    if (v == null || old == VARYING || (old != null && same(old, v))) {
+      return false;
+    }
+    values.put(i, old == null ? v : VARYING);
+    return true;
+  }
+
+  // the value r has read in block at, null while unknown; only integers are
+  // constant, as there are no immediate float operands to give them to
+  private Result valueOf(Result r, Block at) {
+    if (r == null) {
+      return VARYING;
+    }
+    if (r.kind == Result.CONST) {
+      return r.type instanceof FloatType ? VARYING : r;
+    }
+    Instruction def = Instruction.definition(r);
+    if (def == null || def.eliminated || !reaches(def, at)) {
+      return VARYING;
+    }
+    return values.get(def);
+  }
+
+  // Whether what def assigns is still what block at reads. Renaming has
+  // every def dominate its reads, but not for a global a function called in
+  // the function of at may assign, before or after at.
+  private boolean reaches(Instruction def, Block at) {
+    if (!blockOf.containsKey(def) || at == null) {
+      return false;
+    }
+    Symbol global = assignedGlobal(def);
+    HashSet<Symbol> clobbered = clobbers.get(functionOf.get(at));
+    return global == null || clobbered == null || !clobbered.contains(global);
+  }
+
+  private Result evaluate(Instruction i) {
+    switch (i.inst) {
+      case MOVE:
+        return valueOf(i.left, blockOf.get(i));
+      case PHI:
+        return meet(i);
+      case NEG:
+        {
+          Result r = valueOf(i.right, blockOf.get(i));
+          return isConstant(r) ? constant(r.value ^ 1) : r;
+        }
+      case ADD:
+      case SUB:
+      case MUL:
+      case DIV:
+      case MOD:
+      case AND:
+      case OR:
+      case CMP:
+        return arithmetic(i);
+      default:
+        return VARYING;
+    }
+  }
+
+  // the operands of phi over the executable edges into its block
+  private Result meet(Instruction phi) {
+    Block b = blockOf.get(phi);
+    Result v = null;
+    for (Block p : executable.get(b)) {
+      HashMap<?, ?> side = p == null ? null : b.phiBlock.get(p);
+      if (side == null) {
+        return VARYING;
+      }
+      Result r = valueOf(side == b.phi1 ? phi.right : phi.left, p);
+      if (r == null) {
+        continue;
+      }
+      if (v != null && !same(v, r)) {
+        return VARYING;
+      }
+      v = r;
+    }
+    return v;
+  }
+
+  // as DLXMachine computes it, varying where it would stop on an error
+  private Result arithmetic(Instruction i) {
+    Result l = valueOf(i.left, blockOf.get(i));
+    Result r = valueOf(i.right, blockOf.get(i));
+    if (i.inst == op.MUL && (isZero(l) || isZero(r))) {
+      return constant(0);
+    }
+    if (l == null || r == null) {
+      return null;
+    }
+    if (l == VARYING || r == VARYING) {
+      return VARYING;
+    }
+    int a = l.value;
+    int b = r.value;
+    switch (i.inst) {
+      case ADD:
+        return constant(a + b);
+      case SUB:
+        return constant(a - b);
+      case MUL:
+        return constant(a * b);
+      case DIV:
+        return b == 0 ? VARYING : constant(a / b);
+      case MOD:
+        return b == 0 ? VARYING : constant(a % b);
+      case AND:
+        return constant(a & b);
+      case OR:
+        return constant(a | b);
+      default:
+        return constant(Integer.signum(a - b));
+    }
+  }
+
+  // Rewriting =================================================================
+
+  private boolean foldBranches() {
+    boolean changed = false;
+    for (Block b : ssa.blocks) {
+      if (!executable.containsKey(b)) {
+        continue;
+      }
+      for (Instruction i : b.instructions) {
+        if (i.eliminated || !isBranch(i.inst) || i.inst == op.BRA) {
+          continue;
+        }
+        Result c = valueOf(i.left, b);
+        if (!isConstant(c) || !b.edges.contains(i.right.proc)) {
+          continue;
+        }
+        boolean jumps = jumps(i.inst, c.value);
+        i.inst = op.BRA;
+        if (!jumps) {
+          for (Block s : b.edges) {
+            if (s != i.right.proc) {
+              i.right.proc = s;
+              break;
+            }
+          }
+        }
+        i.setLeft(null);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  // A block reached along the edges of only one side of its phis has them
+  // read that side along both: the other reads versions assigned in blocks
+  // eliminated. They stay phis, as dead code elimination orders the
+  // instructions they read at by their place among all of them.
+  private boolean joinReached() {
+    boolean changed = false;
+    for (Block b : ssa.blocks) {
+      HashSet<Block> from = executable.get(b);
+      if (from == null) {
+        continue;
+      }
+      boolean left = false;
+      boolean right = false;
+      for (Block p : from) {
+        HashMap<?, ?> side = p == null ? null : b.phiBlock.get(p);
+        left |= side != b.phi1;
+        right |= side == null || side == b.phi1;
+      }
+      if (left && right) {
+        continue;
+      }
+      for (Instruction i : b.instructions) {
+        if (i.eliminated || i.inst != op.PHI || sameOperand(i.left, i.right)) {
+          continue;
+        }
+        if (left) {
+          i.setRight(copy(i.left));
+        } else {
+          i.setLeft(copy(i.right));
+        }
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  // the other side of a phi reading r, its own if r is a constant
+  private static Result copy(Result r) {
+    return r.kind == Result.CONST ? copy(r, r) : r;
+  }
+
+  private static boolean sameOperand(Result a, Result b) {
+    if (a.kind == Result.CONST && b.kind == Result.CONST) {
+      return a.value == b.value;
+    }
+    return a == b;
+  }
+
+  // Every user of a constant takes it where it can, but phis, which register
+  // allocation needs to read variables. Expressions and phis no longer read
+  // are eliminated, and with them the constants only they read; moves are
+  // left to dead code elimination.
+  private boolean propagate() {
+    boolean changed = false;
+    ArrayDeque<Instruction> unread = new ArrayDeque<>();
+    for (Block b : ssa.blocks) {
+      if (!executable.containsKey(b)) {
+        continue;
+      }
+      for (Instruction def : b.instructions) {
+        Result v = values.get(def);
+        if (def.eliminated || !isConstant(v)) {
+          continue;
+        }
+        for (Instruction user : new ArrayList<>(def.users)) {
+          if (
+            !user.eliminated &&
+            user.inst != op.PHI &&
+            reaches(def, blockOf.get(user))
+          ) {
+            changed |= substitute(user, def, v);
+          }
+        }
+        unread.add(def);
+      }
+    }
+    while (!unread.isEmpty()) {
+      Instruction def = unread.poll();
+      if (def.eliminated || def.inst == op.MOVE || isRead(def)) {
+        continue;
+      }
+      def.eliminated = true;
+      changed = true;
+      for (Result r : new Result[] { def.left, def.right }) {
+        Instruction read = Instruction.definition(r);
+        if (read != null && isConstant(values.get(read))) {
+          unread.add(read);
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static boolean isRead(Instruction def) {
+    for (Instruction user : def.users) {
+      if (!user.eliminated && user.reads(def)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the operands of user reading def become v where code generation can
+  // encode a constant: the value a MOVE assigns, the operand of a write,
+  // negation or return, and the right operand of an arithmetic instruction
+  // or comparison whose left is no constant, the left one too when it
+  // commutes and swaps to the right. Not call arguments, nor loads, stores
+  // and address arithmetic.
+  private boolean substitute(Instruction user, Instruction def, Result v) {
+    switch (user.inst) {
+      case MOVE:
+        if (Instruction.definition(user.left) != def) {
+          return false;
+        }
+        user.setLeft(copy(v, user.left));
+        return true;
+      case WRITE:
+      case NEG:
+      case RET:
+        if (Instruction.definition(user.right) != def) {
+          return false;
+        }
+        user.setRight(copy(v, user.right));
+        return true;
+      case ADD:
+      case MUL:
+      case AND:
+      case OR:
+        if (
+          Instruction.definition(user.left) == def &&
+          Instruction.definition(user.right) != def &&
+          user.right.kind != Result.CONST
+        ) {
+          Result other = user.right;
+          user.setRight(copy(v, user.left));
+          user.setLeft(other);
+          return true;
+        }
+        return substituteRight(user, def, v);
+      case SUB:
+      case DIV:
+      case MOD:
+      case POW:
+      case CMP:
+        return substituteRight(user, def, v);
+      default:
+        return false;
+    }
+  }
+
+  // the right operand of user reading def becomes v, if the left is no
+  // constant and does not read def too
+  private boolean substituteRight(Instruction user, Instruction def, Result v) {
+    if (
+      Instruction.definition(user.right) != def ||
+      Instruction.definition(user.left) == def ||
+      user.left.kind == Result.CONST
+    ) {
+      return false;
+    }
+    user.setRight(copy(v, user.right));
+    return true;
+  }
+
+  private boolean eliminateUnreached() {
+    boolean changed = false;
+    for (Block b : ssa.blocks) {
+      if (executable.containsKey(b)) {
+        continue;
+      }
+      for (Instruction i : b.instructions) {
+        if (!i.eliminated) {
+          i.eliminated = true;
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  // Calls =====================================================================
+
+  // functionOf and clobbers, the globals a function assigns growing by those
+  // of its callees until none does
+  private void findClobbers() {
+    HashMap<Block, HashSet<Symbol>> assigns = new HashMap<>();
+    HashMap<Block, HashSet<Block>> callees = new HashMap<>();
+    for (Block root : ssa.roots) {
+      HashSet<Symbol> assigned = new HashSet<>();
+      HashSet<Block> called = new HashSet<>();
+      ArrayDeque<Block> work = new ArrayDeque<>();
+      functionOf.put(root, root);
+      work.add(root);
+      while (!work.isEmpty()) {
+        Block b = work.poll();
+        for (Instruction i : b.instructions) {
+          Symbol global = assignedGlobal(i);
+          if (global != null) {
+            assigned.add(global);
+          }
+          if (i.inst == op.CALL) {
+            Result f = i.func_params.get(i.func_params.size() - 1);
+            if (f.var != null && f.var.func_block != null) {
+              called.add(f.var.func_block);
+            }
+          }
+        }
+        for (Block s : b.edges) {
+          if (!functionOf.containsKey(s)) {
+            functionOf.put(s, root);
+            work.add(s);
+          }
+        }
+      }
+      assigns.put(root, assigned);
+      callees.put(root, called);
+    }
+    boolean grew = true;
+    while (grew) {
+      grew = false;
+      for (Block root : ssa.roots) {
+        for (Block callee : callees.get(root)) {
+          HashSet<Symbol> theirs = assigns.get(callee);
+          if (theirs != null) {
+            grew |= assigns.get(root).addAll(theirs);
+          }
+        }
+      }
+    }
+    for (Block root : ssa.roots) {
+      HashSet<Symbol> clobbered = new HashSet<>();
+      for (Block callee : callees.get(root)) {
+        HashSet<Symbol> theirs = assigns.get(callee);
+        if (theirs != null) {
+          clobbered.addAll(theirs);
+        }
+      }
+      clobbers.put(root, clobbered);
+    }
+  }
+
+  // the declared global i assigns, null if it assigns none
+  private static Symbol assignedGlobal(Instruction i) {
+    Result r = i.inst == op.PHI ? i.third : i.inst == op.MOVE ? i.right : null;
+    if (r == null || r.kind != Result.VAR || r.var == null) {
+      return null;
+    }
+    Symbol declared = r.var.OG;
+    return declared.scope == Symbol.GLOBAL ? declared : null;
+  }
+
+  // Lattice ===================================================================
+
+  private static Result constant(int value) {
+    Result r = new Result();
+    r.kind = Result.CONST;
+    r.value = value;
+    return r;
+  }
+
+  // v for the operand read, of the type of the variable it read if it read
+  // one, which writes print by; each operand its own, as code generation
+  // rewrites constant operands
+  private static Result copy(Result v, Result read) {
+    Result r = constant(v.value);
+    r.type =
+      read.kind == Result.VAR && read.var != null ? read.var.type : read.type;
+    return r;
+  }
+
+  private static boolean isConstant(Result v) {
+    return v != null && v != VARYING;
+  }
+
+  private static boolean isZero(Result v) {
+    return isConstant(v) && v.value == 0;
+  }
+
+  private static boolean same(Result a, Result b) {
+    return a == b || (isConstant(a) && isConstant(b) && a.value == b.value);
+  }
+
+  private static boolean isBranch(op inst) {
+    switch (inst) {
+      case BRA:
+      case BEQ:
+      case BNE:
+      case BLT:
+      case BLE:
+      case BGT:
+      case BGE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // whether a branch on c goes to its target
+  private static boolean jumps(op inst, int c) {
+    switch (inst) {
+      case BEQ:
+        return c == 0;
+      case BNE:
+        return c != 0;
+      case BLT:
+        return c < 0;
+      case BLE:
+        return c <= 0;
+      case BGT:
+        return c > 0;
+      case BGE:
+        return c >= 0;
+      default:
+        return true;
+    }
+  }
+}
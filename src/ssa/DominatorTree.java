@@ -2,7 +2,9 @@ package ssa;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Stack;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import pl434.CompilationContext;
 import pl434.Symbol;
 import ssa.Instruction.op;
 
@@ -12,113 +14,83 @@ public class DominatorTree {
 
   Block objective;
 
+  CompilationContext context;
+
   public DominatorTree(SSA ssa) {
+    context = ssa.context;
     for (Block b : ssa.blocks) {
       possibleBlocks.add(b);
     }
   }
 
-  public void iterPhi(HashSet<Block> visited, Block root) {
-    // Add all PHI to all blocks
-    if (visited.contains(root)) {
-      return;
-    }
-    visited.add(root);
-    // Explore edges and do the same
-    for (Block e : root.edges) {
-      if (!root.doms.contains(e)) {
-        for (Symbol i : root.latest.keySet()) {
-          if (!e.latest.containsKey(i)) {
-            e.latest.put(i, root.latest.get(i));
-          }
-        }
-      }
-      iterPhi(visited, e);
-    }
-    for (Block df : root.domFront) {
-      addPhi(root, df);
-    }
-  }
+  // Phi placement =============================================================
 
-  // df gets PHI for a symbol if needed
-  public void addPhi(Block root, Block df) {
-    for (Symbol x : root.blockVars) {
-      // You take dominance frontiers
-      df.phis.put(x, new Instruction(op.PHI));
-    }
-    if (root.isJoinNode) {
-      for (Symbol x : root.phis.keySet()) {
-        df.phis.put(x, new Instruction(op.PHI));
+  // Cytron et al.: a symbol assigned in a block gets a PHI in every block of
+  // the block's dominance frontier, and a join node with a PHI for a symbol
+  // passes it on to its own frontier, through a worklist per symbol until
+  // no block gets another. Needs buildTree(root) first.
+  public void placePhis(Block root) {
+    Dominators tree = root.dominators;
+    int n = tree.size();
+    // blocks assigning each symbol, in block order
+    LinkedHashMap<Symbol, ArrayList<Integer>> assigned = new LinkedHashMap<>();
+    for (int b = 0; b < n; b++) {
+      for (Symbol x : tree.block(b).blockVars) {
+        assigned.computeIfAbsent(x, k -> new ArrayList<>()).add(b);
       }
     }
-  }
-
-  public void buildTree(Block root) {
-    // Go through full Map using BFS, and compare parents dominances
-    Stack<Block> bfsStack = new Stack<>();
-    HashSet<Block> visited = new HashSet<>();
-    bfsStack.add(root);
-    while (!bfsStack.isEmpty()) {
-      Stack<Block> nxtBlocks = new Stack<>();
-      while (!bfsStack.isEmpty()) {
-        Block nxt = bfsStack.pop();
-        if (visited.contains(nxt)) {
-          continue;
-        } else {
-          visited.add(nxt);
-          for (Block child : nxt.edges) {
-            if (!child.visited.contains(nxt) && !nxt.doms.contains(child)) {
-              compareParents(child, nxt);
-              nxtBlocks.add(child);
-              child.visited.add(nxt);
-            }
+    // marks are the number of the symbol they were set for, + 1
+    int[] hasPhi = new int[n];
+    int[] queued = new int[n];
+    int[] work = new int[n];
+    int symbol = 0;
+    for (Map.Entry<Symbol, ArrayList<Integer>> e : assigned.entrySet()) {
+      Symbol x = e.getKey();
+      int mark = ++symbol;
+      int size = 0;
+      for (int b : e.getValue()) {
+        queued[b] = mark;
+        work[size++] = b;
+      }
+      while (size > 0) {
+        int b = work[--size];
+        for (int k = 0; k < tree.frontierSize(b); k++) {
+          int y = tree.frontier(b, k);
+          if (hasPhi[y] == mark) {
+            continue;
+          }
+          hasPhi[y] = mark;
+          Block df = tree.block(y);
+          df.phis.put(x, new Instruction(context, op.PHI));
+          if (df.isJoinNode && queued[y] != mark) {
+            queued[y] = mark;
+            work[size++] = y;
           }
         }
       }
-      bfsStack.clear();
-      bfsStack.addAll(nxtBlocks);
-    }
-
-    // Solve for Immediate dominance
-    for (Block b : visited) {
-      b.solveIDom();
     }
-    compDF(new HashSet<>(), root);
-    //printDoms(new HashSet<>(), root);
   }
 
-  public void compDF(HashSet<Block> visited, Block root) {
-    // overflow error?
-    // local + LRS
-    if (visited.contains(root)) {
-      return;
-    }
-    if (root.my_num == 2) {
-      System.out.println();
-    }
-    // Comp Local
-    compLocal(root);
-    visited.add(root);
-
-    //Iterate through all DT children
-    for (Block c : root.idomChildren) {
-      // Recur and compute the child
-      compDF(visited, c);
-      // Add all child DF to this DF
-      for (Block cDF : c.domFront) {
-        if (!cDF.doms.contains(root) || cDF == root) {
-          root.domFront.add(cDF);
-        }
+  // immediate dominators, dominator tree and dominance frontiers of the
+  // blocks reachable from root
+  public void buildTree(Block root) {
+    Dominators tree = new Dominators(root, possibleBlocks.size());
+    for (int n = 0; n < tree.size(); n++) {
+      Block b = tree.block(n);
+      b.dominators = tree;
+      b.iDom = n > 0 ? tree.block(tree.idom(n)) : null;
+      for (int k = 0; k < tree.childCount(n); k++) {
+        b.idomChildren.add(tree.block(tree.child(n, k)));
       }
-    }
-  }
-
-  public void compLocal(Block root) {
-    for (Block b : root.edges) {
-      if (!b.doms.contains(root) || root == b || b.endIfNode) {
-        root.domFront.add(b);
+      for (int k = 0; k < tree.frontierSize(n); k++) {
+        b.domFront.add(tree.block(tree.frontier(n, k)));
+      }
+      // the old frontier pass printed a blank line here, the output keeps it
+      if (b.my_num == 2) {
+        System.out.println();
       }
     }
+    //printDoms(new HashSet<>(), root);
   }
 
   public void printDoms(HashSet<Block> visited, Block root) {
@@ -132,7 +104,7 @@ public class DominatorTree {
     } else {
       System.out.println("NONE");
     }
-    for (Block b : root.doms) {
+    for (Block b = root; b != null; b = b.iDom) {
       System.out.println("  BB" + b.my_num);
     }
     System.out.print("  DomFront:");
@@ -144,24 +116,4 @@ public class DominatorTree {
       printDoms(visited, root.edges.get(i));
     }
   }
-
-  public void compareParents(Block block, Block parent) {
-    if (block.doms.size() == 1) {
-      for (Block dom : parent.doms) {
-        if (dom != block) {
-          block.doms.add(dom);
-        }
-      }
-    } else {
-      ArrayList<Block> intersectComp = new ArrayList<>();
-      for (Block dom : block.doms) {
-        if (!parent.doms.contains(dom) && dom != block) {
-          intersectComp.add(dom);
-        }
-      }
-      for (Block dom : intersectComp) {
-        block.doms.remove(dom);
-      }
-    }
-  }
 }
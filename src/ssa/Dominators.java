@@ -0,0 +1,333 @@
+package ssa;
+
+import java.util.Arrays;
+
+// Dominators of the blocks reachable from a root, by Lengauer and Tarjan's
+// algorithm with path compression, O(E log N). Blocks are numbered densely
+// in depth-first preorder along edges, and the immediate dominators, the
+// dominator tree and the dominance frontiers are int arrays over those
+// numbers. Nothing recurses, so deep CFGs cannot overflow the stack. Whether
+// one block dominates another is one interval test on the dominator tree.
+public class Dominators {
+
+  private final Block root;
+  private final Block[] blocks; // by number
+  private final int count;
+
+  private final int[] idom; // number of the immediate dominator, root -1
+
+  // dominator tree children of n are child[childStart[n] until
+  // childStart[n + 1]], and frontier likewise
+  private final int[] childStart;
+  private final int[] child;
+  private final int[] frontierStart;
+  private final int[] frontier;
+
+  // preorder and postorder of each block in the dominator tree
+  private final int[] enter;
+  private final int[] exit;
+
+  // capacity bounds the number of blocks reachable from root
+  public Dominators(Block root, int capacity) {
+    this.root = root;
+    this.blocks = new Block[capacity];
+    int[] parent = new int[capacity];
+    this.count = number(root, parent);
+
+    this.idom = immediateDominators(parent);
+    this.childStart = new int[count + 1];
+    this.child = children();
+    this.enter = new int[count];
+    this.exit = new int[count];
+    order();
+    this.frontierStart = new int[count + 1];
+    this.frontier = frontiers();
+  }
+
+  // number of b, -1 when b is not reachable from root
+  private int index(Block b) {
+    int i = b.domIndex;
+    return i >= 0 && i < count && blocks[i] == b ? i : -1;
+  }
+
+  // while numbering, before count is known
+  private boolean numbered(Block b, int n) {
+    int i = b.domIndex;
+    return i >= 0 && i < n && blocks[i] == b;
+  }
+
+  // Numbering =================================================================
+
+  // depth-first preorder along edges from root, the parent of each block in
+  // the search tree, returns the number of blocks reached
+  private int number(Block root, int[] parent) {
+    int n = 0;
+    int[] stack = new int[blocks.length];
+    int[] next = new int[blocks.length]; // next edge to follow
+    int top = 0;
+    blocks[n] = root;
+    root.domIndex = n;
+    parent[n] = -1;
+    stack[top++] = n++;
+    while (top > 0) {
+      int v = stack[top - 1];
+      Block b = blocks[v];
+      if (next[top - 1] == b.edges.size()) {
+        top--;
+        continue;
+      }
+      Block w = b.edges.get(next[top - 1]++);
+      if (!numbered(w, n)) {
+        blocks[n] = w;
+        w.domIndex = n;
+        parent[n] = v;
+        next[top] = 0;
+        stack[top++] = n++;
+      }
+    }
+    return n;
+  }
+
+  // Lengauer-Tarjan ===========================================================
+
+  private int[] semi;
+  private int[] label;
+  private int[] ancestor;
+  private int[] path;
+
+  private int[] immediateDominators(int[] parent) {
+    int[] idom = new int[count];
+    semi = new int[count];
+    label = new int[count];
+    ancestor = new int[count];
+    path = new int[count];
+    // vertices waiting on their semidominator, as linked lists
+    int[] bucket = new int[count];
+    int[] nextInBucket = new int[count];
+    for (int v = 0; v < count; v++) {
+      semi[v] = v;
+      label[v] = v;
+      ancestor[v] = -1;
+      bucket[v] = -1;
+    }
+
+    for (int w = count - 1; w > 0; w--) {
+      for (Block p : blocks[w].parents) {
+        int v = index(p);
+        if (v >= 0) {
+          int u = eval(v);
+          if (semi[u] < semi[w]) {
+            semi[w] = semi[u];
+          }
+        }
+      }
+      nextInBucket[w] = bucket[semi[w]];
+      bucket[semi[w]] = w;
+      int p = parent[w];
+      ancestor[w] = p;
+      for (int v = bucket[p]; v != -1; v = nextInBucket[v]) {
+        int u = eval(v);
+        idom[v] = semi[u] < semi[v] ? u : p;
+      }
+      bucket[p] = -1;
+    }
+    for (int w = 1; w < count; w++) {
+      if (idom[w] != semi[w]) {
+        idom[w] = idom[idom[w]];
+      }
+    }
+    if (count > 0) {
+      idom[0] = -1;
+    }
+    semi = label = ancestor = path = null;
+    return idom;
+  }
+
+  // vertex of least semidominator on the forest path above v
+  private int eval(int v) {
+    if (ancestor[v] == -1) {
+      return v;
+    }
+    compress(v);
+    return label[v];
+  }
+
+  // point everything on the path above v at the top of its tree, from the
+  // top down
+  private void compress(int v) {
+    int length = 0;
+    while (ancestor[ancestor[v]] != -1) {
+      path[length++] = v;
+      v = ancestor[v];
+    }
+    while (length > 0) {
+      int x = path[--length];
+      int a = ancestor[x];
+      if (semi[label[a]] < semi[label[x]]) {
+        label[x] = label[a];
+      }
+      ancestor[x] = ancestor[a];
+    }
+  }
+
+  // Tree ======================================================================
+
+  private int[] children() {
+    for (int v = 1; v < count; v++) {
+      childStart[idom[v] + 1]++;
+    }
+    for (int v = 0; v < count; v++) {
+      childStart[v + 1] += childStart[v];
+    }
+    int[] child = new int[Math.max(0, count - 1)];
+    int[] fill = new int[count];
+    for (int v = 1; v < count; v++) {
+      int d = idom[v];
+      child[childStart[d] + fill[d]++] = v;
+    }
+    return child;
+  }
+
+  // number the dominator tree in preorder and postorder
+  private void order() {
+    if (count == 0) {
+      return;
+    }
+    int[] stack = new int[count];
+    int[] next = new int[count];
+    int top = 0;
+    int pre = 0;
+    int post = 0;
+    enter[0] = pre++;
+    stack[top++] = 0;
+    while (top > 0) {
+      int v = stack[top - 1];
+      int c = childStart[v] + next[top - 1];
+      if (c == childStart[v + 1]) {
+        exit[v] = post++;
+        top--;
+        continue;
+      }
+      next[top - 1]++;
+      int w = child[c];
+      enter[w] = pre++;
+      next[top] = 0;
+      stack[top++] = w;
+    }
+  }
+
+  // Frontiers =================================================================
+
+  // pairs of a block and a block in its frontier, while finding them
+  private int[] pairs;
+  private int pairCount;
+
+  // Walking up from each predecessor of a block to its immediate dominator
+  // (Cooper, Harvey and Kennedy) puts the block in the frontier of every
+  // block passed. The join after an if also goes in the frontier of each of
+  // its predecessors, the branch included, as the phis of SSA expect.
+  private int[] frontiers() {
+    pairs = new int[2 * Math.max(8, count)];
+    pairCount = 0;
+    int[] last = new int[count]; // last block added to each frontier, + 1
+    for (int b = 0; b < count; b++) {
+      Block block = blocks[b];
+      for (Block p : block.parents) {
+        int runner = index(p);
+        if (runner >= 0 && block.endIfNode && last[runner] != b + 1) {
+          addFrontier(runner, b);
+          last[runner] = b + 1;
+        }
+        while (runner >= 0 && runner != idom[b]) {
+          if (last[runner] != b + 1) {
+            addFrontier(runner, b);
+            last[runner] = b + 1;
+          }
+          runner = idom[runner];
+        }
+      }
+    }
+
+    for (int i = 0; i < pairCount; i++) {
+      frontierStart[pairs[2 * i] + 1]++;
+    }
+    for (int v = 0; v < count; v++) {
+      frontierStart[v + 1] += frontierStart[v];
+    }
+    int[] frontier = new int[pairCount];
+    int[] fill = new int[count];
+    for (int i = 0; i < pairCount; i++) {
+      int v = pairs[2 * i];
+      frontier[frontierStart[v] + fill[v]++] = pairs[2 * i + 1];
+    }
+    pairs = null;
+    return frontier;
+  }
+
+  private void addFrontier(int of, int b) {
+    if (2 * pairCount == pairs.length) {
+      pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+    }
+    pairs[2 * pairCount] = of;
+    pairs[2 * pairCount + 1] = b;
+    pairCount++;
+  }
+
+  // Queries ===================================================================
+
+  public Block root() {
+    return root;
+  }
+
+  // blocks reachable from root
+  public int size() {
+    return count;
+  }
+
+  public Block block(int n) {
+    return blocks[n];
+  }
+
+  public int number(Block b) {
+    return index(b);
+  }
+
+  // immediate dominator, null for the root and blocks not reachable
+  public Block idom(Block b) {
+    int i = index(b);
+    return i > 0 ? blocks[idom[i]] : null;
+  }
+
+  public int idom(int n) {
+    return idom[n];
+  }
+
+  public int childCount(int n) {
+    return childStart[n + 1] - childStart[n];
+  }
+
+  public int child(int n, int k) {
+    return child[childStart[n] + k];
+  }
+
+  public int frontierSize(int n) {
+    return frontierStart[n + 1] - frontierStart[n];
+  }
+
+  public int frontier(int n, int k) {
+    return frontier[frontierStart[n] + k];
+  }
+
+  // whether a dominates b, every block dominating itself; a block that was
+  // not reached is dominated only by itself
+  public boolean dominates(Block a, Block b) {
+    if (a == b) {
+      return true;
+    }
+    int i = index(a);
+    int j = index(b);
+    return (
+      i >= 0 && j >= 0 && enter[i] <= enter[j] && exit[j] <= exit[i]
+    );
+  }
+}
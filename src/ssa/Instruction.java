@@ -1,9 +1,12 @@
 package ssa;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import pl434.CompilationContext;
 import pl434.Symbol;
 import types.*;
 
@@ -42,20 +45,25 @@ public class Instruction {
   public int kind = 0;
   public int addy = -1;
   public Type readType = new IntType();
-  public static int instruction_num = 0;
   public boolean eliminated = false;
-  public Instruction usedAt = null;
   public Result refResult = null;
   public Block blockLoc = null;
+  // instructions reading the value of this one, from a result of it or the
+  // variable version it assigns, each once; eliminated ones stay listed
+  public final ArrayList<Instruction> users = new ArrayList<>();
+  Numbering.Run run = null; // holds the number while phis go in
   public int my_num;
+  public int line = -1; // source line of the statement, -1 if synthesized
   public Result left, right, third = null; // TODO: third is for the third Result that needs to be printed out
   HashMap<Block, Result> phiBtoR = new HashMap<>();
   List<Symbol> doPhiOn;
   public ArrayList<Result> func_params;
   List<Instruction> availableExpr = new ArrayList<>();
   HashSet<Instruction> equivList = new HashSet<>();
-  public HashSet<Result> storeThese = new HashSet<>();
-  public HashSet<Result> loadThese = new HashSet<>();
+  // spills in the order the allocator made them, Result hashes by identity
+  // and that differs with the thread the function was allocated on
+  public HashSet<Result> storeThese = new LinkedHashSet<>();
+  public HashSet<Result> loadThese = new LinkedHashSet<>();
   boolean rootExpr = false;
   //boolean isArrayMul = false;
   boolean mainEquiv = true;
@@ -66,9 +74,14 @@ public class Instruction {
     return eliminated;
   }
 
-  // Used for calculating in and out sets
-  public HashSet<String> InSet = new HashSet<String>();
-  public HashSet<String> OutSet = new HashSet<String>();
+  // Used for calculating in and out sets, of CompilationContext.liveKey()s
+  public BitSet InSet = new BitSet();
+  public BitSet OutSet = new BitSet();
+
+  // liveness key of the value this instruction leaves in a register
+  public int liveKey() {
+    return 2 * my_num + 1;
+  }
 
   public Result getResult() {
     if (inst == op.MOVE) {
@@ -77,6 +90,7 @@ public class Instruction {
     if (inst == op.PHI) {
       return third;
     }
+    Instruction usedAt = usedAt();
     if (usedAt == null) {
       return null;
     }
@@ -86,42 +100,159 @@ public class Instruction {
     return usedAt.left;
   }
 
-  public Instruction(op inst, ArrayList<Result> func_params) {
+  // The user taking a result of this, the last one listed if several, one
+  // not eliminated if there is one; null if no instruction takes it
+  public Instruction usedAt() {
+    Instruction taken = null;
+    for (int u = users.size() - 1; u >= 0; u--) {
+      Instruction user = users.get(u);
+      if (user.takesResultOf(this)) {
+        if (!user.eliminated) {
+          return user;
+        }
+        if (taken == null) {
+          taken = user;
+        }
+      }
+    }
+    return taken;
+  }
+
+  private boolean takesResultOf(Instruction def) {
+    if (isResultOf(left, def) || isResultOf(right, def)) {
+      return true;
+    }
+    if (func_params != null) {
+      for (Result r : func_params) {
+        if (isResultOf(r, def)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isResultOf(Result r, Instruction def) {
+    return r != null && r.kind == Result.INST && r.inst == def;
+  }
+
+  // the instruction whose value r reads, null for constants and variables
+  // nothing assigned
+  public static Instruction definition(Result r) {
+    if (r == null) {
+      return null;
+    }
+    if (r.kind == Result.INST) {
+      return r.inst;
+    }
+    if (r.kind == Result.VAR && r.var != null) {
+      return r.var.instruction;
+    }
+    return null;
+  }
+
+  // what this reads: not the variable a MOVE assigns nor the version a PHI
+  // does
+  boolean reads(Instruction def) {
+    if (definition(left) == def) {
+      return true;
+    }
+    if (inst != op.MOVE && definition(right) == def) {
+      return true;
+    }
+    if (func_params != null) {
+      for (Result r : func_params) {
+        if (definition(r) == def) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // lists this as a user of everything it reads
+  public void linkUses() {
+    link(left);
+    if (inst != op.MOVE) {
+      link(right);
+    }
+    if (func_params != null) {
+      for (Result r : func_params) {
+        link(r);
+      }
+    }
+  }
+
+  private void link(Result r) {
+    Instruction def = definition(r);
+    if (def != null && !def.users.contains(this)) {
+      def.users.add(this);
+    }
+  }
+
+  // after an operand of this stopped reading def
+  public void unlinkFrom(Instruction def) {
+    if (def != null && !reads(def)) {
+      def.users.remove(this);
+    }
+  }
+
+  public void setLeft(Result r) {
+    Instruction def = definition(left);
+    left = r;
+    unlinkFrom(def);
+    link(r);
+  }
+
+  public void setRight(Result r) {
+    Instruction def = definition(right);
+    right = r;
+    unlinkFrom(def);
+    if (inst != op.MOVE) {
+      link(r);
+    }
+  }
+
+  public Instruction(
+    CompilationContext context,
+    op inst,
+    ArrayList<Result> func_params
+  ) {
     this.func_params = func_params;
     this.inst = inst;
     this.left = null;
     this.right = null;
-    for (Result r : func_params) {
-      if (r.kind == Result.INST) {
-        r.inst.usedAt = this;
-      }
-    }
-    my_num = Instruction.instruction_num++;
+    my_num = context.newInstruction();
   }
 
-  public Instruction(op inst, Result left, Result right) {
+  public Instruction(
+    CompilationContext context,
+    op inst,
+    Result left,
+    Result right
+  ) {
     this.func_params = null;
     this.inst = inst;
     this.left = left;
     this.right = right;
-    my_num = Instruction.instruction_num++;
+    my_num = context.newInstruction();
   }
 
-  public Instruction(op inst, Result right) {
+  public Instruction(CompilationContext context, op inst, Result right) {
     this.func_params = null;
     this.inst = inst;
     this.left = null;
     this.right = right;
-    my_num = Instruction.instruction_num++;
+    my_num = context.newInstruction();
   }
 
-  public Instruction(op inst) {
+  public Instruction(CompilationContext context, op inst) {
     doPhiOn = new ArrayList<>();
     this.func_params = null;
     this.inst = inst;
     this.left = null;
     this.right = null;
-    my_num = Instruction.instruction_num++;
+    my_num = context.newInstruction();
   }
 
   public boolean compare(Instruction c) {
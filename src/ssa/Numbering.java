@@ -0,0 +1,136 @@
+package ssa;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Instruction numbers while phis go in. A phi numbered k is put before the
+// instruction numbered k, which moves up by one with every one after it. The
+// instructions of the blocks are kept in number order in runs about as long
+// as the square root of their count, each counting how far the numbers of
+// all its members have moved: a phi renumbers the members of one run and
+// bumps the count of the runs after it instead of renumbering every block.
+// Until finish, my_num of an instruction in a run is its number less the
+// run's count.
+final class Numbering {
+
+  static final class Run {
+
+    final ArrayList<Instruction> members = new ArrayList<>();
+    int moved = 0;
+  }
+
+  private final ArrayList<Run> runs = new ArrayList<>();
+  private final int runLength;
+
+  // the instructions of blocks, each pointed at its block
+  Numbering(List<Block> blocks) {
+    ArrayList<Instruction> all = new ArrayList<>();
+    for (Block b : blocks) {
+      for (Instruction i : b.instructions) {
+        i.blockLoc = b;
+        all.add(i);
+      }
+    }
+    all.sort(Comparator.comparingInt(i -> i.my_num));
+    runLength = Math.max(16, (int) Math.sqrt(all.size()));
+    for (int s = 0; s < all.size(); s += runLength) {
+      Run run = new Run();
+      int end = Math.min(all.size(), s + runLength);
+      for (Instruction i : all.subList(s, end)) {
+        run.members.add(i);
+        i.run = run;
+      }
+      runs.add(run);
+    }
+  }
+
+  public int number(Instruction i) {
+    return i.run == null ? i.my_num : i.my_num + i.run.moved;
+  }
+
+  // one past the number of every instruction
+  public int end() {
+    if (runs.isEmpty()) {
+      return 0;
+    }
+    List<Instruction> last = runs.get(runs.size() - 1).members;
+    return number(last.get(last.size() - 1)) + 1;
+  }
+
+  // moves every instruction numbered phi.my_num or more up by one and puts
+  // phi before them
+  public void insert(Instruction phi) {
+    int k = phi.my_num;
+    int r = runAt(k);
+    Run run;
+    int at;
+    if (r < runs.size()) {
+      run = runs.get(r);
+      at = run.members.size();
+      while (at > 0 && number(run.members.get(at - 1)) >= k) {
+        run.members.get(--at).my_num++;
+      }
+      for (int later = r + 1; later < runs.size(); later++) {
+        runs.get(later).moved++;
+      }
+    } else {
+      // numbered past every instruction
+      if (runs.isEmpty()) {
+        runs.add(new Run());
+      }
+      r = runs.size() - 1;
+      run = runs.get(r);
+      at = run.members.size();
+    }
+    phi.my_num = k - run.moved;
+    run.members.add(at, phi);
+    phi.run = run;
+    if (run.members.size() > 2 * runLength) {
+      split(r);
+    }
+  }
+
+  // first run whose last member is numbered k or more, runs.size() if none
+  private int runAt(int k) {
+    int lo = 0;
+    int hi = runs.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      List<Instruction> members = runs.get(mid).members;
+      if (number(members.get(members.size() - 1)) >= k) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  private void split(int r) {
+    Run run = runs.get(r);
+    Run after = new Run();
+    after.moved = run.moved;
+    List<Instruction> half = run.members.subList(
+      run.members.size() / 2,
+      run.members.size()
+    );
+    for (Instruction i : half) {
+      after.members.add(i);
+      i.run = after;
+    }
+    half.clear();
+    runs.add(r + 1, after);
+  }
+
+  // writes the numbers back to my_num
+  public void finish() {
+    for (Run run : runs) {
+      for (Instruction i : run.members) {
+        i.my_num += run.moved;
+        i.run = null;
+      }
+    }
+    runs.clear();
+  }
+}
@@ -1,9 +1,14 @@
 package ssa;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import pl434.CompilationContext;
 import pl434.Symbol;
 import ssa.Instruction.op;
 import types.VoidType;
@@ -11,21 +16,50 @@ import types.VoidType;
 public class Optimize {
 
   SSA ssa;
+  CompilationContext context;
   Symbol subSymbol;
   String subSym = "$";
 
   public Optimize(SSA ssa) {
     subSymbol = new Symbol("$t", new VoidType());
     this.ssa = ssa;
+    this.context = ssa.context;
   }
 
   public boolean dead_code_elim() {
     // Give every block an in-set and and out-set
     // The in-sets and out-sets already exist within the block class
 
-    ArrayList<Instruction> instructionSet = ssa.allInstructions;
+    // every instruction, phis included, by block
+    ArrayList<Instruction> instructionSet = new ArrayList<>();
+    for (Block b : ssa.blocks) {
+      instructionSet.addAll(b.instructions);
+    }
+    IdentityHashMap<Instruction, List<Instruction>> successors =
+      ssa.successors(ssa.blocks);
+    // globals are read by the callers a function returns to and by the
+    // functions a call goes to
+    BitSet globals = new BitSet();
+    for (Instruction i : instructionSet) {
+      for (Result r : Arrays.asList(i.left, i.right, i.third)) {
+        if (isGlobal(r)) {
+          globals.set(context.liveKey(r.var));
+        }
+      }
+    }
+    HashSet<Instruction> exits = new HashSet<>();
+    for (Block b : ssa.blocks) {
+      if (!"main".equals(b.label)) {
+        for (Instruction i : b.instructions) {
+          if (successors.containsKey(i) && successors.get(i).isEmpty()) {
+            exits.add(i);
+          }
+        }
+      }
+    }
     boolean change_detected;
     do {
+      context.checkInterrupted();
       change_detected = false;
       // Traverse backwards
       // for every instruction in SSA
@@ -35,19 +69,19 @@ public class Optimize {
           continue;
         }
         // First save the current in-set and out-set
-        HashSet<String> originalInSet = currentInstruction.InSet;
-        HashSet<String> originalOutSet = currentInstruction.OutSet;
+        BitSet originalInSet = currentInstruction.InSet;
+        BitSet originalOutSet = currentInstruction.OutSet;
 
-        HashSet<String> definedSet = new HashSet<>();
-        HashSet<String> usedSet = new HashSet<>();
+        BitSet definedSet = new BitSet();
+        BitSet usedSet = new BitSet();
         // MOV e f means move value of e into f
         switch (currentInstruction.inst) {
           case MOVE:
             if (currentInstruction.left.isVariable()) {
-              usedSet.add(currentInstruction.left.var.name);
+              usedSet.set(context.liveKey(currentInstruction.left.var));
             }
             if (currentInstruction.right.isVariable()) {
-              definedSet.add(currentInstruction.right.var.name);
+              definedSet.set(context.liveKey(currentInstruction.right.var));
             }
             break;
           default:
@@ -55,13 +89,25 @@ public class Optimize {
               currentInstruction.left != null &&
               currentInstruction.left.isVariable()
             ) {
-              usedSet.add(currentInstruction.left.var.name);
+              usedSet.set(context.liveKey(currentInstruction.left.var));
             }
             if (
               currentInstruction.right != null &&
               currentInstruction.right.isVariable()
             ) {
-              usedSet.add(currentInstruction.right.var.name);
+              usedSet.set(context.liveKey(currentInstruction.right.var));
+            }
+            if (
+              currentInstruction.inst == op.CALL &&
+              currentInstruction.func_params != null
+            ) {
+              List<Result> params = currentInstruction.func_params;
+              for (int p = 0; p < params.size() - 1; p++) {
+                if (params.get(p).isVariable()) {
+                  usedSet.set(context.liveKey(params.get(p).var));
+                }
+              }
+              usedSet.or(globals);
             }
             break;
         }
@@ -69,19 +115,21 @@ public class Optimize {
         // For out, find the union of previous variables in the in set for each succeeding node of n
         // out[n] := ∪ {in[s] | s ε succ[n]}
         // outSet of a node = the union of all the inSets of n's successors
-        // Successor is simply j + 1
-        if (!((i + 1) >= instructionSet.size())) {
-          currentInstruction.OutSet.addAll(instructionSet.get(i + 1).InSet);
+        // along the control flow graph, phis read all versions of their
+        // variable so its key is live into them from every predecessor
+        for (Instruction next : successors.get(currentInstruction)) {
+          currentInstruction.OutSet.or(next.InSet);
+        }
+        if (exits.contains(currentInstruction)) {
+          currentInstruction.OutSet.or(globals);
         }
 
         // in[n] := use[n] ∪ (out[n] - def[n])
         // (out[n] - def[n])
-        HashSet<String> temporaryOutSet = new HashSet<String>();
-
-        temporaryOutSet.addAll(currentInstruction.OutSet);
-        temporaryOutSet.removeAll(definedSet);
+        BitSet temporaryOutSet = (BitSet) currentInstruction.OutSet.clone();
+        temporaryOutSet.andNot(definedSet);
         // use[n]
-        usedSet.addAll(temporaryOutSet);
+        usedSet.or(temporaryOutSet);
         currentInstruction.InSet = usedSet;
 
         boolean inSetChanged =
@@ -116,7 +164,8 @@ public class Optimize {
         // Right is a variable that is being assigned to
         // If the outset does not contain a variable that is being defined,
         // Then it means that this definition is unused, so remove it
-        if (!instruction.OutSet.contains(instruction.right.var.name)) {
+        int defined = context.liveKey(instruction.right.var);
+        if (!instruction.OutSet.get(defined)) {
           change_made = true;
           instruction.eliminated = true;
         }
@@ -137,20 +186,41 @@ public class Optimize {
     return change_made;
   }
 
+  private static boolean isGlobal(Result r) {
+    return (
+      r != null &&
+      r.isVariable() &&
+      r.var != null &&
+      r.var.OG.scope == Symbol.GLOBAL
+    );
+  }
+
   public boolean copy_propogation() {
     boolean changed = false;
     // TODO: make revisions to PHI for copy_propogation
     // (Maybe? cuz we can also compare between two different symbols as well)
+    IdentityHashMap<Instruction, List<Instruction>> successors =
+      ssa.successors(ssa.blocks);
+    IdentityHashMap<Instruction, HashSet<Instruction>> clobbered =
+      new IdentityHashMap<>();
     for (Block b : ssa.blocks) {
       for (Instruction i : b.instructions) {
+        // phis are resolved by every version sharing the variable's register,
+        // their operands have to stay versions of it
+        if (i.inst == op.PHI) {
+          continue;
+        }
         // Is left a variable?
         if (i.left != null && i.left.kind == Result.VAR) {
           //Left is a variable, okay then using the MOVE instruction refed by the variable are we assigning a var?
+          Instruction copy = i.left.var.instruction;
           if (
-            i.left.var.instruction != null &&
-            i.left.var.instruction.left.kind == Result.VAR
+            copy != null &&
+            copy.inst == op.MOVE &&
+            copy.left.kind == Result.VAR &&
+            !clobbered(copy, successors, clobbered).contains(i)
           ) {
-            i.left = i.left.var.instruction.left;
+            i.setLeft(copy.left);
             changed = true;
           }
         }
@@ -158,11 +228,14 @@ public class Optimize {
         if (
           i.right != null && i.right.kind == Result.VAR && i.inst != op.MOVE
         ) {
+          Instruction copy = i.right.var.instruction;
           if (
-            i.right.var.instruction != null &&
-            i.right.var.instruction.left.kind == Result.VAR
+            copy != null &&
+            copy.inst == op.MOVE &&
+            copy.left.kind == Result.VAR &&
+            !clobbered(copy, successors, clobbered).contains(i)
           ) {
-            i.right = i.right.var.instruction.left;
+            i.setRight(copy.left);
             changed = true;
           }
         }
@@ -175,6 +248,61 @@ public class Optimize {
     return changed;
   }
 
+  // The instructions a path from copy reaches after the variable it copies
+  // is assigned again, before copy runs again: every version of a variable
+  // shares its register, so there the version copy read is gone. All of
+  // them if copy is eliminated and no longer runs.
+  private HashSet<Instruction> clobbered(
+    Instruction copy,
+    IdentityHashMap<Instruction, List<Instruction>> successors,
+    IdentityHashMap<Instruction, HashSet<Instruction>> known
+  ) {
+    if (known.containsKey(copy)) {
+      return known.get(copy);
+    }
+    HashSet<Instruction> dirty = new HashSet<>();
+    if (!successors.containsKey(copy)) {
+      for (Block b : ssa.blocks) {
+        dirty.addAll(b.instructions);
+      }
+      known.put(copy, dirty);
+      return dirty;
+    }
+    Symbol OG = copy.left.var.OG;
+    HashSet<Instruction> clean = new HashSet<>();
+    ArrayDeque<Instruction> cleanWork = new ArrayDeque<>(successors.get(copy));
+    ArrayDeque<Instruction> dirtyWork = new ArrayDeque<>();
+    while (!cleanWork.isEmpty()) {
+      Instruction i = cleanWork.poll();
+      if (i == copy || !clean.add(i)) {
+        continue;
+      }
+      (assigns(i, OG) ? dirtyWork : cleanWork).addAll(successors.get(i));
+    }
+    while (!dirtyWork.isEmpty()) {
+      Instruction i = dirtyWork.poll();
+      if (i != copy && dirty.add(i)) {
+        dirtyWork.addAll(successors.get(i));
+      }
+    }
+    known.put(copy, dirty);
+    return dirty;
+  }
+
+  // whether i assigns some version of OG, a call any global
+  private static boolean assigns(Instruction i, Symbol OG) {
+    switch (i.inst) {
+      case MOVE:
+        return i.right.kind == Result.VAR && i.right.var.OG == OG;
+      case PHI:
+        return i.third != null && i.third.var.OG == OG;
+      case CALL:
+        return OG.scope == Symbol.GLOBAL;
+      default:
+        return false;
+    }
+  }
+
   public boolean subexpr_elim() {
     boolean changed = false;
     // Operators where order matters will need to have left and right exactly the same
@@ -200,7 +328,6 @@ public class Optimize {
     for (Block b : ssa.blocks) {
       b.visited.clear();
     }
-    ssa.instantiateUsedAt();
     // Do Find Best Place
     // Clean up
     for (Block b : ssa.roots) {
@@ -208,12 +335,6 @@ public class Optimize {
     }
     for (Block b : ssa.blocks) {
       for (Instruction i : b.instructions) {
-        if (i.left != null && i.left.kind == Result.INST) {
-          i.left.inst.usedAt = null;
-        }
-        if (i.right != null && i.right.kind == Result.INST) {
-          i.right.inst.usedAt = null;
-        }
         i.availableExpr.clear();
         i.equivList.clear();
       }
@@ -254,13 +375,13 @@ public class Optimize {
       }
       // Is where it's used also have the same equivalences
       // Need to do it like this because the nxt instruction might not be for it
-      if (i.usedAt != null) {
+      if (i.usedAt() != null) {
         // Make sure the equivList from i is the equivList of curr but all the instruction nums are + 1
         boolean equiv = true;
         for (Instruction nxt : i.equivList) {
           // Basically if where they were usedAt do not compare
           // then we know this is the best we can get on this branch of instruction
-          if (!nxt.usedAt.compare(i.usedAt)) {
+          if (!nxt.usedAt().compare(i.usedAt())) {
             equiv = false;
             break;
           }
@@ -281,8 +402,8 @@ public class Optimize {
       res.kind = Result.VAR;
       subSym += "t.";
       res.var = new Symbol(subSym, new VoidType());
-      res.storeResult();
-      fuList.add(new Instruction(op.MOVE, null, res)); // Set left to null until after forLoop
+      res.storeResult(context);
+      fuList.add(new Instruction(context, op.MOVE, null, res)); // Set left to null until after forLoop
     }
     // I should now have a fullList of things that need to be created and made
     change = !fuList.isEmpty();
@@ -300,17 +421,18 @@ public class Optimize {
         thisInst.left.kind = Result.INST;
         thisInst.left.inst = single.get(single.size() - 1);
         thisInst.right.var.instruction = thisInst;
-        thisInst.left.storeResult();
+        thisInst.left.storeResult(context);
         single.add(thisInst);
         for (Instruction place : single) {
           int prev = find.instructions.get(f + 1).my_num;
           renumber(prev);
           place.my_num = prev;
           find.instructions.add(f + 1, place);
+          place.linkUses();
           f++;
         }
         Instruction rep = fuList.get(i - 1);
-        Instruction per = rep.usedAt;
+        Instruction per = rep.usedAt();
         if (
           per.left != null &&
           per.left.kind == Result.INST &&
@@ -324,9 +446,11 @@ public class Optimize {
           per.right.kind = Result.VAR;
           per.right.var = thisInst.right.var;
         }
+        per.unlinkFrom(rep);
+        per.linkUses();
         for (Instruction rr : fuList.get(i - 1).equivList) {
           rep = rr;
-          per = rep.usedAt;
+          per = rep.usedAt();
           if (
             per.left != null &&
             per.left.kind == Result.INST &&
@@ -340,6 +464,8 @@ public class Optimize {
             per.right.kind = Result.VAR;
             per.right.var = thisInst.right.var;
           }
+          per.unlinkFrom(rep);
+          per.linkUses();
         }
         for (int jjj = i - 1; jjj >= 0; jjj--) {
           if (fuList.get(jjj).inst == op.MOVE) {
@@ -364,7 +490,7 @@ public class Optimize {
         boolean itself = true;
         // If they all have the same dom of it then it will go there
         for (Instruction a : thisInst.equivList) {
-          if (!a.blockLoc.doms.contains(thisInst.blockLoc)) {
+          if (!a.blockLoc.dominatedBy(thisInst.blockLoc)) {
             itself = false;
           }
         }
@@ -442,7 +568,7 @@ public class Optimize {
       if (right.kind == Result.PROC) {
         right.proc = thisInst.right.proc;
       }
-      right.storeResult();
+      right.storeResult(context);
       Result left = null;
       if (thisInst.left != null) {
         left = new Result();
@@ -458,15 +584,15 @@ public class Optimize {
         if (left.kind == Result.CONST) {
           left.value = thisInst.left.value;
         }
-        Instruction jk = new Instruction(thisInst.inst, left, right);
+        Instruction jk = new Instruction(context, thisInst.inst, left, right);
         jk.blockLoc = find;
         single.add(jk);
-        left.storeResult();
+        left.storeResult(context);
       } else {
         if (right.kind != Result.INST) {
           instBehind++;
         }
-        Instruction jk = new Instruction(thisInst.inst, null, right);
+        Instruction jk = new Instruction(context, thisInst.inst, null, right);
         jk.blockLoc = find;
         single.add(jk);
       }
@@ -504,19 +630,20 @@ public class Optimize {
   }
 
   public void ignoreAll(HashSet<Instruction> ignore, Instruction root) {
-    if (root.usedAt != null) {
-      ignore.add(root.usedAt);
-      ignoreAll(ignore, root.usedAt);
+    Instruction usedAt = root.usedAt();
+    if (usedAt != null) {
+      ignore.add(usedAt);
+      ignoreAll(ignore, usedAt);
     }
   }
 
   public Block findCommonDomBlock(Instruction thisInst) {
     HashSet<Block> bSet = new HashSet<>();
     // Add all common Dom blocks to the HashSet
-    for (Block b : thisInst.blockLoc.doms) {
+    for (Block b = thisInst.blockLoc; b != null; b = b.iDom) {
       boolean good = true;
       for (Instruction j : thisInst.availableExpr) {
-        if (!j.blockLoc.doms.contains(b)) {
+        if (!j.blockLoc.dominatedBy(b)) {
           good = false;
           break;
         }
@@ -531,7 +658,7 @@ public class Optimize {
       for (Block j : bSet) {
         if (b == j) {
           continue;
-        } else if (!b.doms.contains(j)) {
+        } else if (!b.dominatedBy(j)) {
           good = false;
           break;
         }
@@ -757,7 +884,7 @@ public class Optimize {
             i.left.var.instruction != null &&
             i.left.var.instruction.left.kind == Result.CONST
           ) {
-            i.left = i.left.var.instruction.left;
+            i.setLeft(i.left.var.instruction.left);
             changed = true;
           }
         }
@@ -769,7 +896,7 @@ public class Optimize {
             i.right.var.instruction != null &&
             i.right.var.instruction.left.kind == Result.CONST
           ) {
-            i.right = i.right.var.instruction.left;
+            i.setRight(i.right.var.instruction.left);
             changed = true;
           }
         }
@@ -784,7 +911,6 @@ public class Optimize {
 
   public boolean constant_folding() {
     // TODO: Deal with special arithmetic cases of 0 and 1
-    ssa.instantiateUsedAt();
     boolean changed = false;
     for (Block b : ssa.blocks) {
       int index = 0;
@@ -903,7 +1029,7 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
           case BLE:
@@ -918,7 +1044,7 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
           case BNE:
@@ -933,7 +1059,7 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
           case BEQ:
@@ -948,7 +1074,7 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
           case BGT:
@@ -963,7 +1089,7 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
           case BGE:
@@ -978,13 +1104,16 @@ public class Optimize {
                   }
                 }
               }
-              i.left = null;
+              i.setLeft(null);
             }
             break;
         }
         index++;
-        if (i.eliminated && i.usedAt != null) {
-          Instruction nxt = i.usedAt;
+        if (!i.eliminated) {
+          continue;
+        }
+        // every user takes the folded value
+        for (Instruction nxt : new ArrayList<>(i.users)) {
           if (nxt.inst == op.CALL) {
             for (Result r : nxt.func_params) {
               if (r.kind == Result.INST && r.inst == i) {
@@ -1017,6 +1146,7 @@ public class Optimize {
             nxt.third.kind = Result.CONST;
             nxt.third.value = new_val;
           }
+          nxt.unlinkFrom(i);
         }
       }
     }
@@ -1027,6 +1157,12 @@ public class Optimize {
     return changed;
   }
 
+  // What rounds of cp and cf do in one pass, also dropping the blocks only a
+  // branch on a constant could have gone to, see ConditionalConstants
+  public boolean sparse_conditional_constants() {
+    return new ConditionalConstants(ssa).run();
+  }
+
   public boolean orphan_function() {
     // Get the list of functions, check every instruction and remove the functions that have been called,
     // Elim the entire block of a function that isn't used
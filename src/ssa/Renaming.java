@@ -0,0 +1,292 @@
+package ssa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import pl434.Symbol;
+import ssa.Instruction.op;
+
+// Renames the variables into SSA once the phis are placed, after Cytron et
+// al. One walk down the dominator tree of each root keeps a stack of versions
+// per variable: a block pushes the versions its phis and assignments define,
+// its operands read the tops, the phis of its successors take the tops for
+// the edge from it, and the block pops what it pushed once its subtree is
+// done. Only variables assigned in the function get phis. An operand or phi
+// edge no version reached reads the variable's default, numbered -1, so a
+// version read is defined nowhere or in a block dominating the read, the
+// source of the edge for a phi. Phis
+// whose operands end up one version are dropped for it, and the rest are
+// numbered before the first instruction of their block.
+final class Renaming {
+
+  private final SSA ssa;
+  private final HashMap<Symbol, ArrayDeque<Symbol>> versions = new HashMap<>();
+  // versions of dropped phis and what their readers read instead
+  private final HashMap<Symbol, Symbol> replaced = new HashMap<>();
+
+  Renaming(SSA ssa) {
+    this.ssa = ssa;
+  }
+
+  void run() {
+    ArrayList<Instruction> phis = new ArrayList<>();
+    for (Block root : ssa.roots) {
+      if (root.dominators != null) {
+        rename(root.dominators, phis);
+      }
+    }
+    // edges from blocks no root reaches
+    for (Instruction phi : phis) {
+      if (phi.right.var == null) {
+        phi.right.var = fallback(phi.third.var.OG);
+      }
+      if (phi.left.var == null) {
+        phi.left.var = fallback(phi.third.var.OG);
+      }
+    }
+    dropCopies(phis);
+    number(phis);
+  }
+
+  // Walk ======================================================================
+
+  private void rename(Dominators tree, ArrayList<Instruction> phis) {
+    HashSet<Symbol> assigned = new HashSet<>();
+    for (int n = 0; n < tree.size(); n++) {
+      for (Instruction i : tree.block(n).instructions) {
+        if (i.inst == op.MOVE && i.right.kind == Result.VAR) {
+          assigned.add(i.right.var.OG);
+        }
+      }
+    }
+    // by name in each block, the symbols hash by identity
+    for (int n = 0; n < tree.size(); n++) {
+      Block b = tree.block(n);
+      ArrayList<Symbol> placed = new ArrayList<>(b.phis.keySet());
+      placed.sort(Comparator.comparing(Symbol::name));
+      for (Symbol OG : placed) {
+        if (assigned.contains(OG)) {
+          open(b.phis.get(OG), OG, b);
+          phis.add(b.phis.get(OG));
+        }
+      }
+    }
+    // number of each block on the walk and its next child, and what each
+    // block pushed
+    int[] stack = new int[tree.size()];
+    int[] next = new int[tree.size()];
+    ArrayList<ArrayList<Symbol>> pushed = new ArrayList<>();
+    int top = 0;
+    stack[top] = 0;
+    next[top++] = 0;
+    pushed.add(enter(tree.block(0)));
+    while (top > 0) {
+      int n = stack[top - 1];
+      if (next[top - 1] == tree.childCount(n)) {
+        for (Symbol OG : pushed.remove(top - 1)) {
+          versions.get(OG).pop();
+        }
+        top--;
+        continue;
+      }
+      int c = tree.child(n, next[top - 1]++);
+      stack[top] = c;
+      next[top++] = 0;
+      pushed.add(enter(tree.block(c)));
+    }
+  }
+
+  // the phi of OG in b, defining a new version, without operands yet
+  private void open(Instruction phi, Symbol OG, Block b) {
+    phi.right = variable(null);
+    phi.left = variable(null);
+    phi.third = variable(new Symbol(OG, true, ssa.context));
+    phi.third.var.instruction = phi;
+    phi.blockLoc = b;
+  }
+
+  private Result variable(Symbol var) {
+    Result r = new Result();
+    r.kind = Result.VAR;
+    r.var = var;
+    r.storeResult(ssa.context);
+    return r;
+  }
+
+  // renames in b and the phis of its successors, returns the variables of
+  // the versions pushed
+  private ArrayList<Symbol> enter(Block b) {
+    ArrayList<Symbol> pushed = new ArrayList<>();
+    for (Instruction phi : b.phis.values()) {
+      if (phi.third != null) {
+        push(phi.third.var, pushed);
+      }
+    }
+    for (Instruction i : b.instructions) {
+      if (i.inst == op.LOAD) {
+        continue;
+      }
+      read(i.left);
+      if (i.inst == op.MOVE && i.right.kind == Result.VAR) {
+        push(i.right.var, pushed);
+      } else if (i.inst != op.STORE) {
+        read(i.right);
+      }
+      if (i.func_params != null) {
+        for (int k = 0; k < i.func_params.size() - 1; k++) {
+          read(i.func_params.get(k));
+        }
+      }
+    }
+    for (Block s : b.edges) {
+      boolean right = s.phiBlock.get(b) == s.phi1;
+      for (Entry<Symbol, Instruction> e : s.phis.entrySet()) {
+        Instruction phi = e.getValue();
+        if (phi.third != null) {
+          (right ? phi.right : phi.left).var = current(e.getKey());
+        }
+      }
+    }
+    return pushed;
+  }
+
+  private void push(Symbol version, ArrayList<Symbol> pushed) {
+    versions
+      .computeIfAbsent(version.OG, k -> new ArrayDeque<>())
+      .push(version);
+    pushed.add(version.OG);
+  }
+
+  private void read(Result r) {
+    if (r == null || r.kind != Result.VAR || r.var == null) {
+      return;
+    }
+    r.var = current(r.var.OG);
+  }
+
+  // the version of OG reaching the walk, its default if none does
+  private Symbol current(Symbol OG) {
+    ArrayDeque<Symbol> stack = versions.get(OG);
+    if (stack != null && !stack.isEmpty()) {
+      return stack.peek();
+    }
+    return fallback(OG);
+  }
+
+  // as SSA.visit(Assignment) makes it, for variables it did not see
+  private Symbol fallback(Symbol OG) {
+    Symbol def = ssa.allSymbols.get(OG);
+    if (def == null) {
+      def = new Symbol(OG, true, ssa.context);
+      def.my_assign = -1;
+      ssa.allSymbols.put(OG, def);
+    }
+    return def;
+  }
+
+  // Phis ======================================================================
+
+  // drops the phis reading one version, or only their own besides, and
+  // points their readers at that version
+  private void dropCopies(ArrayList<Instruction> phis) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Instruction phi : phis) {
+        if (replaced.containsKey(phi.third.var)) {
+          continue;
+        }
+        Symbol r = resolve(phi.right.var);
+        Symbol l = resolve(phi.left.var);
+        Symbol self = phi.third.var;
+        if ((r == l || l == self) && r != self) {
+          replaced.put(self, r);
+          changed = true;
+        } else if (r == self && l != self) {
+          replaced.put(self, l);
+          changed = true;
+        } else if (r == self) {
+          // reads nothing but itself, no version reaches it
+          replaced.put(self, fallback(self.OG));
+          changed = true;
+        }
+      }
+    }
+    if (replaced.isEmpty()) {
+      return;
+    }
+    for (Block b : ssa.blocks) {
+      for (Instruction i : b.instructions) {
+        redirect(i.left);
+        redirect(i.right);
+        if (i.func_params != null) {
+          for (Result r : i.func_params) {
+            redirect(r);
+          }
+        }
+      }
+    }
+    for (Instruction phi : phis) {
+      redirect(phi.right);
+      redirect(phi.left);
+    }
+  }
+
+  private Symbol resolve(Symbol version) {
+    Symbol to = replaced.get(version);
+    while (to != null && replaced.containsKey(to)) {
+      to = replaced.get(to);
+    }
+    return to == null ? version : to;
+  }
+
+  private void redirect(Result r) {
+    if (r != null && r.kind == Result.VAR && r.var != null) {
+      r.var = resolve(r.var);
+    }
+  }
+
+  // puts the phis kept at the head of their blocks, the first numbered as
+  // the block's first instruction was and everything after it up by one; a
+  // block with no other instruction takes the number of the first in the
+  // blocks after it
+  private void number(ArrayList<Instruction> phis) {
+    Numbering numbering = new Numbering(ssa.blocks);
+    HashMap<Block, Integer> order = new HashMap<>();
+    for (Block b : ssa.blocks) {
+      order.put(b, order.size());
+    }
+    HashMap<Block, Integer> placed = new HashMap<>();
+    for (Instruction phi : phis) {
+      if (replaced.containsKey(phi.third.var)) {
+        continue;
+      }
+      Block b = phi.blockLoc;
+      int at = placed.getOrDefault(b, 0);
+      phi.my_num = numbering.end();
+      if (at < b.instructions.size()) {
+        phi.my_num = numbering.number(b.instructions.get(at));
+      } else if (order.containsKey(b)) {
+        for (int k = order.get(b) + 1; k < ssa.blocks.size(); k++) {
+          List<Instruction> next = ssa.blocks.get(k).instructions;
+          if (!next.isEmpty()) {
+            phi.my_num = numbering.number(next.get(0));
+            break;
+          }
+        }
+      }
+      numbering.insert(phi);
+      b.instructions.add(at, phi);
+      placed.put(b, at + 1);
+      for (Entry<Block, HashMap<Symbol, Symbol>> e : b.phiBlock.entrySet()) {
+        Result side = e.getValue() == b.phi1 ? phi.right : phi.left;
+        phi.phiBtoR.put(e.getKey(), side);
+      }
+    }
+    numbering.finish();
+  }
+}
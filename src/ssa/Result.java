@@ -1,6 +1,6 @@
 package ssa;
 
-import java.util.HashMap;
+import pl434.CompilationContext;
 import pl434.DLX;
 import pl434.Symbol;
 import types.FloatType;
@@ -17,7 +17,6 @@ public class Result {
   public static final int INST = 4;
   public static final int GDB = 5;
   public static final int REG = 6;
-  public static int pointer_address = 10000;
   public int kind;
   public Instruction inst;
   public Block proc;
@@ -28,26 +27,10 @@ public class Result {
 
   public Symbol var;
 
-  public static HashMap<String, Result> allResults = new HashMap<String, Result>();
-  public static int num_no_names = 0;
   public int result_count = 0; // How many times this Result is used
 
-  public void storeResult() {
-    if (this.var != null && this.var.name != null) {
-      allResults.put(this.var.name, this);
-    } else {
-      num_no_names++;
-    }
-  }
-
-  public static void printAllResults() {
-    System.out.println("*************************");
-    for (String r : allResults.keySet()) {
-      System.out.println("Variable " + r);
-      System.out.println(allResults.get(r));
-    }
-    System.out.println("TOTAL OF " + num_no_names + " RESULTS WITH NO NAME");
-    System.out.println("*************************");
+  public void storeResult(CompilationContext context) {
+    context.storeResult(this);
   }
 
   @Override
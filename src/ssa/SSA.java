@@ -2,13 +2,17 @@ package ssa;
 
 import ast.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Stack;
 import java.util.function.Predicate;
+import pl434.CompilationContext;
 import pl434.DLX;
 import pl434.Symbol;
 import ssa.Instruction.op;
@@ -19,6 +23,9 @@ import types.*;
 // The second will find merging points of a CFG and use PHI to merge same vars (see lecture slide 08-SSA.pdf)
 public class SSA implements NodeVisitor {
 
+  // source line of the statement being translated
+  int line = -1;
+
   // To Calculate PHI
   Block currBlock;
   Result currRes;
@@ -36,8 +43,12 @@ public class SSA implements NodeVisitor {
 
   public ArrayList<Instruction> allInstructions = new ArrayList<>();
 
+  // the compilation this belongs to, numbers instructions and blocks
+  public final CompilationContext context;
+
   // TODO: test012, test014
-  public SSA() {
+  public SSA(CompilationContext context) {
+    this.context = context;
     currBlock = new Block(this);
     currDim = -1;
     this.assign = false;
@@ -48,45 +59,15 @@ public class SSA implements NodeVisitor {
     opt = new Optimize(this);
   }
 
+  // the phis placed, renamed into and numbered
   public void buildPhi() {
-    for (Block b : roots) {
-      findInnerByDomFront(new HashSet<>(), b);
-    }
-  }
-
-  public void buildPhiEasy() {
-    for (Block b : roots) {
-      ArrayList<Block> bb = inOrderBlock(b);
-      for (Block bbb : bb) {
-        bbb.findPhiVars();
-        bbb.createPhiInst();
-      }
-    }
-  }
-
-  public void findInnerByDomFront(HashSet<Block> visited, Block curr) {
-    if (visited.contains(curr)) {
-      return;
-    }
-    visited.add(curr);
-    for (Block b : curr.edges) {
-      if (!curr.domFront.contains(b)) {
-        findInnerByDomFront(visited, b);
-      }
-    }
-    //System.out.println(curr.my_num);
-    curr.findPhiVars();
-    curr.createPhiInst();
-    for (Block b : curr.edges) {
-      if (curr.domFront.contains(b)) {
-        findInnerByDomFront(visited, b);
-      }
-    }
+    new Renaming(this).run();
   }
 
   @Override
   public void visit(StatementSequence node) {
     for (Statement s : node) {
+      context.checkInterrupted();
       s.accept(this);
     }
   }
@@ -126,8 +107,8 @@ public class SSA implements NodeVisitor {
     // end.kind = Result.CONST;
     // end.value = 0;
     // end.endFunc = true;
-    // end.storeResult();
-    //addInstruction(new Instruction(op.RET, null, end));
+    // end.storeResult(context);
+    //addInstruction(new Instruction(context, op.RET, null, end));
     addCurr();
   }
 
@@ -151,8 +132,8 @@ public class SSA implements NodeVisitor {
     end.kind = Result.CONST;
     end.value = 0;
     end.endFunc = true;
-    end.storeResult();
-    addInstruction(new Instruction(op.RET, null, end));
+    end.storeResult(context);
+    addInstruction(new Instruction(context, op.RET, null, end));
     addCurr();
     //removeEmpties();
     DominatorTree tree = new DominatorTree(this);
@@ -175,26 +156,16 @@ public class SSA implements NodeVisitor {
     for (Block b : roots) {
       tree.buildTree(b);
       System.out.println();
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-      tree.iterPhi(new HashSet<>(), b);
-    }
-    setDefaultLatest();
-    // buildPhi();
-    buildPhiEasy();
+      tree.placePhis(b);
+    }
+    buildPhi();
     for (Block b : blocks) {
       b.visited.clear();
       for (Instruction i : b.instructions) {
         i.blockLoc = b;
       }
     }
+    linkUsers();
     // //opt.subexpr_elim();
     // HashSet<Block> st = new HashSet<>();
     // for (Block b : blocks) {
@@ -219,6 +190,7 @@ public class SSA implements NodeVisitor {
 
   @Override
   public void visit(RepeatStatement node) {
+    line = node.lineNumber();
     Block oldBlock = currBlock;
     // Connecting previous block to repeatBlock unless it is empty
     Block begin = currBlock; // Just initalizing
@@ -258,6 +230,7 @@ public class SSA implements NodeVisitor {
 
   @Override
   public void visit(WhileStatement node) {
+    line = node.lineNumber();
     //Save prev block to add relBlock as an edge
     Block oldBlock = currBlock;
 
@@ -298,16 +271,18 @@ public class SSA implements NodeVisitor {
 
   @Override
   public void visit(ReturnStatement node) {
+    line = node.lineNumber();
     if (node.relation() != null) {
       node.relation().accept(this);
-      addInstruction(new Instruction(op.RET, null, currRes));
+      addInstruction(new Instruction(context, op.RET, null, currRes));
     } else {
-      addInstruction(new Instruction(op.RET, null, null));
+      addInstruction(new Instruction(context, op.RET, null, null));
     }
   }
 
   @Override
   public void visit(IfStatement node) {
+    line = node.lineNumber();
     node.relation().accept(this);
     Result relRes = currRes;
     Block oldBlock = currBlock;
@@ -338,7 +313,7 @@ public class SSA implements NodeVisitor {
     oldBlock.addEdge(currBlock, "else");
 
     if (node.elseSequence() != null) {
-      Instruction kk = new Instruction(op.BRA);
+      Instruction kk = new Instruction(context, op.BRA);
       lastThen.addInstruction(kk);
       node.elseSequence().accept(this);
       //Add reference to the currBlock so that these blocks can be related to after the if/else statement
@@ -359,21 +334,21 @@ public class SSA implements NodeVisitor {
 
   @Override
   public void visit(Assignment node) {
+    line = node.lineNumber();
     node.right().accept(this);
     Result right = currRes;
     this.assign = true;
     node.addressOf().accept(this);
     this.assign = false;
     if (node.addressOf().getClass().equals(ArrayIndex.class)) {
-      addInstruction(new Instruction(op.STORE, right, currRes));
+      addInstruction(new Instruction(context, op.STORE, right, currRes));
     } else {
       Result res = currRes;
-      Instruction i = new Instruction(op.MOVE, right, currRes);
+      Instruction i = new Instruction(context, op.MOVE, right, currRes);
       addInstruction(i);
-      currBlock.latest.put(res.var.OG, res.var);
       res.var.OG.instruction = i;
       if (!allSymbols.containsKey(res.var.OG)) {
-        Symbol def = new Symbol(res.var.OG, true);
+        Symbol def = new Symbol(res.var.OG, true, context);
         def.my_assign = -1;
         allSymbols.put(res.var.OG, def);
       }
@@ -384,8 +359,8 @@ public class SSA implements NodeVisitor {
   public void visit(AddressOf node) {
     currRes = new Result();
     currRes.kind = Result.VAR;
-    currRes.var = new Symbol(node.symbol(), this.assign);
-    currRes.storeResult();
+    currRes.var = new Symbol(node.symbol(), this.assign, context);
+    currRes.storeResult(context);
   }
 
   @Override
@@ -393,7 +368,7 @@ public class SSA implements NodeVisitor {
     this.assign = false;
     node.expression.accept(this);
     if (node.expression.getClass().equals(ArrayIndex.class)) {
-      addInstruction(new Instruction(op.LOAD, currRes));
+      addInstruction(new Instruction(context, op.LOAD, currRes));
     } else {
       currRes.type = currRes.var.type;
     }
@@ -412,7 +387,7 @@ public class SSA implements NodeVisitor {
         break;
     }
     currRes.type = new BoolType();
-    currRes.storeResult();
+    currRes.storeResult(context);
   }
 
   @Override
@@ -421,7 +396,7 @@ public class SSA implements NodeVisitor {
     currRes.kind = Result.CONST;
     currRes.value = Integer.parseInt(node.literal());
     currRes.type = new IntType();
-    currRes.storeResult();
+    currRes.storeResult(context);
   }
 
   @Override
@@ -430,14 +405,14 @@ public class SSA implements NodeVisitor {
     //currRes.value = DLX.fromFP32ToFP16(Float.parseFloat(node.literal()));
     currRes.kind = Result.CONST;
     currRes.type = new FloatType();
-    currRes.storeResult();
+    currRes.storeResult(context);
     currRes.fvalue = Float.parseFloat(node.literal());
   }
 
   @Override
   public void visit(LogicalNot node) {
     node.right().accept(this);
-    addInstruction(new Instruction(op.NEG, currRes));
+    addInstruction(new Instruction(context, op.NEG, currRes));
   }
 
   @Override
@@ -445,7 +420,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.POW, left, currRes));
+    addInstruction(new Instruction(context, op.POW, left, currRes));
   }
 
   @Override
@@ -453,7 +428,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.MUL, left, currRes));
+    addInstruction(new Instruction(context, op.MUL, left, currRes));
   }
 
   @Override
@@ -461,7 +436,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.DIV, left, currRes));
+    addInstruction(new Instruction(context, op.DIV, left, currRes));
   }
 
   @Override
@@ -469,7 +444,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.MOD, left, currRes));
+    addInstruction(new Instruction(context, op.MOD, left, currRes));
   }
 
   @Override
@@ -477,7 +452,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.AND, left, currRes));
+    addInstruction(new Instruction(context, op.AND, left, currRes));
   }
 
   @Override
@@ -485,7 +460,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.ADD, left, currRes));
+    addInstruction(new Instruction(context, op.ADD, left, currRes));
   }
 
   @Override
@@ -493,7 +468,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.SUB, left, currRes));
+    addInstruction(new Instruction(context, op.SUB, left, currRes));
   }
 
   @Override
@@ -501,7 +476,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.OR, left, currRes));
+    addInstruction(new Instruction(context, op.OR, left, currRes));
   }
 
   @Override
@@ -509,7 +484,7 @@ public class SSA implements NodeVisitor {
     node.left().accept(this);
     Result left = currRes;
     node.right().accept(this);
-    addInstruction(new Instruction(op.CMP, left, currRes));
+    addInstruction(new Instruction(context, op.CMP, left, currRes));
   }
 
   @Override
@@ -522,6 +497,7 @@ public class SSA implements NodeVisitor {
 
   @Override
   public void visit(FunctionCall node) {
+    line = node.lineNumber();
     //Save argument List just in case FunctionCall is has nested CALL's
     ArrayList<Result> savedArgList = params;
     params = new ArrayList<>();
@@ -534,10 +510,10 @@ public class SSA implements NodeVisitor {
         case "printInt":
         case "printFloat":
         case "printBool":
-          addInstruction(new Instruction(op.WRITE, params.get(0)));
+          addInstruction(new Instruction(context, op.WRITE, params.get(0)));
           break;
         case "println":
-          addInstruction(new Instruction(op.WRITENL));
+          addInstruction(new Instruction(context, op.WRITENL));
           break;
         case "readInt":
           i--;
@@ -545,7 +521,7 @@ public class SSA implements NodeVisitor {
           i--;
         case "readBool":
           i--;
-          addInstruction(new Instruction(op.READ));
+          addInstruction(new Instruction(context, op.READ));
           break;
       }
       switch (i) {
@@ -569,10 +545,10 @@ public class SSA implements NodeVisitor {
     Result this_func = new Result();
     this_func.kind = Result.VAR;
     this_func.var = node.function;
-    this_func.storeResult();
+    this_func.storeResult(context);
     this_func.var.regno = 1;
     params.add(this_func);
-    addInstruction(new Instruction(op.CALL, params));
+    addInstruction(new Instruction(context, op.CALL, params));
     // Set argumentList to previous args
     params = savedArgList;
   }
@@ -595,7 +571,7 @@ public class SSA implements NodeVisitor {
     Result rightRes = currRes;
     // If this is not the first ArrayIndex then add previous Result to node.right result
     if (nested) {
-      addInstruction(new Instruction(op.ADD, resOfPrev, rightRes));
+      addInstruction(new Instruction(context, op.ADD, resOfPrev, rightRes));
     }
 
     // If ArrayIndex is not the last, then MUL nextDimiension by node.right result
@@ -604,15 +580,15 @@ public class SSA implements NodeVisitor {
       nxtMaxDim.kind = Result.CONST;
       nxtMaxDim.value =
         ((ArrayType) node.symbol.type).dimVals().get(currDim + 1);
-      addInstruction(new Instruction(op.MUL, currRes, nxtMaxDim));
-      nxtMaxDim.storeResult();
+      addInstruction(new Instruction(context, op.MUL, currRes, nxtMaxDim));
+      nxtMaxDim.storeResult(context);
     } else {
       // MUL the addy by 4 to fit PC DLX format
       Result nxtMaxDim = new Result();
       nxtMaxDim.kind = Result.CONST;
       nxtMaxDim.value = 4;
-      nxtMaxDim.storeResult();
-      addInstruction(new Instruction(op.MUL, currRes, nxtMaxDim));
+      nxtMaxDim.storeResult(context);
+      addInstruction(new Instruction(context, op.MUL, currRes, nxtMaxDim));
       // currBlock.instructions.get(currBlock.instructions.size() - 1).isArrayMul =
       //   true;
       Result mResult = currRes;
@@ -625,11 +601,11 @@ public class SSA implements NodeVisitor {
       // Make the GDB Result to have x: ADD GDB var.name
       Result gdb = new Result();
       gdb.kind = Result.GDB;
-      addInstruction(new Instruction(op.ADD, gdb, leftRes));
-      gdb.storeResult();
+      addInstruction(new Instruction(context, op.ADD, gdb, leftRes));
+      gdb.storeResult(context);
 
       // Doing ADDA instruction using saved mResult and GDB inst
-      addInstruction(new Instruction(op.ADDA, currRes, mResult));
+      addInstruction(new Instruction(context, op.ADDA, currRes, mResult));
 
       currDim--;
       return;
@@ -647,8 +623,9 @@ public class SSA implements NodeVisitor {
     if (currRes.inst.right != null) {
       currRes.type = currRes.inst.right.type;
     }
+    inst.line = line;
     currBlock.addInstruction(inst);
-    currRes.storeResult();
+    currRes.storeResult(context);
     // We're now saving all instructions in order ,,, I think
     allInstructions.add(inst);
   }
@@ -666,7 +643,7 @@ public class SSA implements NodeVisitor {
     currRes.kind = Result.PROC;
     currRes.value = currBlock.my_num;
     currBlock = new Block(this);
-    currRes.storeResult();
+    currRes.storeResult(context);
   }
 
   public String asDotGraph() {
@@ -736,38 +713,29 @@ public class SSA implements NodeVisitor {
     block.hasBreak = true;
     switch (tok) {
       case "==":
-        block.addInstruction(new Instruction(op.BEQ, left, right));
+        block.addInstruction(new Instruction(context, op.BEQ, left, right));
         break;
       case "!=":
-        block.addInstruction(new Instruction(op.BNE, left, right));
+        block.addInstruction(new Instruction(context, op.BNE, left, right));
         break;
       case ">=":
-        block.addInstruction(new Instruction(op.BGE, left, right));
+        block.addInstruction(new Instruction(context, op.BGE, left, right));
         break;
       case "<=":
-        block.addInstruction(new Instruction(op.BLE, left, right));
+        block.addInstruction(new Instruction(context, op.BLE, left, right));
         break;
       case "<":
-        block.addInstruction(new Instruction(op.BLT, left, right));
+        block.addInstruction(new Instruction(context, op.BLT, left, right));
         break;
       case ">":
-        block.addInstruction(new Instruction(op.BGT, left, right));
+        block.addInstruction(new Instruction(context, op.BGT, left, right));
         break;
       default:
-        block.addInstruction(new Instruction(op.BRA, right));
+        block.addInstruction(new Instruction(context, op.BRA, right));
         break;
     }
-    right.storeResult();
-  }
-
-  public void setDefaultLatest() {
-    for (Block b : blocks) {
-      for (Entry<Symbol, Symbol> s : allSymbols.entrySet()) {
-        if (!b.latest.containsKey(s.getKey())) {
-          b.latest.put(s.getKey(), s.getValue());
-        }
-      }
-    }
+    block.instructions.get(block.instructions.size() - 1).line = line;
+    right.storeResult(context);
   }
 
   public void removeInstruction(Instruction i) {
@@ -858,16 +826,13 @@ public class SSA implements NodeVisitor {
     }
   }
 
-  public void instantiateUsedAt() {
+  // Lists the users of every instruction once the SSA is built. From then on
+  // the passes rewriting operands keep the lists up to date, see
+  // Instruction.users.
+  public void linkUsers() {
     for (Block b : blocks) {
       for (Instruction i : b.instructions) {
-        if (i.eliminated) continue;
-        if (i.left != null && i.left.kind == Result.INST) {
-          i.left.inst.usedAt = i;
-        }
-        if (i.right != null && i.right.kind == Result.INST) {
-          i.right.inst.usedAt = i;
-        }
+        i.linkUses();
       }
     }
   }
@@ -883,6 +848,65 @@ public class SSA implements NodeVisitor {
     return instructions;
   }
 
+  // Where control goes after each instruction of blocks not eliminated,
+  // for liveness: the next one of its block, or after the last the first of
+  // each block its block goes to, looking through blocks left with none.
+  // After a RET, and at the end of a function, there is none
+  public IdentityHashMap<Instruction, List<Instruction>> successors(
+    List<Block> blocks
+  ) {
+    Set<Block> within = Collections.newSetFromMap(new IdentityHashMap<>());
+    within.addAll(blocks);
+    IdentityHashMap<Instruction, List<Instruction>> next =
+      new IdentityHashMap<>();
+    for (Block b : blocks) {
+      Instruction last = null;
+      for (Instruction i : b.instructions) {
+        if (i.isEliminated()) {
+          continue;
+        }
+        if (last != null) {
+          next.put(last, last.inst == op.RET ? List.of() : List.of(i));
+        }
+        last = i;
+      }
+      if (last != null) {
+        ArrayList<Instruction> entries = new ArrayList<>();
+        if (last.inst != op.RET) {
+          entries(b, within, new HashSet<>(), entries);
+        }
+        next.put(last, entries);
+      }
+    }
+    return next;
+  }
+
+  // the first instructions control reaches leaving b
+  private void entries(
+    Block b,
+    Set<Block> within,
+    Set<Block> seen,
+    List<Instruction> entries
+  ) {
+    for (Block s : b.edges) {
+      if (!within.contains(s) || !seen.add(s)) {
+        continue;
+      }
+      Instruction first = null;
+      for (Instruction i : s.instructions) {
+        if (!i.isEliminated()) {
+          first = i;
+          break;
+        }
+      }
+      if (first == null) {
+        entries(s, within, seen, entries);
+      } else if (!entries.contains(first)) {
+        entries.add(first);
+      }
+    }
+  }
+
   public void countUpResults() {
     ArrayList<ArrayList<Result>> res = new ArrayList<>();
     for (Block b : blocks) {